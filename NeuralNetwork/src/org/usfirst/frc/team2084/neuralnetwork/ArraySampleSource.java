@@ -0,0 +1,80 @@
+/* 
+ * Copyright (c) 2015 RobotsByTheC. All rights reserved.
+ *
+ * Open Source Software - may be modified and shared by FRC teams. The code must
+ * be accompanied by the BSD license file in the root directory of the project.
+ */
+package org.usfirst.frc.team2084.neuralnetwork;
+
+/**
+ * A {@link SampleSource} that reads samples that are already in memory, like
+ * the samples of {@link Data}.
+ * 
+ * @author Ben Wolsieffer
+ */
+public class ArraySampleSource implements SampleSource {
+
+    private final double[][] inputs;
+    private final double[][] targetOutputs;
+    /**
+     * The index of the next sample.
+     */
+    private int index = 0;
+
+    /**
+     * Creates a source that reads the rows of a pair of matrices. The
+     * matrices are not copied.
+     * 
+     * @param inputs the input values, with one row per sample
+     * @param targetOutputs the target output values, with one row per sample
+     */
+    public ArraySampleSource(final double[][] inputs, final double[][] targetOutputs) {
+        if (inputs.length != targetOutputs.length) {
+            throw new IllegalArgumentException("inputs and targetOutputs lengths do not match.");
+        }
+        if (inputs.length == 0) {
+            throw new IllegalArgumentException("There must be at least one sample.");
+        }
+        this.inputs = inputs;
+        this.targetOutputs = targetOutputs;
+    }
+
+    /**
+     * Creates a source that reads the samples of network data.
+     * 
+     * @param data the data to read
+     */
+    public ArraySampleSource(final Data data) {
+        this(data.getInputs(), data.getTargetOutputs());
+    }
+
+    @Override
+    public int getInputCount() {
+        return inputs[0].length;
+    }
+
+    @Override
+    public int getOutputCount() {
+        return targetOutputs[0].length;
+    }
+
+    @Override
+    public boolean next(final double[] input, final double[] targetOutput) {
+        if (index >= inputs.length) {
+            return false;
+        }
+        System.arraycopy(inputs[index], 0, input, 0, inputs[index].length);
+        System.arraycopy(targetOutputs[index], 0, targetOutput, 0, targetOutputs[index].length);
+        index++;
+        return true;
+    }
+
+    @Override
+    public void rewind() {
+        index = 0;
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,515 @@
+/* 
+ * Copyright (c) 2015 RobotsByTheC. All rights reserved.
+ *
+ * Open Source Software - may be modified and shared by FRC teams. The code must
+ * be accompanied by the BSD license file in the root directory of the project.
+ */
+package org.usfirst.frc.team2084.neuralnetwork;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+/**
+ * Reads and writes the binary form of {@link Data}. It holds the same
+ * information as the text format, but the weights and samples are copied
+ * directly to and from the file in large blocks instead of being converted to
+ * and from text one number at a time.
+ * 
+ * The data starts with the characters "NNBD" and a version number, followed
+ * by the storage type (dense, single-precision or sparse), the topology, the
+ * learning rate, the momentum and the name of the transfer function of each
+ * layer after the input layer. Then comes one block of weights per layer, in
+ * the layout of {@link Network#getWeights(int)} (or
+ * {@link SparseNetwork#getRowStarts(int)}, {@link SparseNetwork#getColumns(int)}
+ * and {@link SparseNetwork#getWeights(int)} for sparse networks). Dense
+ * networks then have the name of their optimizer, its step count and its state
+ * arrays, in the layout of {@link Network#getOptimizerState(int, int)}. After
+ * that comes the number of samples, a block containing every input sample and
+ * a block containing every target output. The data ends with a CRC-32C
+ * checksum of everything before it. All numbers are little-endian.
+ * 
+ * @author Ben Wolsieffer
+ */
+final class BinaryData {
+
+    /**
+     * The first four bytes of binary data. These are written as bytes, so they
+     * do not depend on the byte order of the rest of the data.
+     */
+    private static final byte[] MAGIC = { 'N', 'N', 'B', 'D' };
+    /**
+     * The version of the format.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * Storage types.
+     */
+    private static final byte DENSE = 0;
+    private static final byte SINGLE_PRECISION = 1;
+    private static final byte SPARSE = 2;
+
+    /**
+     * The size of the buffer used to read and write the channel.
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private final CRC32C checksum = new CRC32C();
+    /**
+     * The index in the buffer of the first byte that has not been added to the
+     * checksum.
+     */
+    private int checksumPosition = 0;
+
+    private BinaryData() {
+    }
+
+    /**
+     * Checks whether data starts with the binary magic number.
+     * 
+     * @param header the first four bytes of the data, or fewer if the data is
+     *            shorter
+     * @param length the number of bytes in the header
+     * @return true if the data is binary
+     */
+    static boolean isBinary(final byte[] header, final int length) {
+        return length == MAGIC.length && Arrays.equals(header, 0, length, MAGIC, 0, MAGIC.length);
+    }
+
+    /**
+     * Writes network data in the binary format.
+     * 
+     * @param data the data to write
+     * @param channel the channel to write to, which is not closed
+     * @throws IOException if the data could not be written
+     */
+    static void write(final Data data, final WritableByteChannel channel) throws IOException {
+        new BinaryData().writeData(data, channel);
+    }
+
+    /**
+     * Reads network data in the binary format.
+     * 
+     * @param channel the channel to read from, which is not closed
+     * @return the data
+     * @throws IOException if the data could not be read
+     * @throws Data.FormatException if the data is not valid
+     */
+    static Data read(final ReadableByteChannel channel) throws IOException, Data.FormatException {
+        return new BinaryData().readData(channel);
+    }
+
+    private void writeData(final Data data, final WritableByteChannel channel) throws IOException {
+        final boolean singlePrecision = data.isSinglePrecision();
+        final boolean sparse = data.isSparse();
+        final FloatNetwork floatNetwork = data.getFloatNetwork();
+        final SparseNetwork sparseNetwork = data.getSparseNetwork();
+        final Network network = data.getNetwork();
+
+        final int[] topology;
+        final TransferFunction[] transferFunctions;
+        final double eta;
+        final double momentum;
+        if (singlePrecision) {
+            topology = floatNetwork.getTopology();
+            transferFunctions = floatNetwork.getTransferFunctions();
+            eta = floatNetwork.getEta();
+            momentum = floatNetwork.getMomentum();
+        } else if (sparse) {
+            topology = sparseNetwork.getTopology();
+            transferFunctions = sparseNetwork.getTransferFunctions();
+            eta = sparseNetwork.getEta();
+            momentum = sparseNetwork.getMomentum();
+        } else {
+            topology = network.getTopology();
+            transferFunctions = network.getTransferFunctions();
+            eta = network.getEta();
+            momentum = network.getMomentum();
+        }
+
+        buffer.clear();
+        buffer.put(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.put(singlePrecision ? SINGLE_PRECISION : sparse ? SPARSE : DENSE);
+        buffer.putInt(topology.length);
+        for (int size : topology) {
+            putInt(channel, size);
+        }
+        putDouble(channel, eta);
+        putDouble(channel, momentum);
+        for (TransferFunction transferFunction : transferFunctions) {
+            putName(channel, transferFunction.toString());
+        }
+
+        for (int l = 0; l < topology.length - 1; l++) {
+            if (singlePrecision) {
+                final float[] weights = floatNetwork.getWeights(l);
+                for (int i = 0; i < weights.length;) {
+                    flush(channel, Float.BYTES);
+                    final int length = Math.min(weights.length - i, buffer.remaining() / Float.BYTES);
+                    buffer.asFloatBuffer().put(weights, i, length);
+                    buffer.position(buffer.position() + length * Float.BYTES);
+                    i += length;
+                }
+            } else if (sparse) {
+                final int[] rowStarts = sparseNetwork.getRowStarts(l);
+                putInts(channel, rowStarts);
+                putInts(channel, sparseNetwork.getColumns(l));
+                putDoubles(channel, sparseNetwork.getWeights(l), rowStarts[rowStarts.length - 1]);
+            } else {
+                final double[] weights = network.getWeights(l);
+                putDoubles(channel, weights, weights.length);
+            }
+        }
+
+        if (network != null) {
+            final Optimizer optimizer = network.getOptimizer();
+            putName(channel, optimizer.toString());
+            putLong(channel, network.getOptimizerStep());
+            for (int l = 0; l < topology.length - 1; l++) {
+                for (int i = 0; i < optimizer.getStateCount(); i++) {
+                    final double[] state = network.getOptimizerState(l, i);
+                    putDoubles(channel, state, state.length);
+                }
+            }
+        }
+
+        final double[][] inputs = data.getInputs();
+        final double[][] targetOutputs = data.getTargetOutputs();
+        putInt(channel, inputs.length);
+        for (double[] input : inputs) {
+            putDoubles(channel, input, input.length);
+        }
+        for (double[] targetOutput : targetOutputs) {
+            putDoubles(channel, targetOutput, targetOutput.length);
+        }
+
+        updateChecksum();
+        putInt(channel, (int) checksum.getValue());
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Writes the buffer to the channel if it has less than the specified
+     * number of bytes free.
+     * 
+     * @param channel the channel to write to
+     * @param size the number of bytes that need to fit in the buffer
+     * @throws IOException if the data could not be written
+     */
+    private void flush(final WritableByteChannel channel, final int size) throws IOException {
+        if (buffer.remaining() < size) {
+            updateChecksum();
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+            checksumPosition = 0;
+        }
+    }
+
+    /**
+     * Writes a name as its length followed by its UTF-8 bytes.
+     * 
+     * @param channel the channel to write to
+     * @param value the name
+     * @throws IOException if the data could not be written
+     */
+    private void putName(final WritableByteChannel channel, final String value) throws IOException {
+        final byte[] name = value.getBytes(StandardCharsets.UTF_8);
+        flush(channel, Short.BYTES + name.length);
+        buffer.putShort((short) name.length);
+        buffer.put(name);
+    }
+
+    private void putInt(final WritableByteChannel channel, final int value) throws IOException {
+        flush(channel, Integer.BYTES);
+        buffer.putInt(value);
+    }
+
+    private void putLong(final WritableByteChannel channel, final long value) throws IOException {
+        flush(channel, Long.BYTES);
+        buffer.putLong(value);
+    }
+
+    private void putDouble(final WritableByteChannel channel, final double value) throws IOException {
+        flush(channel, Double.BYTES);
+        buffer.putDouble(value);
+    }
+
+    private void putInts(final WritableByteChannel channel, final int[] values) throws IOException {
+        for (int i = 0; i < values.length;) {
+            flush(channel, Integer.BYTES);
+            final int length = Math.min(values.length - i, buffer.remaining() / Integer.BYTES);
+            buffer.asIntBuffer().put(values, i, length);
+            buffer.position(buffer.position() + length * Integer.BYTES);
+            i += length;
+        }
+    }
+
+    private void putDoubles(final WritableByteChannel channel, final double[] values, final int count)
+            throws IOException {
+        for (int i = 0; i < count;) {
+            flush(channel, Double.BYTES);
+            final int length = Math.min(count - i, buffer.remaining() / Double.BYTES);
+            buffer.asDoubleBuffer().put(values, i, length);
+            buffer.position(buffer.position() + length * Double.BYTES);
+            i += length;
+        }
+    }
+
+    private Data readData(final ReadableByteChannel channel) throws IOException, Data.FormatException {
+        buffer.clear().flip();
+
+        fill(channel, MAGIC.length);
+        final byte[] magic = new byte[MAGIC.length];
+        buffer.get(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new Data.FormatException("Not binary network data.");
+        }
+        final int version = getInt(channel);
+        if (version != VERSION) {
+            throw new Data.FormatException("Unsupported binary version: " + version);
+        }
+        fill(channel, 1);
+        final byte storage = buffer.get();
+        if (storage != DENSE && storage != SINGLE_PRECISION && storage != SPARSE) {
+            throw new Data.FormatException("Unrecognized storage.");
+        }
+
+        final int layerCount = getInt(channel);
+        if (layerCount < 2) {
+            throw new Data.FormatException("Invalid topology.");
+        }
+        final int[] topology = new int[layerCount];
+        for (int l = 0; l < layerCount; l++) {
+            topology[l] = getInt(channel);
+            if (topology[l] < 1) {
+                throw new Data.FormatException("Invalid topology.");
+            }
+        }
+        final double eta = getDouble(channel);
+        final double momentum = getDouble(channel);
+        final TransferFunction[] transferFunctions = new TransferFunction[layerCount - 1];
+        for (int l = 0; l < transferFunctions.length; l++) {
+            transferFunctions[l] = Data.parseTransferFunction(getName(channel));
+            if (transferFunctions[l] == null) {
+                throw new Data.FormatException("Unrecognized transfer function.");
+            }
+        }
+
+        final Network network;
+        final FloatNetwork floatNetwork;
+        final SparseNetwork sparseNetwork;
+        if (storage == SINGLE_PRECISION) {
+            network = null;
+            sparseNetwork = null;
+            floatNetwork = new FloatNetwork(topology, (float) eta, (float) momentum, transferFunctions);
+            for (int l = 0; l < layerCount - 1; l++) {
+                final float[] weights = floatNetwork.getWeights(l);
+                for (int i = 0; i < weights.length;) {
+                    fill(channel, Float.BYTES);
+                    final int length = Math.min(weights.length - i, buffer.remaining() / Float.BYTES);
+                    buffer.asFloatBuffer().get(weights, i, length);
+                    buffer.position(buffer.position() + length * Float.BYTES);
+                    i += length;
+                }
+            }
+        } else if (storage == SPARSE) {
+            network = null;
+            floatNetwork = null;
+            final int[][] rowStarts = new int[layerCount - 1][];
+            final int[][] columns = new int[layerCount - 1][];
+            final double[][] weights = new double[layerCount - 1][];
+            for (int l = 0; l < layerCount - 1; l++) {
+                rowStarts[l] = new int[topology[l + 1] + 1];
+                getInts(channel, rowStarts[l]);
+                final int count = rowStarts[l][topology[l + 1]];
+                if (count < 0 || count > (long) topology[l + 1] * (topology[l] + 1)) {
+                    throw new Data.FormatException("Invalid sparse weights for layer " + l);
+                }
+                columns[l] = new int[count];
+                getInts(channel, columns[l]);
+                weights[l] = new double[count];
+                getDoubles(channel, weights[l]);
+            }
+            try {
+                sparseNetwork = new SparseNetwork(topology, eta, momentum, transferFunctions, rowStarts, columns,
+                        weights);
+            } catch (IllegalArgumentException e) {
+                throw new Data.FormatException(e.getMessage());
+            }
+        } else {
+            floatNetwork = null;
+            sparseNetwork = null;
+            network = new Network(topology, eta, momentum, transferFunctions);
+            for (int l = 0; l < layerCount - 1; l++) {
+                getDoubles(channel, network.getWeights(l));
+            }
+            final Optimizer optimizer = Data.parseOptimizer(getName(channel));
+            if (optimizer == null) {
+                throw new Data.FormatException("Unrecognized optimizer.");
+            }
+            network.setOptimizer(optimizer);
+            final long step = getLong(channel);
+            if (step < 0) {
+                throw new Data.FormatException("Invalid optimizer step.");
+            }
+            network.setOptimizerStep(step);
+            for (int l = 0; l < layerCount - 1; l++) {
+                for (int i = 0; i < optimizer.getStateCount(); i++) {
+                    getDoubles(channel, network.getOptimizerState(l, i));
+                }
+            }
+        }
+
+        final int sampleCount = getInt(channel);
+        if (sampleCount < 0) {
+            throw new Data.FormatException("Invalid sample count.");
+        }
+        final double[][] inputs = getRows(channel, sampleCount, topology[0]);
+        final double[][] targetOutputs = getRows(channel, sampleCount, topology[layerCount - 1]);
+
+        fill(channel, Integer.BYTES);
+        updateChecksum();
+        if (buffer.getInt() != (int) checksum.getValue()) {
+            throw new Data.FormatException("Checksum mismatch.");
+        }
+
+        if (storage == SINGLE_PRECISION) {
+            return new Data(floatNetwork, inputs, targetOutputs);
+        } else if (storage == SPARSE) {
+            return new Data(sparseNetwork, inputs, targetOutputs);
+        } else {
+            return new Data(network, inputs, targetOutputs);
+        }
+    }
+
+    /**
+     * Reads from the channel until the buffer contains at least the specified
+     * number of unread bytes.
+     * 
+     * @param channel the channel to read from
+     * @param size the number of bytes that are needed, which must not be more
+     *            than the size of the buffer
+     * @throws IOException if the data could not be read
+     * @throws Data.FormatException if the channel ends first
+     */
+    private void fill(final ReadableByteChannel channel, final int size) throws IOException, Data.FormatException {
+        if (buffer.remaining() < size) {
+            updateChecksum();
+            buffer.compact();
+            checksumPosition = 0;
+            while (buffer.position() < size) {
+                if (channel.read(buffer) < 0) {
+                    throw new Data.FormatException("Unexpected end of data.");
+                }
+            }
+            buffer.flip();
+        }
+    }
+
+    /**
+     * Reads a name that was written by
+     * {@link #putName(WritableByteChannel, String)}.
+     * 
+     * @param channel the channel to read from
+     * @return the name
+     * @throws IOException if the data could not be read
+     * @throws Data.FormatException if the channel ends first
+     */
+    private String getName(final ReadableByteChannel channel) throws IOException, Data.FormatException {
+        fill(channel, Short.BYTES);
+        final int nameLength = buffer.getShort() & 0xFFFF;
+        fill(channel, nameLength);
+        final byte[] name = new byte[nameLength];
+        buffer.get(name);
+        return new String(name, StandardCharsets.UTF_8);
+    }
+
+    private int getInt(final ReadableByteChannel channel) throws IOException, Data.FormatException {
+        fill(channel, Integer.BYTES);
+        return buffer.getInt();
+    }
+
+    private long getLong(final ReadableByteChannel channel) throws IOException, Data.FormatException {
+        fill(channel, Long.BYTES);
+        return buffer.getLong();
+    }
+
+    private double getDouble(final ReadableByteChannel channel) throws IOException, Data.FormatException {
+        fill(channel, Double.BYTES);
+        return buffer.getDouble();
+    }
+
+    private void getInts(final ReadableByteChannel channel, final int[] values)
+            throws IOException, Data.FormatException {
+        for (int i = 0; i < values.length;) {
+            fill(channel, Integer.BYTES);
+            final int length = Math.min(values.length - i, buffer.remaining() / Integer.BYTES);
+            buffer.asIntBuffer().get(values, i, length);
+            buffer.position(buffer.position() + length * Integer.BYTES);
+            i += length;
+        }
+    }
+
+    private void getDoubles(final ReadableByteChannel channel, final double[] values)
+            throws IOException, Data.FormatException {
+        for (int i = 0; i < values.length;) {
+            fill(channel, Double.BYTES);
+            final int length = Math.min(values.length - i, buffer.remaining() / Double.BYTES);
+            buffer.asDoubleBuffer().get(values, i, length);
+            buffer.position(buffer.position() + length * Double.BYTES);
+            i += length;
+        }
+    }
+
+    /**
+     * Reads a block of samples one row at a time. The sample count has not
+     * been verified by the checksum yet, so the rows are only allocated as
+     * they are read, and a count that is larger than the data fails with a
+     * {@link Data.FormatException} instead of running out of memory.
+     * 
+     * @param channel the channel to read from
+     * @param count the number of rows
+     * @param width the length of each row
+     * @return the rows
+     * @throws IOException if the data could not be read
+     * @throws Data.FormatException if the channel ends first
+     */
+    private double[][] getRows(final ReadableByteChannel channel, final int count, final int width)
+            throws IOException, Data.FormatException {
+        final List<double[]> rows = new ArrayList<>(Math.min(count, BUFFER_SIZE));
+        for (int i = 0; i < count; i++) {
+            final double[] row = new double[width];
+            getDoubles(channel, row);
+            rows.add(row);
+        }
+        return rows.toArray(new double[count][]);
+    }
+
+    /**
+     * Adds the bytes that were read or written since the last call to the
+     * checksum.
+     */
+    private void updateChecksum() {
+        final ByteBuffer processed = buffer.duplicate();
+        processed.limit(buffer.position());
+        processed.position(checksumPosition);
+        checksum.update(processed);
+        checksumPosition = buffer.position();
+    }
+}
@@ -0,0 +1,221 @@
+/* 
+ * Copyright (c) 2015 RobotsByTheC. All rights reserved.
+ *
+ * Open Source Software - may be modified and shared by FRC teams. The code must
+ * be accompanied by the BSD license file in the root directory of the project.
+ */
+package org.usfirst.frc.team2084.neuralnetwork;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A {@link SampleSource} that reads samples from a binary file, which is
+ * mapped into memory. The operating system loads the samples from the file as
+ * they are read, and keeps them in its page cache between epochs if there is
+ * room, so nothing has to be parsed and the samples never take up space on the
+ * heap.
+ * 
+ * The file starts with the characters "NNSS", a version number, the number of
+ * inputs and the number of outputs. Then each sample is stored as its inputs
+ * followed by its target outputs, with no space in between. All numbers are
+ * little-endian. Files can be written from any other source by
+ * {@link #write(SampleSource, File)}.
+ * 
+ * @author Ben Wolsieffer
+ */
+public class BinarySampleSource implements SampleSource {
+
+    /**
+     * The first four bytes of a binary sample file. These are written as
+     * bytes, so they do not depend on the byte order of the rest of the file.
+     */
+    private static final byte[] MAGIC = { 'N', 'N', 'S', 'S' };
+    /**
+     * The version of the file format.
+     */
+    private static final int VERSION = 1;
+    /**
+     * The size of the header at the start of the file.
+     */
+    private static final int HEADER_SIZE = 4 * Integer.BYTES;
+
+    private final FileChannel channel;
+    private final int inputCount;
+    private final int outputCount;
+    /**
+     * The total number of samples in the file.
+     */
+    private final long sampleCount;
+    /**
+     * The number of samples in each mapped part of the file. The file is
+     * mapped in parts, because a single mapping can not be larger than 2 GB.
+     */
+    private final long segmentSamples;
+    /**
+     * The index of the first sample of the current part of the file.
+     */
+    private long segmentStart = 0;
+    /**
+     * The samples in the current part of the file, or null if it has not been
+     * mapped.
+     */
+    private DoubleBuffer segment;
+
+    /**
+     * Opens a binary sample file.
+     * 
+     * @param file the file to read
+     * @throws IOException if the file could not be read
+     * @throws Data.FormatException if the file is not a valid sample file
+     */
+    public BinarySampleSource(final File file) throws IOException, Data.FormatException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining()) {
+                if (channel.read(header) < 0) {
+                    throw new Data.FormatException("Not a binary sample file.");
+                }
+            }
+            header.flip();
+            final byte[] magic = new byte[MAGIC.length];
+            header.get(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new Data.FormatException("Not a binary sample file.");
+            }
+            final int version = header.getInt();
+            if (version != VERSION) {
+                throw new Data.FormatException("Unsupported sample file version: " + version);
+            }
+            inputCount = header.getInt();
+            outputCount = header.getInt();
+            if (inputCount < 1 || outputCount < 1) {
+                throw new Data.FormatException("Invalid sample size.");
+            }
+
+            final long sampleSize = (long) (inputCount + outputCount) * Double.BYTES;
+            final long dataSize = channel.size() - HEADER_SIZE;
+            if (dataSize % sampleSize != 0) {
+                throw new Data.FormatException("Truncated sample file.");
+            }
+            sampleCount = dataSize / sampleSize;
+            segmentSamples = Integer.MAX_VALUE / sampleSize;
+            if (segmentSamples < 1) {
+                throw new Data.FormatException("Invalid sample size.");
+            }
+        } catch (IOException | Data.FormatException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Writes every sample of one epoch of another source to a binary sample
+     * file. The samples are streamed, so they do not need to fit in memory.
+     * 
+     * @param source the source to read
+     * @param file the file to write, which is replaced if it exists
+     * @return the number of samples that were written
+     * @throws IOException if the samples could not be read or written
+     * @throws Data.FormatException if the source contains invalid samples
+     */
+    public static long write(final SampleSource source, final File file) throws IOException, Data.FormatException {
+        final int inputCount = source.getInputCount();
+        final int outputCount = source.getOutputCount();
+        final double[] input = new double[inputCount];
+        final double[] targetOutput = new double[outputCount];
+        final int sampleSize = (inputCount + outputCount) * Double.BYTES;
+
+        try (FileChannel out = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            final ByteBuffer buffer = ByteBuffer.allocateDirect(Math.max(1 << 16, sampleSize))
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            buffer.put(MAGIC);
+            buffer.putInt(VERSION);
+            buffer.putInt(inputCount);
+            buffer.putInt(outputCount);
+
+            long count = 0;
+            while (source.next(input, targetOutput)) {
+                if (buffer.remaining() < sampleSize) {
+                    writeBuffer(out, buffer);
+                }
+                buffer.asDoubleBuffer().put(input).put(targetOutput);
+                buffer.position(buffer.position() + sampleSize);
+                count++;
+            }
+            writeBuffer(out, buffer);
+            return count;
+        }
+    }
+
+    /**
+     * Writes the contents of a buffer to a channel and clears it.
+     */
+    private static void writeBuffer(final FileChannel out, final ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    @Override
+    public int getInputCount() {
+        return inputCount;
+    }
+
+    @Override
+    public int getOutputCount() {
+        return outputCount;
+    }
+
+    /**
+     * Gets the number of samples in the file.
+     * 
+     * @return the number of samples
+     */
+    public long getSampleCount() {
+        return sampleCount;
+    }
+
+    @Override
+    public boolean next(final double[] input, final double[] targetOutput) throws IOException {
+        if (segment == null || !segment.hasRemaining()) {
+            if (segment != null) {
+                segmentStart += segmentSamples;
+            }
+            if (segmentStart >= sampleCount) {
+                segment = null;
+                segmentStart = sampleCount;
+                return false;
+            }
+            final long samples = Math.min(segmentSamples, sampleCount - segmentStart);
+            final long sampleSize = (long) (inputCount + outputCount) * Double.BYTES;
+            segment = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + segmentStart * sampleSize,
+                    samples * sampleSize).order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+        }
+        segment.get(input, 0, inputCount);
+        segment.get(targetOutput, 0, outputCount);
+        return true;
+    }
+
+    @Override
+    public void rewind() {
+        segmentStart = 0;
+        segment = null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        segment = null;
+        channel.close();
+    }
+}
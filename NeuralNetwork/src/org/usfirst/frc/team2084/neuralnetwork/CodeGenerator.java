@@ -0,0 +1,650 @@
+/* 
+ * Copyright (c) 2015 RobotsByTheC. All rights reserved.
+ *
+ * Open Source Software - may be modified and shared by FRC teams. The code must
+ * be accompanied by the BSD license file in the root directory of the project.
+ */
+package org.usfirst.frc.team2084.neuralnetwork;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.lang.model.SourceVersion;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+/**
+ * Generates Java code that is specialized for the topology, weights and
+ * transfer function of a trained {@link Network}. All the loops are unrolled
+ * and the weights are written into the code as constants, so the JIT compiler
+ * can turn a small network into a short sequence of multiplications and
+ * additions with no array accesses or virtual calls.
+ * 
+ * {@link #exportSource(Network, String, String)} writes the code as a
+ * self-contained Java class, which can be added to a robot project so the
+ * network does not have to be loaded from a {@link Data} file at startup.
+ * 
+ * {@link #generate(Network)} compiles the code in memory and loads it as a
+ * hidden class. This needs the system Java compiler, which is only available
+ * on a JDK. If the compiler is not available or the network is too large to
+ * unroll, a {@link CompiledNetwork} is used instead.
+ * 
+ * @author Ben Wolsieffer
+ */
+public final class CodeGenerator {
+
+    /**
+     * The largest estimated size of the generated {@code predict} method, in
+     * bytes of bytecode. By default HotSpot never JIT compiles a method that
+     * is larger than 8000 bytes, so a larger unrolled network would always
+     * run in the interpreter. {@link #generate(Network)} uses a
+     * {@link CompiledNetwork} for those networks instead, and
+     * {@link #exportSource(Network, String, String)} rejects them.
+     * 
+     * The size depends on more than the number of weights: every input is
+     * copied into a local variable, and neurons whose local variables come
+     * after the first 256 slots need longer instructions.
+     */
+    public static final int MAX_CODE_SIZE = 8000;
+
+    /**
+     * The name of the generated class, before the JVM makes it unique.
+     */
+    private static final String CLASS_NAME = "GeneratedNetwork";
+    /**
+     * The largest size of the code that checks the sizes of the arrays passed
+     * to {@code predict} and returns from it, in bytes.
+     */
+    private static final int SIZE_CHECKS = 48;
+    /**
+     * The largest size of the code that applies a transfer function to a sum,
+     * in bytes.
+     */
+    private static final int SIZE_ACTIVATION = 16;
+
+    private CodeGenerator() {
+    }
+
+    /**
+     * Creates an inference model that runs code generated specifically for
+     * the specified network. Like {@link Network#compileForInference()}, the
+     * model contains a copy of the weights, so later changes to the network do
+     * not affect it, and it can be used from any number of threads.
+     * 
+     * Generating the code takes a while (compiling it is much slower than
+     * running it), so it should be done once when the network is loaded.
+     * 
+     * @param network the network to generate code for
+     * @return the generated model, or a {@link CompiledNetwork} if code could
+     *         not be generated
+     */
+    public static InferenceModel generate(final Network network) {
+        if (estimateCodeSize(network, false) > MAX_CODE_SIZE) {
+            return network.compileForInference();
+        }
+
+        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            System.err.println("Warning: no Java compiler available, using a compiled network instead");
+            return network.compileForInference();
+        }
+
+        try {
+            final String source = generateSource(network, CodeGenerator.class.getPackage().getName(), CLASS_NAME);
+            final byte[] classFile = compile(compiler, CLASS_NAME, source);
+
+            final MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(classFile, true);
+            return (InferenceModel) lookup
+                    .findConstructor(lookup.lookupClass(), MethodType.methodType(void.class, TransferFunction[].class))
+                    .invoke(network.getTransferFunctions());
+        } catch (Throwable t) {
+            System.err.println("Warning: could not generate code, using a compiled network instead: " + t);
+            return network.compileForInference();
+        }
+    }
+
+    /**
+     * Estimates the size of the {@code predict} method generated for a
+     * network, in bytes of bytecode. The estimate assumes the longest
+     * instruction that could be used for each part of the method, so the
+     * real method is never larger.
+     * 
+     * @param network the network
+     * @param weightArrays true if the weights are read from arrays, like in
+     *            {@link #exportSource(Network, String, String)}, false if they
+     *            are constants
+     * @return the estimated size of the method
+     */
+    static long estimateCodeSize(final Network network, final boolean weightArrays) {
+        final int[] topology = network.getTopology();
+        // The inputs and outputs parameters come after this, unless the
+        // method is static
+        final int firstLocal = weightArrays ? 2 : 3;
+        final int outputLayer = topology.length - 1;
+
+        // The checks of the array sizes and the return
+        long size = SIZE_CHECKS;
+
+        // Copying each input into a local variable
+        for (int n = 0; n < topology[0]; n++) {
+            size += 2 + intConstantSize(n) + localSize(firstLocal + 2 * n);
+        }
+
+        int layerStart = firstLocal;
+        for (int l = 1; l < topology.length; l++) {
+            final int prevSize = topology[l - 1];
+            final int nextStart = layerStart + 2 * prevSize;
+
+            for (int n = 0; n < topology[l]; n++) {
+                // Multiplying each input by its weight and adding it to the
+                // sum
+                for (int i = 0; i < prevSize; i++) {
+                    size += weightSize(n * (prevSize + 1) + i, weightArrays) + localSize(layerStart + 2 * i) + 2;
+                }
+                size += weightSize(n * (prevSize + 1) + prevSize, weightArrays) + SIZE_ACTIVATION;
+
+                if (l == outputLayer) {
+                    size += 2 + intConstantSize(n);
+                } else {
+                    size += localSize(nextStart + 2 * n);
+                }
+            }
+            layerStart = nextStart;
+        }
+        return size;
+    }
+
+    /**
+     * Gets the size of the instruction that loads or stores a double local
+     * variable.
+     * 
+     * @param slot the first slot of the variable
+     * @return the size of the instruction
+     */
+    private static int localSize(final int slot) {
+        if (slot <= 3) {
+            return 1;
+        }
+        // Slots above 255 need the wide prefix
+        return slot <= 255 ? 2 : 4;
+    }
+
+    /**
+     * Gets the size of the instruction that pushes an int constant, such as
+     * an array index.
+     * 
+     * @param value the constant
+     * @return the size of the instruction
+     */
+    private static int intConstantSize(final int value) {
+        if (value <= 5) {
+            return 1;
+        }
+        return value <= Byte.MAX_VALUE ? 2 : 3;
+    }
+
+    /**
+     * Gets the size of the code that loads a weight.
+     * 
+     * @param index the index of the weight in its layer's array
+     * @param weightArrays true if the weight is read from an array, false if
+     *            it is a constant
+     * @return the size of the code
+     */
+    private static int weightSize(final int index, final boolean weightArrays) {
+        // getstatic, the index and daload, or ldc2_w
+        return weightArrays ? 4 + intConstantSize(index) : 3;
+    }
+
+    /**
+     * Generates the source code of a class that implements
+     * {@link InferenceModel} for the specified network. The class has a
+     * constructor that takes the network's transfer functions, which are only
+     * used if a function can not be written inline.
+     * 
+     * @param network the network to generate code for
+     * @param packageName the package of the class
+     * @param className the simple name of the class
+     * @return the Java source code
+     */
+    static String generateSource(final Network network, final String packageName, final String className) {
+        final int[] topology = network.getTopology();
+        final TransferFunction[] transferFunctions = network.getTransferFunctions();
+        final int inputs = topology[0];
+        final int outputs = topology[topology.length - 1];
+
+        final String[] activations = new String[transferFunctions.length];
+        for (int l = 0; l < transferFunctions.length; l++) {
+            activations[l] = activation(transferFunctions, l, "%s");
+        }
+
+        final StringBuilder source = new StringBuilder();
+        source.append("package ").append(packageName).append(";\n\n");
+        source.append("final class ").append(className).append(" implements InferenceModel {\n\n");
+        source.append("    private final TransferFunction[] transferFunctions;\n\n");
+        source.append("    ").append(className).append("(final TransferFunction[] transferFunctions) {\n");
+        source.append("        this.transferFunctions = transferFunctions;\n");
+        source.append("    }\n\n");
+        source.append("    @Override\n");
+        source.append("    public int getInputCount() {\n");
+        source.append("        return ").append(inputs).append(";\n");
+        source.append("    }\n\n");
+        source.append("    @Override\n");
+        source.append("    public int getOutputCount() {\n");
+        source.append("        return ").append(outputs).append(";\n");
+        source.append("    }\n\n");
+        source.append("    @Override\n");
+        source.append("    public void predict(final double[] inputs, final double[] outputs) {\n");
+        appendPredictBody(source, network, activations, false);
+        source.append("    }\n");
+        appendHelpers(source, transferFunctions, false);
+        source.append("}\n");
+        return source.toString();
+    }
+
+    /**
+     * Generates the source code of a self-contained class that calculates the
+     * outputs of the specified network. The class does not depend on this
+     * library, so it can be copied into a robot project to run the network
+     * without loading a {@link Data} file. It has a static
+     * {@code predict(double[] inputs, double[] outputs)} method, and the
+     * weights are stored in static arrays with the same layout as
+     * {@link Network#getWeights(int)}.
+     * 
+     * @param network the network to export
+     * @param packageName the package of the class, or null or an empty string
+     *            for the default package
+     * @param className the simple name of the class
+     * @return the Java source code
+     * @throws IllegalArgumentException if a name is invalid, the network
+     *             uses a transfer function that is not part of this library in
+     *             any layer, or the network is so large that its
+     *             {@code predict} method could be larger than
+     *             {@link #MAX_CODE_SIZE}
+     */
+    public static String exportSource(final Network network, final String packageName, final String className) {
+        if (!SourceVersion.isIdentifier(className) || SourceVersion.isKeyword(className)) {
+            throw new IllegalArgumentException("Invalid class name: " + className);
+        }
+        final boolean defaultPackage = packageName == null || packageName.isEmpty();
+        if (!defaultPackage && !SourceVersion.isName(packageName)) {
+            throw new IllegalArgumentException("Invalid package name: " + packageName);
+        }
+        final TransferFunction[] transferFunctions = network.getTransferFunctions();
+        final String[] activations = new String[transferFunctions.length];
+        for (int l = 0; l < transferFunctions.length; l++) {
+            activations[l] = inlineActivation(transferFunctions[l], "%s", true);
+            if (activations[l] == null) {
+                throw new IllegalArgumentException("Transfer function can not be exported: " + transferFunctions[l]);
+            }
+        }
+
+        final long codeSize = estimateCodeSize(network, true);
+        if (codeSize > MAX_CODE_SIZE) {
+            throw new IllegalArgumentException("Network is too large to export: its predict method would be up to "
+                    + codeSize + " bytes, and methods larger than " + MAX_CODE_SIZE + " bytes are not compiled");
+        }
+
+        final int[] topology = network.getTopology();
+
+        final StringBuilder source = new StringBuilder();
+        if (!defaultPackage) {
+            source.append("package ").append(packageName).append(";\n\n");
+        }
+        source.append("/**\n");
+        source.append(" * A trained neural network with the topology ").append(Arrays.toString(topology))
+                .append(network.hasUniformTransferFunction()
+                        ? " and the " + transferFunctions[0] + " transfer function.\n"
+                        : " and the " + Arrays.toString(transferFunctions) + " transfer functions.\n");
+        source.append(" * This file was generated, do not edit it.\n");
+        source.append(" */\n");
+        source.append("public final class ").append(className).append(" {\n\n");
+        source.append("    public static final int INPUTS = ").append(topology[0]).append(";\n");
+        source.append("    public static final int OUTPUTS = ").append(topology[topology.length - 1]).append(";\n");
+
+        for (int l = 0; l < topology.length - 1; l++) {
+            final int rowLength = topology[l] + 1;
+            final double[] layerWeights = network.getWeights(l);
+
+            source.append("\n    private static final double[] WEIGHTS_").append(l).append(" = {\n");
+            // One row per neuron in the next layer
+            for (int n = 0; n < topology[l + 1]; n++) {
+                source.append("            ");
+                for (int i = 0; i < rowLength; i++) {
+                    source.append(constant(layerWeights[n * rowLength + i])).append(i < rowLength - 1 ? ", " : ",\n");
+                }
+            }
+            source.append("    };\n");
+        }
+
+        source.append("\n    private ").append(className).append("() {\n");
+        source.append("    }\n\n");
+        source.append("    public static void predict(final double[] inputs, final double[] outputs) {\n");
+        appendPredictBody(source, network, activations, true);
+        source.append("    }\n");
+        appendHelpers(source, transferFunctions, true);
+        source.append("}\n");
+        return source.toString();
+    }
+
+    /**
+     * Writes the source code of a self-contained class that calculates the
+     * outputs of the specified network to a file.
+     * 
+     * @param network the network to export
+     * @param packageName the package of the class, or null or an empty string
+     *            for the default package
+     * @param className the simple name of the class
+     * @param file the file to write to, which should be called
+     *            {@code <className>.java}
+     * @throws IOException if the file could not be written
+     * 
+     * @see #exportSource(Network, String, String)
+     */
+    public static void exportSource(final Network network, final String packageName, final String className,
+            final File file) throws IOException {
+        final String source = exportSource(network, packageName, className);
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            writer.write(source);
+        }
+    }
+
+    /**
+     * Appends the statements that calculate the outputs of a network. The
+     * statements read from a {@code double[]} called {@code inputs} and write
+     * to a {@code double[]} called {@code outputs}, after checking their
+     * sizes. Each neuron's output is stored in a local variable called
+     * {@code l<layer>_<neuron>}.
+     * 
+     * @param source the source code to append to
+     * @param network the network to generate code for
+     * @param activations a format string for each layer after the input
+     *            layer, that applies the layer's transfer function to the
+     *            expression substituted for {@code %s}
+     * @param weightArrays true to read the weights from arrays called
+     *            {@code WEIGHTS_<layer>}, false to write them as constants
+     */
+    static void appendPredictBody(final StringBuilder source, final Network network, final String[] activations,
+            final boolean weightArrays) {
+        final int[] topology = network.getTopology();
+        final int outputs = topology[topology.length - 1];
+
+        source.append("        if (inputs.length != ").append(topology[0]).append(") {\n");
+        source.append("            throw new IllegalArgumentException(")
+                .append("\"inputs needs to be the same size as the input layer - bias\");\n");
+        source.append("        }\n");
+        source.append("        if (outputs.length < ").append(outputs).append(") {\n");
+        source.append("            throw new IllegalArgumentException(")
+                .append("\"outputs is smaller than the output layer.\");\n");
+        source.append("        }\n");
+
+        for (int n = 0; n < topology[0]; n++) {
+            source.append("        final double l0_").append(n).append(" = inputs[").append(n).append("];\n");
+        }
+
+        for (int l = 1; l < topology.length; l++) {
+            final boolean outputLayer = l == topology.length - 1;
+            final int prevSize = topology[l - 1];
+
+            for (int n = 0; n < topology[l]; n++) {
+                // Sum in the same order as the network, with the bias last
+                final StringBuilder sum = new StringBuilder();
+                for (int i = 0; i < prevSize; i++) {
+                    appendWeight(sum, network, l - 1, i, n, weightArrays);
+                    sum.append(" * l").append(l - 1).append('_').append(i).append(" + ");
+                }
+                appendWeight(sum, network, l - 1, prevSize, n, weightArrays);
+
+                if (outputLayer) {
+                    source.append("        outputs[").append(n).append("] = ");
+                } else {
+                    source.append("        final double l").append(l).append('_').append(n).append(" = ");
+                }
+                source.append(String.format(activations[l - 1], sum)).append(";\n");
+            }
+        }
+    }
+
+    /**
+     * Appends an expression for the weight of a connection.
+     * 
+     * @param source the source code to append to
+     * @param network the network
+     * @param layer the layer the connection comes from
+     * @param from the index of the neuron the connection comes from
+     * @param to the index of the neuron in the next layer
+     * @param weightArrays true to read the weight from an array, false to
+     *            write it as a constant
+     */
+    private static void appendWeight(final StringBuilder source, final Network network, final int layer,
+            final int from, final int to, final boolean weightArrays) {
+        if (weightArrays) {
+            source.append("WEIGHTS_").append(layer).append('[')
+                    .append(to * (network.getTopology()[layer] + 1) + from).append(']');
+        } else {
+            source.append(literal(network.getWeight(layer, from, to)));
+        }
+    }
+
+    /**
+     * Appends any fields and methods needed by the expressions returned by
+     * {@link #inlineActivation}. Each helper is only added once, even if
+     * several layers need it.
+     * 
+     * @param source the source code to append to
+     * @param transferFunctions the transfer functions of the layers
+     * @param standalone true if the code can not use this library
+     */
+    static void appendHelpers(final StringBuilder source, final TransferFunction[] transferFunctions,
+            final boolean standalone) {
+        boolean relu = false;
+        boolean leakyRelu = false;
+        boolean tanh = false;
+        for (TransferFunction transferFunction : transferFunctions) {
+            final Class<?> type = transferFunction.getClass();
+            relu |= type == TransferFunction.ReLU.class || type == TransferFunction.Step.class;
+            leakyRelu |= type == TransferFunction.LeakyReLU.class;
+            tanh |= type == TransferFunction.FastHyperbolicTangent.class || type == TransferFunction.FastSigmoid.class;
+        }
+
+        if (relu) {
+            source.append("\n");
+            source.append("    private static double relu(final double x) {\n");
+            source.append("        return x < 0 ? 0 : x;\n");
+            source.append("    }\n");
+        }
+        if (leakyRelu) {
+            source.append("\n");
+            source.append("    private static double leakyRelu(final double x, final double slope) {\n");
+            source.append("        return x < 0 ? slope * x : x;\n");
+            source.append("    }\n");
+        }
+        if (standalone && tanh) {
+            // Copy of the lookup table used by FastHyperbolicTangent, so the
+            // results are exactly the same
+            source.append("\n");
+            source.append("    private static final double TANH_RANGE = ")
+                    .append(constant(TransferFunction.FastHyperbolicTangent.RANGE)).append(";\n");
+            source.append("    private static final int TANH_RESOLUTION = ")
+                    .append(TransferFunction.FastHyperbolicTangent.RESOLUTION).append(";\n");
+            source.append("    private static final double[] TANH_TABLE = ")
+                    .append("new double[(int) (2 * TANH_RANGE * TANH_RESOLUTION) + 1];\n\n");
+            source.append("    static {\n");
+            source.append("        for (int i = 0; i < TANH_TABLE.length; i++) {\n");
+            source.append("            TANH_TABLE[i] = Math.tanh((double) i / TANH_RESOLUTION - TANH_RANGE);\n");
+            source.append("        }\n");
+            source.append("    }\n\n");
+            source.append("    private static double approximateTanh(final double x) {\n");
+            source.append("        if (x >= TANH_RANGE) {\n");
+            source.append("            return 1.0;\n");
+            source.append("        } else if (x <= -TANH_RANGE) {\n");
+            source.append("            return -1.0;\n");
+            source.append("        }\n");
+            source.append("        final double position = (x + TANH_RANGE) * TANH_RESOLUTION;\n");
+            source.append("        final int index = (int) position;\n");
+            source.append("        final double fraction = position - index;\n");
+            source.append("        final double low = TANH_TABLE[index];\n");
+            source.append("        return low + (TANH_TABLE[index + 1] - low) * fraction;\n");
+            source.append("    }\n");
+        }
+    }
+
+    /**
+     * Gets a format string that applies the transfer function of a layer to
+     * an expression. The functions that are part of this library are written
+     * inline, and any other function is called through the
+     * {@code transferFunctions} field.
+     * 
+     * @param transferFunctions the transfer functions of the layers after the
+     *            input layer
+     * @param index the index of the layer's transfer function
+     * @param argument the expression the function is applied to
+     * @return the Java expression
+     */
+    static String activation(final TransferFunction[] transferFunctions, final int index, final String argument) {
+        final String inline = inlineActivation(transferFunctions[index], argument, false);
+        return inline != null ? inline : "transferFunctions[" + index + "].calculate(" + argument + ")";
+    }
+
+    /**
+     * Gets a Java expression that applies a transfer function to an
+     * expression without calling the transfer function object. The
+     * expressions produce exactly the same results as
+     * {@link TransferFunction#calculate(double)}. Some functions call methods
+     * that are added by {@link #appendHelpers}.
+     * 
+     * @param transferFunction the transfer function
+     * @param argument the expression the function is applied to
+     * @param standalone true if the expression can not use this library
+     * @return the Java expression, or null if the transfer function is not
+     *         one of the built in ones
+     */
+    static String inlineActivation(final TransferFunction transferFunction, final String argument,
+            final boolean standalone) {
+        final String tanh = standalone ? "approximateTanh" : "TransferFunction.FastHyperbolicTangent.tanh";
+        final Class<?> type = transferFunction.getClass();
+        if (type == TransferFunction.Sigmoid.class) {
+            return "1 / (1 + Math.exp(-(" + argument + ")))";
+        } else if (type == TransferFunction.HyperbolicTangent.class) {
+            return "Math.tanh(" + argument + ")";
+        } else if (type == TransferFunction.FastHyperbolicTangent.class) {
+            return tanh + "(" + argument + ")";
+        } else if (type == TransferFunction.FastSigmoid.class) {
+            return "0.5 + 0.5 * " + tanh + "(0.5 * (" + argument + "))";
+        } else if (type == TransferFunction.ReLU.class || type == TransferFunction.Step.class) {
+            return "relu(" + argument + ")";
+        } else if (type == TransferFunction.LeakyReLU.class) {
+            return "leakyRelu(" + argument + ", "
+                    + constant(((TransferFunction.LeakyReLU) transferFunction).getSlope()) + ")";
+        } else if (type == TransferFunction.Linear.class) {
+            return "(" + argument + ")";
+        }
+        return null;
+    }
+
+    /**
+     * Converts a double to a Java expression that has exactly the same value.
+     * 
+     * @param value the value
+     * @return the Java expression
+     */
+    static String literal(final double value) {
+        if (value < 0 || (value == 0 && 1 / value < 0)) {
+            // Parenthesize negative numbers so they can follow an operator
+            return "(" + constant(value) + ")";
+        }
+        return constant(value);
+    }
+
+    /**
+     * Converts a double to a Java expression that has exactly the same value,
+     * without parentheses around negative numbers.
+     * 
+     * @param value the value
+     * @return the Java expression
+     */
+    static String constant(final double value) {
+        if (Double.isNaN(value)) {
+            return "Double.NaN";
+        } else if (Double.isInfinite(value)) {
+            return value > 0 ? "Double.POSITIVE_INFINITY" : "Double.NEGATIVE_INFINITY";
+        }
+        return Double.toString(value);
+    }
+
+    /**
+     * Compiles a single class in memory.
+     * 
+     * @param compiler the Java compiler
+     * @param className the simple name of the class
+     * @param source the source code of the class
+     * @return the class file
+     * @throws IllegalStateException if the code could not be compiled
+     */
+    private static byte[] compile(final JavaCompiler compiler, final String className, final String source) {
+        final JavaFileObject sourceFile = new SimpleJavaFileObject(URI.create("string:///" + className + ".java"),
+                JavaFileObject.Kind.SOURCE) {
+
+            @Override
+            public CharSequence getCharContent(final boolean ignoreEncodingErrors) {
+                return source;
+            }
+        };
+
+        final ByteArrayOutputStream classFile = new ByteArrayOutputStream();
+        final DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        final StandardJavaFileManager standardFileManager = compiler.getStandardFileManager(diagnostics, null, null);
+        final JavaFileManager fileManager = new ForwardingJavaFileManager<JavaFileManager>(standardFileManager) {
+
+            @Override
+            public JavaFileObject getJavaFileForOutput(final Location location, final String name,
+                    final JavaFileObject.Kind kind, final FileObject sibling) {
+                return new SimpleJavaFileObject(URI.create("mem:///" + name.replace('.', '/') + kind.extension),
+                        kind) {
+
+                    @Override
+                    public OutputStream openOutputStream() {
+                        return classFile;
+                    }
+                };
+            }
+        };
+
+        // Make sure the library is on the class path, even if it was not
+        // loaded from the application class path
+        String classPath = System.getProperty("java.class.path");
+        try {
+            classPath = new File(CodeGenerator.class.getProtectionDomain().getCodeSource().getLocation().toURI())
+                    + File.pathSeparator + classPath;
+        } catch (Exception e) {
+            // Just use the application class path
+        }
+        final List<String> options = Arrays.asList("-classpath", classPath, "-proc:none", "-g:none");
+
+        final boolean success = compiler
+                .getTask(null, fileManager, diagnostics, options, null, Collections.singletonList(sourceFile)).call();
+        if (!success) {
+            throw new IllegalStateException("Generated code did not compile: " + diagnostics.getDiagnostics());
+        }
+        return classFile.toByteArray();
+    }
+}
@@ -0,0 +1,164 @@
+/* 
+ * Copyright (c) 2015 RobotsByTheC. All rights reserved.
+ *
+ * Open Source Software - may be modified and shared by FRC teams. The code must
+ * be accompanied by the BSD license file in the root directory of the project.
+ */
+package org.usfirst.frc.team2084.neuralnetwork;
+
+/**
+ * An immutable copy of a trained {@link Network} that can only be used for
+ * prediction. It is created using {@link Network#compileForInference()}.
+ * Because it never changes, any number of threads can use it at the same time
+ * without locking.
+ * 
+ * The intermediate values of a prediction are stored in a {@link Context},
+ * which belongs to a single thread. A context can be passed to
+ * {@link #predict(double[], double[], Context)} explicitly, or
+ * {@link #predict(double[], double[])} can be used, which automatically uses
+ * a separate context for each thread.
+ * 
+ * @author Ben Wolsieffer
+ */
+public final class CompiledNetwork implements InferenceModel {
+
+    /**
+     * The scratch buffers used by a single prediction. A context must not be
+     * used by more than one thread at a time.
+     */
+    public static final class Context {
+
+        private final double[] first;
+        private final double[] second;
+
+        private Context(final int size) {
+            first = new double[size];
+            second = new double[size];
+        }
+    }
+
+    private final int[] topology;
+    /**
+     * The transfer function of each layer after the input layer.
+     */
+    private final TransferFunction[] transferFunctions;
+    /**
+     * The weights of each layer, with the same layout as
+     * {@link Network#getWeights(int)}.
+     */
+    private final double[][] weights;
+    /**
+     * The size of the buffers in a context, which is big enough for the
+     * largest layer and its bias.
+     */
+    private final int contextSize;
+    /**
+     * The context used by each thread that calls
+     * {@link #predict(double[], double[])}.
+     */
+    private final ThreadLocal<Context> threadContext;
+
+    /**
+     * Creates an inference model from a copy of the weights of a network.
+     * This is called by {@link Network#compileForInference()}.
+     * 
+     * @param network the network to copy
+     */
+    CompiledNetwork(final Network network) {
+        topology = network.getTopology().clone();
+        transferFunctions = network.getTransferFunctions();
+
+        weights = new double[topology.length - 1][];
+        for (int l = 0; l < weights.length; l++) {
+            weights[l] = network.getWeights(l).clone();
+        }
+
+        int maxLayerSize = 0;
+        for (int size : topology) {
+            maxLayerSize = Math.max(maxLayerSize, size);
+        }
+        contextSize = maxLayerSize + 1;
+        threadContext = ThreadLocal.withInitial(this::createContext);
+    }
+
+    /**
+     * Creates a context that can be used with
+     * {@link #predict(double[], double[], Context)}.
+     * 
+     * @return a new context
+     */
+    public Context createContext() {
+        return new Context(contextSize);
+    }
+
+    @Override
+    public int getInputCount() {
+        return topology[0];
+    }
+
+    @Override
+    public int getOutputCount() {
+        return topology[topology.length - 1];
+    }
+
+    /**
+     * Gets the topology of the network this model was created from.
+     * 
+     * @return a copy of the topology
+     */
+    public int[] getTopology() {
+        return topology.clone();
+    }
+
+    @Override
+    public void predict(final double[] inputs, final double[] outputs) {
+        predict(inputs, outputs, threadContext.get());
+    }
+
+    /**
+     * Calculates the outputs of the model for the specified inputs, using the
+     * specified context to store intermediate values.
+     * 
+     * @param inputs the input values
+     * @param outputs the array to store the output values in
+     * @param context the context to use, which must have been created by this
+     *            model and must not be in use by another thread
+     */
+    public void predict(final double[] inputs, final double[] outputs, final Context context) {
+        if (inputs.length != topology[0]) {
+            throw new IllegalArgumentException("inputs needs to be the same size as the input layer - bias");
+        }
+        if (outputs.length < topology[topology.length - 1]) {
+            throw new IllegalArgumentException("outputs is smaller than the output layer.");
+        }
+
+        double[] prevOutputs = context.first;
+        double[] layerOutputs = context.second;
+
+        System.arraycopy(inputs, 0, prevOutputs, 0, inputs.length);
+        prevOutputs[inputs.length] = 1.0;
+
+        for (int l = 1; l < topology.length; l++) {
+            final double[] layerWeights = weights[l - 1];
+            final int rowLength = topology[l - 1] + 1;
+            final int layerSize = topology[l];
+
+            for (int n = 0; n < layerSize; n++) {
+                layerOutputs[n] = Kernels.INSTANCE.dot(prevOutputs, 0, layerWeights, n * rowLength, rowLength);
+            }
+            // The sums are not needed afterwards, so they are replaced by the
+            // outputs
+            transferFunctions[l - 1].calculate(layerOutputs, layerOutputs, 0, layerSize);
+            // Bias neuron
+            layerOutputs[layerSize] = 1.0;
+
+            // Swap the buffers, so this layer's outputs are the next layer's
+            // inputs
+            final double[] temp = prevOutputs;
+            prevOutputs = layerOutputs;
+            layerOutputs = temp;
+        }
+
+        System.arraycopy(prevOutputs, 0, outputs, 0, topology[topology.length - 1]);
+    }
+}
@@ -8,24 +8,96 @@ package org.usfirst.frc.team2084.neuralnetwork;
 
 /**
  * Represents a connection between two {@link Neuron}s, and holds a weight and
- * its delta.
+ * its delta. This is a view of an element of the weight matrices stored in a
+ * {@link Network}.
  * 
  * @author Ben Wolsieffer
  */
 public class Connection {
 
     /**
-     * The weight of this connection.
+     * The network that contains this connection.
      */
-    public double weight = Math.random();
+    private final Network network;
     /**
-     * The change in the weight from the last time it was updated. This is used
-     * for momentum calculation.
+     * The index of the layer this connection comes from.
+     */
+    private final int layer;
+    /**
+     * The weight matrix that contains the weight of this connection.
+     */
+    private final double[] weights;
+    /**
+     * The matrix that contains the change in the weight from the last time it
+     * was updated.
+     */
+    private final double[] deltaWeights;
+    /**
+     * The index of this connection in the matrices.
+     */
+    private final int index;
+
+    /**
+     * Creates a view of a connection in a weight matrix. This is only called
+     * by {@link Neuron}.
+     * 
+     * @param network the network that contains the connection
+     * @param layer the index of the layer the connection comes from
+     * @param index the index of the connection in the layer's matrices
+     */
+    Connection(final Network network, final int layer, final int index) {
+        this.network = network;
+        this.layer = layer;
+        this.weights = network.weights[layer];
+        this.deltaWeights = network.deltaWeights[layer];
+        this.index = index;
+    }
+
+    /**
+     * Gets the weight of this connection.
+     * 
+     * @return the weight
+     */
+    public double getWeight() {
+        return weights[index];
+    }
+
+    /**
+     * Sets the weight of this connection.
+     * 
+     * @param weight the weight
+     */
+    public void setWeight(final double weight) {
+        weights[index] = weight;
+    }
+
+    /**
+     * Gets the change in the weight from the last time it was updated. This is
+     * used for momentum calculation, so it is always zero unless the network
+     * uses {@link Optimizer.Momentum}.
+     * 
+     * @return the delta weight
+     */
+    public double getDeltaWeight() {
+        return deltaWeights[index];
+    }
+
+    /**
+     * Sets the change in the weight from the last time it was updated. This
+     * has no effect unless the network uses {@link Optimizer.Momentum}.
+     * 
+     * @param deltaWeight the delta weight
+     */
+    public void setDeltaWeight(final double deltaWeight) {
+        deltaWeights[index] = deltaWeight;
+    }
+
+    /**
+     * Sets the weight to a new initial value, chosen by the network's
+     * {@link WeightInitializer}, and clears the delta weight.
      */
-    public double deltaWeight = 0;
-    
     public void reset() {
-        weight = Math.random();
-        deltaWeight = 0;
+        weights[index] = network.initialWeight(layer, index);
+        deltaWeights[index] = 0;
     }
 }
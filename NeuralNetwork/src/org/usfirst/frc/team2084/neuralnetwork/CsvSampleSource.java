@@ -0,0 +1,143 @@
+/* 
+ * Copyright (c) 2015 RobotsByTheC. All rights reserved.
+ *
+ * Open Source Software - may be modified and shared by FRC teams. The code must
+ * be accompanied by the BSD license file in the root directory of the project.
+ */
+package org.usfirst.frc.team2084.neuralnetwork;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A {@link SampleSource} that streams comma separated values, like the files
+ * recorded by the robot. Each line is a sample, which starts with the inputs
+ * followed by the target outputs. Empty lines are skipped, and a line with too
+ * few values is skipped with a warning.
+ * 
+ * The files are read one after another, and each epoch reads them again from
+ * the beginning.
+ * 
+ * @author Ben Wolsieffer
+ */
+public class CsvSampleSource implements SampleSource {
+
+    private final File[] files;
+    private final int inputCount;
+    private final int outputCount;
+    /**
+     * The values of the current line.
+     */
+    private final double[] values;
+    /**
+     * The index of the file that is being read.
+     */
+    private int fileIndex = 0;
+    private DataTokenizer tokenizer;
+
+    /**
+     * Creates a source that reads a CSV file, or every CSV file in a
+     * directory in order of their names.
+     * 
+     * @param file the file or directory to read
+     * @param inputCount the number of inputs at the start of each line
+     * @param outputCount the number of target outputs after the inputs
+     */
+    public CsvSampleSource(final File file, final int inputCount, final int outputCount) {
+        this(file.isDirectory() ? listCsvFiles(file) : new File[] { file }, inputCount, outputCount);
+    }
+
+    /**
+     * Creates a source that reads several CSV files, one after another.
+     * 
+     * @param files the files to read
+     * @param inputCount the number of inputs at the start of each line
+     * @param outputCount the number of target outputs after the inputs
+     */
+    public CsvSampleSource(final File[] files, final int inputCount, final int outputCount) {
+        if (inputCount < 1 || outputCount < 1) {
+            throw new IllegalArgumentException("There must be at least one input and one output.");
+        }
+        this.files = files.clone();
+        this.inputCount = inputCount;
+        this.outputCount = outputCount;
+        values = new double[inputCount + outputCount];
+    }
+
+    /**
+     * Lists the CSV files in a directory, sorted by name.
+     * 
+     * @param directory the directory to search
+     * @return the CSV files
+     */
+    private static File[] listCsvFiles(final File directory) {
+        final File[] files = directory.listFiles((d, name) -> name.endsWith(".csv"));
+        if (files == null) {
+            return new File[0];
+        }
+        Arrays.sort(files);
+        return files;
+    }
+
+    @Override
+    public int getInputCount() {
+        return inputCount;
+    }
+
+    @Override
+    public int getOutputCount() {
+        return outputCount;
+    }
+
+    @Override
+    public boolean next(final double[] input, final double[] targetOutput) throws IOException, Data.FormatException {
+        while (true) {
+            if (tokenizer == null) {
+                if (fileIndex >= files.length) {
+                    return false;
+                }
+                tokenizer = new DataTokenizer(new FileInputStream(files[fileIndex]), true);
+            }
+
+            while (tokenizer.nextLine()) {
+                if (!tokenizer.hasNext()) {
+                    // Empty line
+                    continue;
+                }
+                int count = 0;
+                while (count < values.length && tokenizer.hasNextDouble()) {
+                    values[count++] = tokenizer.nextDouble();
+                }
+                if (count == values.length) {
+                    System.arraycopy(values, 0, input, 0, inputCount);
+                    System.arraycopy(values, inputCount, targetOutput, 0, outputCount);
+                    return true;
+                } else if (tokenizer.hasNext()) {
+                    throw new Data.FormatException("Data is not a valid number: " + tokenizer.next());
+                } else {
+                    System.err.println("Warning: ignoring data line with too few values.");
+                }
+            }
+
+            tokenizer.close();
+            tokenizer = null;
+            fileIndex++;
+        }
+    }
+
+    @Override
+    public void rewind() {
+        close();
+        fileIndex = 0;
+    }
+
+    @Override
+    public void close() {
+        if (tokenizer != null) {
+            tokenizer.close();
+            tokenizer = null;
+        }
+    }
+}
@@ -6,6 +6,7 @@
  */
 package org.usfirst.frc.team2084.neuralnetwork;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
@@ -15,15 +16,22 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
-import java.util.Scanner;
-import java.util.regex.Pattern;
 
 /**
  * Class that allows the reading and writing of neural network data to/from a
  * text format. This allows a network definition to be loaded from a file and
  * the state of a trained network to be saved.
  * 
+ * The same data can also be saved in a binary format with
+ * {@link #saveBinary(File)}, which is much smaller and faster to load. The
+ * constructors that read data detect which format is used automatically.
+ * 
  * @author Ben Wolsieffer
  */
 public class Data {
@@ -40,16 +48,24 @@ public class Data {
         }
     }
 
-    /**
-     * Pattern used to identify a label in the network data.
-     */
-    private static final Pattern labelPattern = Pattern.compile(".+:");
-
     /**
      * The neural {@link Network} that was created from the data or passed to
-     * the constructor.
+     * the constructor. This is null if the data describes a single-precision
+     * or sparse network.
      */
     private final Network network;
+    /**
+     * The single-precision {@link FloatNetwork} that was created from the data
+     * or passed to the constructor. This is null if the data describes a
+     * double-precision network.
+     */
+    private final FloatNetwork floatNetwork;
+    /**
+     * The pruned {@link SparseNetwork} that was created from the data or
+     * passed to the constructor. This is null if the data describes a dense
+     * network.
+     */
+    private final SparseNetwork sparseNetwork;
     /**
      * The target inputs that were passed to the
      */
@@ -85,7 +101,191 @@ public class Data {
      */
     public Data(final Network network, final double[][] inputs, final double[][] targetOutputs) {
         this.network = network;
+        floatNetwork = null;
+        sparseNetwork = null;
+
+        checkSamples(network.getTopology(), inputs, targetOutputs);
+
+        this.inputs = inputs;
+        this.targetOutputs = targetOutputs;
+    }
+
+    /**
+     * Creates a network data object from an existing single-precision
+     * network, with no inputs or target outputs.
+     * 
+     * @param network the network to use
+     * 
+     * @see #Data(FloatNetwork, double[][], double[][])
+     */
+    public Data(final FloatNetwork network) {
+        this(network, new double[0][], new double[0][]);
+    }
+
+    /**
+     * Creates a network data object from an existing single-precision network
+     * and specified input and target output values. When saved, the data is
+     * marked as single-precision, so it is loaded as a {@link FloatNetwork}.
+     * 
+     * @param network the network to use
+     * @param inputs the input values
+     * @param targetOutputs the target outputs that correspond to those inputs
+     * 
+     * @see #Data(Network, double[][], double[][])
+     */
+    public Data(final FloatNetwork network, final double[][] inputs, final double[][] targetOutputs) {
+        this.network = null;
+        floatNetwork = network;
+        sparseNetwork = null;
+
+        checkSamples(network.getTopology(), inputs, targetOutputs);
+
+        this.inputs = inputs;
+        this.targetOutputs = targetOutputs;
+    }
+
+    /**
+     * Creates a network data object from an existing sparse network, with no
+     * inputs or target outputs.
+     * 
+     * @param network the network to use
+     * 
+     * @see #Data(SparseNetwork, double[][], double[][])
+     */
+    public Data(final SparseNetwork network) {
+        this(network, new double[0][], new double[0][]);
+    }
+
+    /**
+     * Creates a network data object from an existing sparse network and
+     * specified input and target output values. When saved, only the weights
+     * that were not pruned are written, and the data is loaded as a
+     * {@link SparseNetwork}.
+     * 
+     * @param network the network to use
+     * @param inputs the input values
+     * @param targetOutputs the target outputs that correspond to those inputs
+     * 
+     * @see #Data(Network, double[][], double[][])
+     */
+    public Data(final SparseNetwork network, final double[][] inputs, final double[][] targetOutputs) {
+        this.network = null;
+        floatNetwork = null;
+        sparseNetwork = network;
+
+        checkSamples(network.getTopology(), inputs, targetOutputs);
+
+        this.inputs = inputs;
+        this.targetOutputs = targetOutputs;
+    }
+
+    /**
+     * Creates the transfer function with the specified name. The name of a
+     * transfer function is the value returned by its {@code toString()}
+     * method.
+     * 
+     * @param name the name of the transfer function
+     * @return the transfer function, or null if the name is not recognized
+     */
+    static TransferFunction parseTransferFunction(final String name) {
+        switch (name) {
+        case "sig":
+            return new TransferFunction.Sigmoid();
+        case "tanh":
+            return new TransferFunction.HyperbolicTangent();
+        case "fast_sig":
+            return new TransferFunction.FastSigmoid();
+        case "fast_tanh":
+            return new TransferFunction.FastHyperbolicTangent();
+        case "step":
+            return new TransferFunction.Step();
+        case "relu":
+            return new TransferFunction.ReLU();
+        case "leaky_relu":
+            return new TransferFunction.LeakyReLU();
+        case "linear":
+            return new TransferFunction.Linear();
+        default:
+            // A leaky ReLU with a custom slope, like leaky_relu(0.05)
+            if (name.startsWith("leaky_relu(") && name.endsWith(")")) {
+                try {
+                    return new TransferFunction.LeakyReLU(
+                            Double.parseDouble(name.substring("leaky_relu(".length(), name.length() - 1)));
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Creates the optimizer with the specified name. The name of an optimizer
+     * is the value returned by its {@code toString()} method.
+     * 
+     * @param name the name of the optimizer
+     * @return the optimizer, or null if the name is not recognized
+     */
+    static Optimizer parseOptimizer(final String name) {
+        switch (name) {
+        case "momentum":
+            return new Optimizer.Momentum();
+        case "adam":
+            return new Optimizer.Adam();
+        case "rmsprop":
+            return new Optimizer.RMSProp();
+        case "adagrad":
+            return new Optimizer.AdaGrad();
+        case "rprop":
+            return new Optimizer.Rprop();
+        default:
+            // An optimizer with custom parameters, like adam(0.9,0.99,1.0E-8)
+            final int open = name.indexOf('(');
+            if (open < 0 || !name.endsWith(")")) {
+                return null;
+            }
+            final String[] values = name.substring(open + 1, name.length() - 1).split(",");
+            final double[] parameters = new double[values.length];
+            try {
+                for (int i = 0; i < values.length; i++) {
+                    parameters[i] = Double.parseDouble(values[i]);
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            switch (name.substring(0, open)) {
+            case "adam":
+                return parameters.length == 3 ? new Optimizer.Adam(parameters[0], parameters[1], parameters[2])
+                        : null;
+            case "rmsprop":
+                return parameters.length == 2 ? new Optimizer.RMSProp(parameters[0], parameters[1]) : null;
+            case "adagrad":
+                return parameters.length == 1 ? new Optimizer.AdaGrad(parameters[0]) : null;
+            case "rprop":
+                if (parameters.length != 5) {
+                    return null;
+                }
+                try {
+                    return new Optimizer.Rprop(parameters[0], parameters[1], parameters[2], parameters[3],
+                            parameters[4]);
+                } catch (IllegalArgumentException e) {
+                    return null;
+                }
+            default:
+                return null;
+            }
+        }
+    }
 
+    /**
+     * Makes sure that input and target output values match a network
+     * topology.
+     * 
+     * @param topology the topology of the network
+     * @param inputs the input values
+     * @param targetOutputs the target outputs that correspond to those inputs
+     */
+    private static void checkSamples(final int[] topology, final double[][] inputs, final double[][] targetOutputs) {
         // Make sure the inputs and target outputs are the same length
         if (inputs.length != targetOutputs.length) {
             throw new IllegalArgumentException("inputs and targetOutputs lengths do not match.");
@@ -93,22 +293,20 @@ public class Data {
 
         // Make sure each input/output pair is the right length.
         for (int i = 0; i < inputs.length; i++) {
-            if (inputs[i].length != network.getInputLayer().length) {
+            if (inputs[i].length != topology[0]) {
                 throw new IllegalArgumentException("Incorrect number of inputs in set " + i);
             }
 
-            if (targetOutputs[i].length != network.getOutputLayer().length) {
+            if (targetOutputs[i].length != topology[topology.length - 1]) {
                 throw new IllegalArgumentException("Incorrect number of target outputs in set " + i);
             }
         }
-
-        this.inputs = inputs;
-        this.targetOutputs = targetOutputs;
     }
 
     /**
-     * Reads network data from a file. This file is used to create a neural
-     * network, which can be retrieved using {@link #getNetwork()}.
+     * Reads network data from a file, in either the text or the binary format.
+     * This file is used to create a neural network, which can be retrieved
+     * using {@link #getNetwork()}.
      * 
      * @param file the file to read
      * 
@@ -118,20 +316,111 @@ public class Data {
      * @see #Data(InputStream)
      */
     public Data(final File file) throws FileNotFoundException, FormatException {
-        this(new FileInputStream(file));
+        this(read(file));
     }
 
     /**
-     * Reads network data from an arbitrary input stream. These data is used to
-     * create a neural network, which can be retrieved using
-     * {@link #getNetwork()}.
+     * Reads network data from an arbitrary input stream, in either the text or
+     * the binary format. These data is used to create a neural network, which
+     * can be retrieved using {@link #getNetwork()}.
      * 
      * @param stream the input stream to read
      * 
      * @throws FormatException if the network data contains an error
      */
     public Data(final InputStream stream) throws FormatException {
-        try (final Scanner data = new Scanner(stream)) {
+        this(read(stream));
+    }
+
+    /**
+     * Copies the contents of data that has already been read.
+     * 
+     * @param data the data to copy
+     */
+    private Data(final Data data) {
+        network = data.network;
+        floatNetwork = data.floatNetwork;
+        sparseNetwork = data.sparseNetwork;
+        inputs = data.inputs;
+        targetOutputs = data.targetOutputs;
+    }
+
+    /**
+     * Reads network data from a file, using a channel to read the binary
+     * format directly.
+     * 
+     * @param file the file to read
+     * @return the data
+     * 
+     * @throws FileNotFoundException if the file cannot be found
+     * @throws FormatException if the data file contains an error
+     */
+    private static Data read(final File file) throws FileNotFoundException, FormatException {
+        final FileChannel channel = new FileInputStream(file).getChannel();
+        try {
+            final ByteBuffer header = ByteBuffer.allocate(Integer.BYTES);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+            }
+            channel.position(0);
+            if (BinaryData.isBinary(header.array(), header.position())) {
+                try {
+                    return BinaryData.read(channel);
+                } finally {
+                    channel.close();
+                }
+            }
+        } catch (IOException e) {
+            // The channel has not been handed to the tokenizer yet
+            try {
+                channel.close();
+            } catch (IOException closeException) {
+                e.addSuppressed(closeException);
+            }
+            throw new FormatException("Could not read data: " + e.getMessage());
+        }
+        // The tokenizer closes the channel
+        return new Data(new DataTokenizer(Channels.newInputStream(channel)));
+    }
+
+    /**
+     * Reads network data from a stream, checking the first bytes to decide
+     * whether it is in the text or binary format.
+     * 
+     * @param stream the input stream to read
+     * @return the data
+     * 
+     * @throws FormatException if the network data contains an error
+     */
+    private static Data read(final InputStream stream) throws FormatException {
+        final BufferedInputStream buffered = new BufferedInputStream(stream);
+        try {
+            buffered.mark(Integer.BYTES);
+            final byte[] header = buffered.readNBytes(Integer.BYTES);
+            buffered.reset();
+            if (BinaryData.isBinary(header, header.length)) {
+                try {
+                    return BinaryData.read(Channels.newChannel(buffered));
+                } finally {
+                    buffered.close();
+                }
+            }
+        } catch (IOException e) {
+            throw new FormatException("Could not read data: " + e.getMessage());
+        }
+        return new Data(new DataTokenizer(buffered));
+    }
+
+    /**
+     * Reads network data in the text format. Every label and its values must
+     * be on the same line.
+     * 
+     * @param tokenizer the tokenizer to read the data from, which is closed
+     *            afterwards
+     * 
+     * @throws FormatException if the network data contains an error
+     */
+    private Data(final DataTokenizer tokenizer) throws FormatException {
+        try (final DataTokenizer data = tokenizer) {
 
             // These lists are used to read an unknown number of inputs/outputs,
             // and then they are converted to arrays for efficiency/simplicity
@@ -148,7 +437,23 @@ public class Data {
             boolean momentumDefined = false;
             // The momentum value, aka alpha
             double momentum = 0;
-            TransferFunction transferFunction = null;
+            // Either a single transfer function for every layer, or one for
+            // each layer after the input layer
+            ArrayList<TransferFunction> transferFunctions = null;
+            // Flag set if the network uses single-precision values
+            boolean singlePrecision = false;
+            // Flag set if the network only stores the weights that were not
+            // pruned
+            boolean sparse = false;
+            // The rows of the sparse weight matrices
+            ArrayList<int[]> sparseColumnsList = new ArrayList<>();
+            ArrayList<double[]> sparseWeightsList = new ArrayList<>();
+            // The rule used to update the weights, or null for the default
+            Optimizer optimizer = null;
+            // The number of updates the optimizer has made
+            long optimizerStep = 0;
+            // The optimizer state arrays of each layer, one after another
+            ArrayList<double[]> optimizerStateList = new ArrayList<>();
 
             // 3D array to hold the connection weights for each neuron
             double[][][] weights = null;
@@ -160,12 +465,12 @@ public class Data {
             int weightNeuronIndex = 0;
 
             // Loop while there is another line in the file
-            while (data.hasNextLine()) {
-                // Search for label pattern in the current line
-                String label = data.findInLine(labelPattern);
+            while (data.nextLine()) {
+                // Search for a label in the current line
+                String label = data.nextLabel();
                 // If a label is found, parse it
                 if (label != null) {
-                    label: switch (label.substring(0, label.length() - 1)) {
+                    label: switch (label) {
                     case "topology": {
                         ArrayList<Integer> topologyList = new ArrayList<>(3);
                         while (data.hasNextInt()) {
@@ -196,24 +501,97 @@ public class Data {
                         }
                     break;
                     case "transfer_function":
+                        transferFunctions = new ArrayList<>(3);
+                        // Read every name on this line
+                        String name;
+                        while ((name = data.next()) != null) {
+                            final TransferFunction transferFunction = parseTransferFunction(name);
+                            if (transferFunction == null) {
+                                throw new FormatException("Unrecognized transfer function.");
+                            }
+                            transferFunctions.add(transferFunction);
+                        }
+                        if (transferFunctions.isEmpty()) {
+                            throw new FormatException("Empty transfer function definition.");
+                        }
+                    break;
+                    case "precision":
                         if (data.hasNext()) {
                             switch (data.next()) {
-                            case "sig":
-                                transferFunction = new TransferFunction.Sigmoid();
+                            case "single":
+                                singlePrecision = true;
                             break;
-                            case "tanh":
-                                transferFunction = new TransferFunction.HyperbolicTangent();
+                            case "double":
+                                singlePrecision = false;
+                            break;
+                            default:
+                                throw new FormatException("Unrecognized precision.");
+                            }
+                        } else {
+                            throw new FormatException("Empty precision definition.");
+                        }
+                    break;
+                    case "storage":
+                        if (data.hasNext()) {
+                            switch (data.next()) {
+                            case "sparse":
+                                sparse = true;
                             break;
-                            case "step":
-                                transferFunction = new TransferFunction.Step();
+                            case "dense":
+                                sparse = false;
                             break;
                             default:
-                                throw new FormatException("Unrecognized transfer function.");
+                                throw new FormatException("Unrecognized storage.");
                             }
                         } else {
-                            throw new FormatException("Empty transfer function definition.");
+                            throw new FormatException("Empty storage definition.");
                         }
                     break;
+                    case "sparse_row": {
+                        // Each connection is written as the index of the
+                        // neuron it comes from followed by its weight
+                        ArrayList<Integer> rowColumns = new ArrayList<>();
+                        ArrayList<Double> rowWeights = new ArrayList<>();
+                        while (data.hasNextInt()) {
+                            rowColumns.add(data.nextInt());
+                            if (data.hasNextDouble()) {
+                                rowWeights.add(data.nextDouble());
+                            } else {
+                                throw new FormatException("Missing sparse weight.");
+                            }
+                        }
+                        sparseColumnsList.add(rowColumns.stream().mapToInt(i -> i).toArray());
+                        sparseWeightsList.add(rowWeights.stream().mapToDouble(w -> w).toArray());
+                    }
+                    break;
+                    case "optimizer":
+                        if (data.hasNext()) {
+                            optimizer = parseOptimizer(data.next());
+                            if (optimizer == null) {
+                                throw new FormatException("Unrecognized optimizer.");
+                            }
+                        } else {
+                            throw new FormatException("Empty optimizer definition.");
+                        }
+                    break;
+                    case "optimizer_step":
+                        try {
+                            optimizerStep = data.hasNext() ? Long.parseLong(data.next()) : -1;
+                        } catch (NumberFormatException e) {
+                            optimizerStep = -1;
+                        }
+                        if (optimizerStep < 0) {
+                            throw new FormatException("Invalid optimizer step.");
+                        }
+                    break;
+                    case "optimizer_state": {
+                        ArrayList<Double> state = new ArrayList<>();
+                        while (data.hasNextDouble()) {
+                            state.add(data.nextDouble());
+                        }
+                        optimizerStateList.add(state.stream().mapToDouble(v -> v).toArray());
+                    }
+                    break;
                     case "in":
                         // Topology must be defined first so we know how many
                         // inputs to expect
@@ -332,8 +710,6 @@ public class Data {
                         System.err.println("Warning: unknown label found in data, ignoring.");
                     }
                 }
-                // Move on to the next line
-                data.nextLine();
             }
 
             // Convert input and output lists to arrays
@@ -353,10 +729,17 @@ public class Data {
                 throw new FormatException("No topology defined.");
             }
 
-            if (transferFunction == null) {
-                transferFunction = new TransferFunction.Sigmoid();
+            final TransferFunction[] layerTransferFunctions;
+            if (transferFunctions == null) {
+                layerTransferFunctions = Network.uniformTransferFunctions(topology, new TransferFunction.Sigmoid());
                 // Should this throw instead, like everything else?
                 System.err.println("No transfer function defined, defaulting to sigmoid.");
+            } else if (transferFunctions.size() == 1) {
+                layerTransferFunctions = Network.uniformTransferFunctions(topology, transferFunctions.get(0));
+            } else if (transferFunctions.size() == topology.length - 1) {
+                layerTransferFunctions = transferFunctions.toArray(new TransferFunction[transferFunctions.size()]);
+            } else {
+                throw new FormatException("Incorrect number of transfer functions.");
             }
 
             if (!etaDefined) {
@@ -367,21 +750,150 @@ public class Data {
                 throw new FormatException("Momentum not defined.");
             }
 
-            network = new Network(topology, eta, momentum, transferFunction);
+            if (sparse && singlePrecision) {
+                throw new FormatException("Sparse networks must be double-precision.");
+            }
+
+            if ((optimizer != null || !optimizerStateList.isEmpty()) && (sparse || singlePrecision)) {
+                throw new FormatException("Only dense double-precision networks have an optimizer.");
+            }
+
+            final Network denseNetwork;
+            if (singlePrecision) {
+                denseNetwork = null;
+                floatNetwork = new FloatNetwork(topology, (float) eta, (float) momentum,
+                        layerTransferFunctions);
+            } else {
+                denseNetwork = new Network(topology, eta, momentum, layerTransferFunctions);
+                floatNetwork = null;
+            }
 
             // Copy the connection weights to their corresponding neurons, if
             // valid
             if (weights != null && weightLayerIndex != -1) {
                 for (int l = 0; l < weights.length; l++) {
-                    Neuron[] layer = network.getLayer(l);
-                    for (int n = 0; n < layer.length; n++) {
-                        Connection[] connections = layer[n].getOutputConnections();
-                        for (int c = 0; c < connections.length; c++) {
-                            connections[c].weight = weights[l][n][c];
+                    for (int n = 0; n < weights[l].length; n++) {
+                        for (int c = 0; c < weights[l][n].length; c++) {
+                            if (singlePrecision) {
+                                floatNetwork.setWeight(l, n, c, (float) weights[l][n][c]);
+                            } else {
+                                denseNetwork.setWeight(l, n, c, weights[l][n][c]);
+                            }
                         }
                     }
                 }
             }
+
+            if (denseNetwork != null) {
+                readOptimizer(denseNetwork, optimizer, optimizerStep, optimizerStateList);
+            }
+
+            if (!sparse) {
+                network = denseNetwork;
+                sparseNetwork = null;
+            } else if (sparseColumnsList.isEmpty()) {
+                // Without sparse rows, start from the dense weights and only
+                // remove the ones that are zero
+                network = null;
+                sparseNetwork = SparseNetwork.prune(denseNetwork, 0.0);
+            } else {
+                network = null;
+                sparseNetwork = createSparseNetwork(topology, eta, momentum, layerTransferFunctions,
+                        sparseColumnsList, sparseWeightsList);
+            }
+        }
+    }
+
+    /**
+     * Sets the optimizer of a network and loads its state from the
+     * {@code optimizer_state} lines of the data. There is one line for each
+     * state array of each layer, in order, with the same layout as the
+     * weights of the layer.
+     * 
+     * @param network the network to set the optimizer of
+     * @param optimizer the optimizer, or null to keep the default
+     * @param step the number of updates the optimizer has made
+     * @param stateList the optimizer state arrays, or an empty list if the
+     *            optimizer has not made any updates
+     * @throws FormatException if the state does not match the network
+     */
+    private static void readOptimizer(final Network network, final Optimizer optimizer, final long step,
+            final ArrayList<double[]> stateList) throws FormatException {
+        if (optimizer != null) {
+            network.setOptimizer(optimizer);
+        }
+        if (stateList.isEmpty()) {
+            return;
+        }
+
+        final int stateCount = network.getOptimizer().getStateCount();
+        final int layers = network.getTopology().length - 1;
+        if (stateList.size() != layers * stateCount) {
+            throw new FormatException("Incorrect number of optimizer states.");
+        }
+        for (int l = 0; l < layers; l++) {
+            for (int i = 0; i < stateCount; i++) {
+                final double[] state = network.getOptimizerState(l, i);
+                final double[] values = stateList.get(l * stateCount + i);
+                if (values.length != state.length) {
+                    throw new FormatException("Incorrect optimizer state size for layer " + l);
+                }
+                System.arraycopy(values, 0, state, 0, state.length);
+            }
+        }
+        network.setOptimizerStep(step);
+    }
+
+    /**
+     * Builds a sparse network from the {@code sparse_row} lines of the data.
+     * The rows are listed in order, one for each neuron in every layer after
+     * the input layer.
+     * 
+     * @param topology the topology of the network
+     * @param eta the learning rate
+     * @param momentum the momentum
+     * @param transferFunctions the transfer function of each layer after the
+     *            input layer
+     * @param columnsList the column indices of each row
+     * @param weightsList the weights of each row
+     * @return the sparse network
+     * @throws FormatException if the rows do not match the topology
+     */
+    private static SparseNetwork createSparseNetwork(final int[] topology, final double eta, final double momentum,
+            final TransferFunction[] transferFunctions, final ArrayList<int[]> columnsList,
+            final ArrayList<double[]> weightsList) throws FormatException {
+        final int[][] rowStarts = new int[topology.length - 1][];
+        final int[][] columns = new int[topology.length - 1][];
+        final double[][] weights = new double[topology.length - 1][];
+
+        int row = 0;
+        for (int l = 0; l < topology.length - 1; l++) {
+            if (row + topology[l + 1] > columnsList.size()) {
+                throw new FormatException("Too few sparse rows.");
+            }
+
+            final int[] layerRowStarts = rowStarts[l] = new int[topology[l + 1] + 1];
+            for (int n = 0; n < topology[l + 1]; n++) {
+                layerRowStarts[n + 1] = layerRowStarts[n] + columnsList.get(row + n).length;
+            }
+
+            final int[] layerColumns = columns[l] = new int[layerRowStarts[topology[l + 1]]];
+            final double[] layerWeights = weights[l] = new double[layerColumns.length];
+            for (int n = 0; n < topology[l + 1]; n++, row++) {
+                System.arraycopy(columnsList.get(row), 0, layerColumns, layerRowStarts[n],
+                        columnsList.get(row).length);
+                System.arraycopy(weightsList.get(row), 0, layerWeights, layerRowStarts[n],
+                        weightsList.get(row).length);
+            }
+        }
+        if (row < columnsList.size()) {
+            throw new FormatException("Too many sparse rows.");
+        }
+
+        try {
+            return new SparseNetwork(topology, eta, momentum, transferFunctions, rowStarts, columns, weights);
+        } catch (IllegalArgumentException e) {
+            throw new FormatException(e.getMessage());
         }
     }
 
@@ -417,7 +929,10 @@ public class Data {
 
     /**
      * Gets the {@link Network} that was either passed to the constructor or
-     * generated from a file/stream.
+     * generated from a file/stream. If the data describes a single-precision
+     * network, this returns null and {@link #getFloatNetwork()} must be used
+     * instead. Likewise, {@link #getSparseNetwork()} must be used if the data
+     * describes a sparse network.
      * 
      * @return the network associated with this object
      */
@@ -425,6 +940,53 @@ public class Data {
         return network;
     }
 
+    /**
+     * Gets the {@link FloatNetwork} that was either passed to the constructor
+     * or generated from a file/stream containing a {@code precision: single}
+     * line. If the data describes a double-precision network, this returns
+     * null.
+     * 
+     * @return the single-precision network associated with this object
+     * 
+     * @see #isSinglePrecision()
+     */
+    public FloatNetwork getFloatNetwork() {
+        return floatNetwork;
+    }
+
+    /**
+     * Returns whether the data describes a single-precision network.
+     * 
+     * @return true if {@link #getFloatNetwork()} should be used instead of
+     *         {@link #getNetwork()}
+     */
+    public boolean isSinglePrecision() {
+        return floatNetwork != null;
+    }
+
+    /**
+     * Gets the {@link SparseNetwork} that was either passed to the constructor
+     * or generated from a file/stream containing a {@code storage: sparse}
+     * line. If the data describes a dense network, this returns null.
+     * 
+     * @return the sparse network associated with this object
+     * 
+     * @see #isSparse()
+     */
+    public SparseNetwork getSparseNetwork() {
+        return sparseNetwork;
+    }
+
+    /**
+     * Returns whether the data describes a sparse network.
+     * 
+     * @return true if {@link #getSparseNetwork()} should be used instead of
+     *         {@link #getNetwork()}
+     */
+    public boolean isSparse() {
+        return sparseNetwork != null;
+    }
+
     /**
      * Write the network data to the specified file. This writes all known data,
      * including topology/parameter, input, target outputs, and connection
@@ -442,6 +1004,56 @@ public class Data {
         save(new FileOutputStream(file));
     }
 
+    /**
+     * Write the weights of the network to the specified file in the format
+     * used by {@link MappedNetwork}, so they can be mapped into memory for
+     * inference. Only the topology, transfer functions and weights are
+     * written. Single-precision and sparse networks are converted to dense
+     * double-precision weights first.
+     * 
+     * @param file the file to write
+     * 
+     * @throws IOException if there is a problem writing the file
+     * 
+     * @see MappedNetwork#open(File)
+     */
+    public void saveMapped(final File file) throws IOException {
+        final Network denseNetwork = isSinglePrecision() ? floatNetwork.toNetwork()
+                : isSparse() ? sparseNetwork.toNetwork() : network;
+        MappedNetwork.write(denseNetwork, file);
+    }
+
+    /**
+     * Write the network data to the specified file in the binary format. This
+     * writes the same data as {@link #save(File)}, but the file is smaller and
+     * can be read much faster. It can be read by {@link #Data(File)}.
+     * 
+     * @param file the file to write
+     * 
+     * @throws IOException if there is a problem writing the file
+     * 
+     * @see #saveBinary(OutputStream)
+     */
+    public void saveBinary(final File file) throws IOException {
+        try (FileChannel channel = new FileOutputStream(file).getChannel()) {
+            BinaryData.write(this, channel);
+        }
+    }
+
+    /**
+     * Write the network data to the specified output stream in the binary
+     * format.
+     * 
+     * @param stream the stream to write, which is closed afterwards
+     * 
+     * @throws IOException if there is a problem writing the data
+     */
+    public void saveBinary(final OutputStream stream) throws IOException {
+        try (WritableByteChannel channel = Channels.newChannel(stream)) {
+            BinaryData.write(this, channel);
+        }
+    }
+
     /**
      * Write the network data to the specified output stream.
      * 
@@ -451,13 +1063,33 @@ public class Data {
      */
     public void save(final OutputStream stream) throws IOException {
         try (BufferedWriter data = new BufferedWriter(new OutputStreamWriter(stream))) {
+            final boolean singlePrecision = isSinglePrecision();
+            final boolean sparse = isSparse();
+            final int[] topology = singlePrecision ? floatNetwork.getTopology()
+                    : sparse ? sparseNetwork.getTopology() : network.getTopology();
+
             data.write("topology:");
-            for (int t : network.getTopology()) {
+            for (int t : topology) {
                 data.write(" " + t);
             }
-            data.write("\neta: " + network.getEta());
-            data.write("\nmomentum: " + network.getMomentum());
-            data.write("\ntransfer_function: " + network.getTransferFunction());
+            if (singlePrecision) {
+                data.write("\nprecision: single");
+                data.write("\neta: " + floatNetwork.getEta());
+                data.write("\nmomentum: " + floatNetwork.getMomentum());
+                writeTransferFunctions(data, floatNetwork.getTransferFunctions());
+            } else if (sparse) {
+                data.write("\nstorage: sparse");
+                data.write("\neta: " + sparseNetwork.getEta());
+                data.write("\nmomentum: " + sparseNetwork.getMomentum());
+                writeTransferFunctions(data, sparseNetwork.getTransferFunctions());
+            } else {
+                data.write("\neta: " + network.getEta());
+                data.write("\nmomentum: " + network.getMomentum());
+                writeTransferFunctions(data, network.getTransferFunctions());
+                if (!(network.getOptimizer() instanceof Optimizer.Momentum)) {
+                    data.write("\noptimizer: " + network.getOptimizer());
+                }
+            }
             for (int i = 0; i < inputs.length; i++) {
                 final double[] input = inputs[i];
                 final double[] targetOutput = targetOutputs[i];
@@ -473,22 +1105,81 @@ public class Data {
 
             data.write("\n");
 
-            for (int i = 0; i < network.getTotalLayers() - 1; i++) {
-                final Neuron[] layer = network.getLayer(i);
-                for (int j = 0; j < layer.length; j++) {
-                    Neuron n = layer[j];
-                    Connection[] conns = n.getOutputConnections();
+            if (sparse) {
+                // Write one row per neuron in the next layer, containing only
+                // the connections that were not pruned
+                for (int i = 0; i < topology.length - 1; i++) {
+                    final int[] rowStarts = sparseNetwork.getRowStarts(i);
+                    final int[] columns = sparseNetwork.getColumns(i);
+                    final double[] weights = sparseNetwork.getWeights(i);
+                    for (int n = 0; n < topology[i + 1]; n++) {
+                        data.write("\nsparse_row:");
+                        for (int w = rowStarts[n]; w < rowStarts[n + 1]; w++) {
+                            data.write(" " + columns[w] + " " + weights[w]);
+                        }
+                    }
+                    data.write("\n");
+                }
+                return;
+            }
+
+            for (int i = 0; i < topology.length - 1; i++) {
+                // Include the bias neuron
+                final int layerSize = topology[i] + 1;
+                final int nextLayerSize = topology[i + 1];
+                for (int j = 0; j < layerSize; j++) {
                     data.write("\nneuron:");
-                    for (int c = 0; c < conns.length; c++) {
-                        Connection conn = conns[c];
+                    for (int c = 0; c < nextLayerSize; c++) {
                         data.write(" ");
-                        data.write(Double.toString(conn.weight));
+                        if (singlePrecision) {
+                            data.write(Float.toString(floatNetwork.getWeight(i, j, c)));
+                        } else {
+                            data.write(Double.toString(network.getWeight(i, j, c)));
+                        }
                     }
                 }
-                if (i < network.getTotalLayers() - 1) {
+                if (i < topology.length - 1) {
                     data.write("\n");
                 }
             }
+
+            // Save the optimizer state so training can continue where it
+            // left off
+            if (!singlePrecision && network.getOptimizerStep() > 0) {
+                data.write("\noptimizer_step: " + network.getOptimizerStep());
+                for (int i = 0; i < topology.length - 1; i++) {
+                    for (int j = 0; j < network.getOptimizer().getStateCount(); j++) {
+                        data.write("\noptimizer_state:");
+                        for (final double value : network.getOptimizerState(i, j)) {
+                            data.write(" " + value);
+                        }
+                    }
+                }
+                data.write("\n");
+            }
+        }
+    }
+
+    /**
+     * Writes the transfer function label. If every layer uses the same
+     * transfer function, only one name is written, otherwise there is one name
+     * for each layer after the input layer.
+     * 
+     * @param data the writer to write to
+     * @param transferFunctions the transfer function of each layer after the
+     *            input layer
+     * @throws IOException if the data could not be written
+     */
+    private static void writeTransferFunctions(final Writer data, final TransferFunction[] transferFunctions)
+            throws IOException {
+        boolean uniform = true;
+        for (TransferFunction transferFunction : transferFunctions) {
+            uniform &= transferFunction.toString().equals(transferFunctions[0].toString());
+        }
+
+        data.write("\ntransfer_function:");
+        for (int l = 0; l < (uniform ? 1 : transferFunctions.length); l++) {
+            data.write(" " + transferFunctions[l]);
         }
     }
 }
\ No newline at end of file
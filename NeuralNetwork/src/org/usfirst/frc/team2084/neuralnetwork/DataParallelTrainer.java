@@ -0,0 +1,311 @@
+/* 
+ * Copyright (c) 2015 RobotsByTheC. All rights reserved.
+ *
+ * Open Source Software - may be modified and shared by FRC teams. The code must
+ * be accompanied by the BSD license file in the root directory of the project.
+ */
+package org.usfirst.frc.team2084.neuralnetwork;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Trains a {@link Network} using synchronous data parallelism. Each batch of
+ * samples is split into shards of a fixed size, which are processed by a set
+ * of worker threads. Every worker has its own copy of the activation and
+ * gradient buffers, and all of them read the same weights. The shards are
+ * processed in windows of a few shards per thread. When every shard in a
+ * window is done, their weight gradients are added to the total for the batch
+ * in shard order. After the last window, the weights are updated once.
+ * 
+ * Because the shards do not depend on the number of threads and are always
+ * combined in the same order, the trained network is exactly the same no
+ * matter how many threads are used.
+ * 
+ * @author Ben Wolsieffer
+ */
+public class DataParallelTrainer implements AutoCloseable {
+
+    /**
+     * The default number of samples in each shard.
+     */
+    public static final int DEFAULT_SHARD_SIZE = Matrix.ROW_BLOCK;
+    /**
+     * The number of shards in each window for every thread. Each one needs a
+     * buffer the size of the weights, so this limits the memory used by a
+     * batch, no matter how large it is. Having more than one per thread lets
+     * threads that finish early start another shard.
+     */
+    private static final int SHARDS_PER_THREAD = 4;
+
+    /**
+     * Processes shards of the current window until there are none left.
+     */
+    private class Worker implements Callable<Void> {
+
+        private final Workspace workspace = new Workspace(network.getTopology(), shardSize);
+
+        @Override
+        public Void call() {
+            int slot;
+            while ((slot = nextSlot.getAndIncrement()) < windowLength) {
+                final int offset = batchOffset + (windowStart + slot) * shardSize;
+                final int length = Math.min(shardSize, batchOffset + batchLength - offset);
+
+                workspace.feedForward(network, inputs, offset, length);
+                shardErrors[slot] = workspace.calculateGradients(network, targetOutputs, offset, length);
+                workspace.calculateWeightGradients(length, shardGradients[slot]);
+            }
+            return null;
+        }
+    }
+
+    private final Network network;
+    private final int threads;
+    private final int shardSize;
+    private final ExecutorService executor;
+    private final List<Worker> workers;
+
+    /**
+     * The weight gradients of each shard in the current window.
+     */
+    private final double[][][] shardGradients;
+    /**
+     * The sum of the errors of the samples in each shard in the current
+     * window.
+     */
+    private final double[] shardErrors;
+    /**
+     * The weight gradients of the whole batch.
+     */
+    private final double[][] batchGradients;
+
+    // The batch that is currently being processed
+    private double[][] inputs;
+    private double[][] targetOutputs;
+    private int batchOffset;
+    private int batchLength;
+    // The window of shards that is currently being processed
+    private int windowStart;
+    private int windowLength;
+    private final AtomicInteger nextSlot = new AtomicInteger();
+
+    /**
+     * Creates a trainer for the specified network that uses the specified
+     * number of threads and the default shard size.
+     * 
+     * @param network the network to train
+     * @param threads the number of worker threads
+     */
+    public DataParallelTrainer(final Network network, final int threads) {
+        this(network, threads, DEFAULT_SHARD_SIZE);
+    }
+
+    /**
+     * Creates a trainer for the specified network that uses the specified
+     * number of threads and shard size. Batches should be several times
+     * larger than the shard size so every thread has work to do.
+     * 
+     * @param network the network to train
+     * @param threads the number of worker threads
+     * @param shardSize the number of samples in each shard
+     */
+    public DataParallelTrainer(final Network network, final int threads, final int shardSize) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive.");
+        }
+        if (shardSize < 1) {
+            throw new IllegalArgumentException("shardSize must be positive.");
+        }
+
+        this.network = network;
+        this.threads = threads;
+        this.shardSize = shardSize;
+
+        workers = new ArrayList<>(threads);
+        for (int i = 0; i < threads; i++) {
+            workers.add(new Worker());
+        }
+        // A single worker runs on the calling thread
+        executor = threads > 1 ? Executors.newFixedThreadPool(threads, (r) -> {
+            final Thread thread = new Thread(r, "DataParallelTrainer worker");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+
+        batchGradients = Workspace.createWeightGradients(network.getTopology());
+        shardGradients = new double[threads * SHARDS_PER_THREAD][][];
+        for (int s = 0; s < shardGradients.length; s++) {
+            shardGradients[s] = Workspace.createWeightGradients(network.getTopology());
+        }
+        shardErrors = new double[shardGradients.length];
+    }
+
+    /**
+     * Trains the network on every sample once, in batches of the specified
+     * size. The samples are used in order, and the last batch may be smaller.
+     * 
+     * @param inputs the input values, with one row per sample
+     * @param targetOutputs the target values for the outputs, with one row per
+     *            sample
+     * @param batchSize the number of samples in each batch
+     * @return the average error of all the samples
+     * @throws InterruptedException if the thread is interrupted while waiting
+     *             for the workers
+     */
+    public double trainEpoch(final double[][] inputs, final double[][] targetOutputs, final int batchSize)
+            throws InterruptedException {
+        if (inputs.length != targetOutputs.length) {
+            throw new IllegalArgumentException("inputs and targetOutputs lengths do not match.");
+        }
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be positive.");
+        }
+
+        double error = 0.0;
+        for (int offset = 0; offset < inputs.length; offset += batchSize) {
+            final int length = Math.min(batchSize, inputs.length - offset);
+            error += trainBatch(inputs, targetOutputs, offset, length) * length;
+        }
+        return inputs.length > 0 ? error / inputs.length : 0.0;
+    }
+
+    /**
+     * Performs one step of back propagation learning using a range of
+     * samples. This has the same effect as
+     * {@link Network#trainBatch(double[][], double[][], int, int)}, but the
+     * samples are processed in parallel.
+     * 
+     * @param inputs the input values, with one row per sample
+     * @param targetOutputs the target values for the outputs, with one row per
+     *            sample
+     * @param offset the index of the first sample in the batch
+     * @param length the number of samples in the batch
+     * @return the average error of the samples in the batch
+     * @throws InterruptedException if the thread is interrupted while waiting
+     *             for the workers
+     */
+    public double trainBatch(final double[][] inputs, final double[][] targetOutputs, final int offset,
+            final int length) throws InterruptedException {
+        if (offset < 0 || length < 1 || offset + length > inputs.length || offset + length > targetOutputs.length) {
+            throw new IllegalArgumentException("Invalid batch range.");
+        }
+
+        this.inputs = inputs;
+        this.targetOutputs = targetOutputs;
+        batchOffset = offset;
+        batchLength = length;
+        final int shardCount = (length + shardSize - 1) / shardSize;
+
+        double error = 0.0;
+        try {
+            for (windowStart = 0; windowStart < shardCount; windowStart += windowLength) {
+                windowLength = Math.min(shardGradients.length, shardCount - windowStart);
+                nextSlot.set(0);
+                runWorkers();
+
+                // Add up the shards in a fixed order, so the result does not
+                // depend on which thread processed which shard, or on the size
+                // of the window
+                for (int l = 0; l < batchGradients.length; l++) {
+                    final double[] layerGradients = batchGradients[l];
+                    int s = 0;
+                    if (windowStart == 0) {
+                        System.arraycopy(shardGradients[0][l], 0, layerGradients, 0, layerGradients.length);
+                        s = 1;
+                    }
+                    for (; s < windowLength; s++) {
+                        Kernels.INSTANCE.axpy(1.0, shardGradients[s][l], 0, layerGradients, 0,
+                                layerGradients.length);
+                    }
+                }
+                for (int s = 0; s < windowLength; s++) {
+                    error += shardErrors[s];
+                }
+            }
+        } finally {
+            // Don't hold on to the data
+            this.inputs = null;
+            this.targetOutputs = null;
+        }
+
+        network.applyWeightGradients(batchGradients, length);
+        error /= length;
+        network.setRecentAverageError(error);
+        return error;
+    }
+
+    /**
+     * Runs the workers until every shard in the current window has been
+     * processed.
+     * 
+     * @throws InterruptedException if the thread is interrupted while waiting
+     *             for the workers
+     */
+    private void runWorkers() throws InterruptedException {
+        if (executor == null) {
+            workers.get(0).call();
+        } else {
+            // Don't start more workers than there are shards
+            final List<Future<Void>> futures = executor
+                    .invokeAll(windowLength < threads ? workers.subList(0, windowLength) : workers);
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    final Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    } else if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new IllegalStateException(cause);
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the network that is being trained.
+     * 
+     * @return the network
+     */
+    public Network getNetwork() {
+        return network;
+    }
+
+    /**
+     * Gets the number of worker threads.
+     * 
+     * @return the number of threads
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Gets the number of samples in each shard.
+     * 
+     * @return the shard size
+     */
+    public int getShardSize() {
+        return shardSize;
+    }
+
+    /**
+     * Stops the worker threads. The trainer can not be used after it is
+     * closed.
+     */
+    @Override
+    public void close() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,463 @@
+/* 
+ * Copyright (c) 2015 RobotsByTheC. All rights reserved.
+ *
+ * Open Source Software - may be modified and shared by FRC teams. The code must
+ * be accompanied by the BSD license file in the root directory of the project.
+ */
+package org.usfirst.frc.team2084.neuralnetwork;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Splits the text format of {@link Data} into lines and tokens. It replaces
+ * {@link java.util.Scanner}, which matches regular expressions and handles
+ * locale-specific number formats for every token, and is very slow on files
+ * with many samples. This class works directly on the bytes of the stream, and
+ * parses most numbers without creating any objects.
+ * 
+ * Each line is loaded completely into the buffer before it is read, so a line
+ * is never split between two reads of the stream. Tokens are separated by
+ * whitespace (and optionally commas), and are only read from the current
+ * line.
+ * 
+ * @author Ben Wolsieffer
+ */
+final class DataTokenizer implements Closeable {
+
+    /**
+     * Powers of ten that can be represented exactly by a double.
+     */
+    private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+    /**
+     * The largest number of significant digits that always fits exactly in
+     * the 53 bit mantissa of a double.
+     */
+    private static final int MAX_EXACT_DIGITS = 15;
+
+    private final InputStream stream;
+    /**
+     * Set if commas separate tokens, like whitespace.
+     */
+    private final boolean commaSeparated;
+    private byte[] buffer = new byte[1 << 16];
+    /**
+     * The number of valid bytes in the buffer.
+     */
+    private int limit = 0;
+    /**
+     * The position of the next byte to read in the current line.
+     */
+    private int position = 0;
+    /**
+     * The end of the current line, not including the line terminator.
+     */
+    private int lineEnd = -1;
+    /**
+     * The start of the next line.
+     */
+    private int nextLineStart = 0;
+    /**
+     * Set when the end of the stream has been reached.
+     */
+    private boolean endOfStream = false;
+
+    /**
+     * The end of the number that was parsed by the last call to
+     * {@link #hasNextDouble()}, or -1 if it has not been parsed.
+     */
+    private int parsedEnd = -1;
+    /**
+     * The start of the number that was parsed by the last call to
+     * {@link #hasNextDouble()}.
+     */
+    private int parsedStart = -1;
+    /**
+     * The value of the number that was parsed by the last call to
+     * {@link #hasNextDouble()}.
+     */
+    private double parsedValue;
+
+    /**
+     * Creates a tokenizer that reads from the specified stream.
+     * 
+     * @param stream the stream to read, which is closed by {@link #close()}
+     */
+    DataTokenizer(final InputStream stream) {
+        this(stream, false);
+    }
+
+    /**
+     * Creates a tokenizer that reads from the specified stream, optionally
+     * treating commas as separators, for comma separated values.
+     * 
+     * @param stream the stream to read, which is closed by {@link #close()}
+     * @param commaSeparated true if commas separate tokens
+     */
+    DataTokenizer(final InputStream stream, final boolean commaSeparated) {
+        this.stream = stream;
+        this.commaSeparated = commaSeparated;
+    }
+
+    /**
+     * Moves to the start of the next line, reading more of the stream if the
+     * line is not complete in the buffer.
+     * 
+     * @return true if there was another line, or false if the end of the
+     *         stream has been reached
+     * @throws Data.FormatException if the stream could not be read
+     */
+    boolean nextLine() throws Data.FormatException {
+        position = nextLineStart;
+        parsedEnd = -1;
+
+        int end = position;
+        while (true) {
+            while (end < limit && buffer[end] != '\n' && buffer[end] != '\r') {
+                end++;
+            }
+            // A line that ends with \r needs the next byte, in case it is \r\n
+            if (end + 1 < limit || (end < limit && buffer[end] == '\n') || endOfStream) {
+                break;
+            }
+            end -= position;
+            fill();
+            end += position;
+        }
+
+        if (position >= limit) {
+            lineEnd = -1;
+            return false;
+        }
+
+        lineEnd = end;
+        if (end < limit) {
+            nextLineStart = end + (buffer[end] == '\r' && end + 1 < limit && buffer[end + 1] == '\n' ? 2 : 1);
+        } else {
+            nextLineStart = end;
+        }
+        return true;
+    }
+
+    /**
+     * Moves the unread part of the buffer to the start, grows the buffer if it
+     * is full and reads more of the stream.
+     * 
+     * @throws Data.FormatException if the stream could not be read
+     */
+    private void fill() throws Data.FormatException {
+        final int remaining = limit - position;
+        if (position > 0) {
+            System.arraycopy(buffer, position, buffer, 0, remaining);
+        } else if (remaining == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        position = 0;
+        limit = remaining;
+        try {
+            final int read = stream.read(buffer, limit, buffer.length - limit);
+            if (read < 0) {
+                endOfStream = true;
+            } else {
+                limit += read;
+            }
+        } catch (IOException e) {
+            throw new Data.FormatException("Could not read data: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Finds the label at the start of the current line, which is everything
+     * up to the last colon on the line. The tokens after the colon can then be
+     * read.
+     * 
+     * @return the label, without the colon, or null if the line does not have
+     *         a label
+     */
+    String nextLabel() {
+        for (int i = lineEnd - 1; i > position; i--) {
+            if (buffer[i] == ':') {
+                final String label = new String(buffer, position, i - position, StandardCharsets.UTF_8);
+                position = i + 1;
+                parsedEnd = -1;
+                return label;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Skips separators in the current line.
+     */
+    private void skipSeparators() {
+        while (position < lineEnd && isSeparator(buffer[position])) {
+            position++;
+        }
+    }
+
+    /**
+     * Finds the end of the token that starts at the specified position.
+     * 
+     * @param start the start of the token
+     * @return the position after the last byte of the token
+     */
+    private int tokenEnd(final int start) {
+        int end = start;
+        while (end < lineEnd && !isSeparator(buffer[end])) {
+            end++;
+        }
+        return end;
+    }
+
+    private boolean isSeparator(final byte b) {
+        return b == ' ' || b == '\t' || b == '\f' || b == 0x0B || (commaSeparated && b == ',');
+    }
+
+    /**
+     * Returns whether the current line has another token.
+     * 
+     * @return true if there is another token
+     */
+    boolean hasNext() {
+        skipSeparators();
+        return position < lineEnd;
+    }
+
+    /**
+     * Reads the next token in the current line.
+     * 
+     * @return the token, or null if there are no more tokens on the line
+     */
+    String next() {
+        if (!hasNext()) {
+            return null;
+        }
+        final int end = tokenEnd(position);
+        final String token = new String(buffer, position, end - position, StandardCharsets.UTF_8);
+        position = end;
+        parsedEnd = -1;
+        return token;
+    }
+
+    /**
+     * Returns whether the next token in the current line is an integer.
+     * 
+     * @return true if {@link #nextInt()} can read the next token
+     */
+    boolean hasNextInt() {
+        if (!hasNext()) {
+            return false;
+        }
+        final int end = tokenEnd(position);
+        int i = position;
+        if (buffer[i] == '-' || buffer[i] == '+') {
+            i++;
+        }
+        if (i == end || end - i > 10) {
+            return false;
+        }
+        long value = 0;
+        for (; i < end; i++) {
+            if (buffer[i] < '0' || buffer[i] > '9') {
+                return false;
+            }
+            value = value * 10 + (buffer[i] - '0');
+        }
+        return value <= (buffer[position] == '-' ? -(long) Integer.MIN_VALUE : Integer.MAX_VALUE);
+    }
+
+    /**
+     * Reads the next token as an integer. {@link #hasNextInt()} must have
+     * returned true.
+     * 
+     * @return the integer
+     */
+    int nextInt() {
+        final int end = tokenEnd(position);
+        final boolean negative = buffer[position] == '-';
+        int i = buffer[position] == '-' || buffer[position] == '+' ? position + 1 : position;
+        int value = 0;
+        for (; i < end; i++) {
+            value = value * 10 - (buffer[i] - '0');
+        }
+        position = end;
+        parsedEnd = -1;
+        return negative ? value : -value;
+    }
+
+    /**
+     * Returns whether the next token in the current line is a number. The
+     * number is parsed and saved, so {@link #nextDouble()} does not need to
+     * parse it again.
+     * 
+     * @return true if {@link #nextDouble()} can read the next token
+     */
+    boolean hasNextDouble() {
+        if (!hasNext()) {
+            return false;
+        }
+        if (parsedEnd != -1 && parsedStart == position) {
+            return true;
+        }
+        final int end = tokenEnd(position);
+        if (parseDouble(position, end)) {
+            parsedStart = position;
+            parsedEnd = end;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Reads the next token as a number. {@link #hasNextDouble()} must have
+     * returned true.
+     * 
+     * @return the number
+     */
+    double nextDouble() {
+        if (parsedEnd == -1 || parsedStart != position) {
+            hasNextDouble();
+        }
+        position = parsedEnd;
+        parsedEnd = -1;
+        return parsedValue;
+    }
+
+    /**
+     * Parses a number in the format written by {@link Double#toString(double)}
+     * or typed by hand, like {@code -12}, {@code 0.5}, {@code .25} or
+     * {@code 1.5E-7}, as well as {@code NaN} and {@code Infinity}. Numbers with
+     * at most 15 significant digits and a small exponent are calculated
+     * directly, with the same result as {@link Double#parseDouble(String)}.
+     * Longer numbers are given to {@link Double#parseDouble(String)}.
+     * 
+     * @param start the start of the token
+     * @param end the end of the token
+     * @return true if the token is a number, in which case the value is
+     *         stored in {@link #parsedValue}
+     */
+    private boolean parseDouble(final int start, final int end) {
+        int i = start;
+        final boolean negative = buffer[i] == '-';
+        if (negative || buffer[i] == '+') {
+            i++;
+        }
+        if (i == end) {
+            return false;
+        }
+
+        if (matches(i, end, "NaN")) {
+            parsedValue = Double.NaN;
+            return true;
+        }
+        if (matches(i, end, "Infinity")) {
+            parsedValue = negative ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+            return true;
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean anyDigits = false;
+
+        // Integer part
+        for (; i < end && buffer[i] >= '0' && buffer[i] <= '9'; i++) {
+            anyDigits = true;
+            if (digits > 0 || buffer[i] != '0') {
+                if (digits < 19) {
+                    mantissa = mantissa * 10 + (buffer[i] - '0');
+                } else {
+                    exponent++;
+                }
+                digits++;
+            }
+        }
+        // Fraction
+        if (i < end && buffer[i] == '.') {
+            for (i++; i < end && buffer[i] >= '0' && buffer[i] <= '9'; i++) {
+                anyDigits = true;
+                if (digits > 0 || buffer[i] != '0') {
+                    if (digits < 19) {
+                        mantissa = mantissa * 10 + (buffer[i] - '0');
+                        exponent--;
+                    }
+                    digits++;
+                } else {
+                    exponent--;
+                }
+            }
+        }
+        if (!anyDigits) {
+            return false;
+        }
+        // Exponent
+        if (i < end && (buffer[i] == 'e' || buffer[i] == 'E')) {
+            i++;
+            final boolean negativeExponent = i < end && buffer[i] == '-';
+            if (i < end && (buffer[i] == '-' || buffer[i] == '+')) {
+                i++;
+            }
+            final int exponentStart = i;
+            int exponentValue = 0;
+            for (; i < end && buffer[i] >= '0' && buffer[i] <= '9'; i++) {
+                if (exponentValue < 100000) {
+                    exponentValue = exponentValue * 10 + (buffer[i] - '0');
+                }
+            }
+            if (i == exponentStart) {
+                return false;
+            }
+            exponent += negativeExponent ? -exponentValue : exponentValue;
+        }
+        if (i != end) {
+            return false;
+        }
+
+        double value;
+        if (digits <= MAX_EXACT_DIGITS && exponent >= -22 && exponent <= 22) {
+            // Both the mantissa and the power of ten are exact, so a single
+            // multiplication or division is correctly rounded
+            value = mantissa;
+            value = exponent < 0 ? value / POWERS_OF_TEN[-exponent] : value * POWERS_OF_TEN[exponent];
+            if (negative) {
+                value = -value;
+            }
+        } else if (mantissa == 0) {
+            value = negative ? -0.0 : 0.0;
+        } else {
+            value = Double.parseDouble(new String(buffer, start, end - start, StandardCharsets.ISO_8859_1));
+        }
+        parsedValue = value;
+        return true;
+    }
+
+    /**
+     * Checks whether part of the buffer contains an ASCII string.
+     */
+    private boolean matches(final int start, final int end, final String string) {
+        if (end - start != string.length()) {
+            return false;
+        }
+        for (int i = 0; i < string.length(); i++) {
+            if (buffer[start + i] != string.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Closes the stream. Errors are ignored, like {@link java.util.Scanner}.
+     */
+    @Override
+    public void close() {
+        try {
+            stream.close();
+        } catch (IOException e) {
+        }
+    }
+}
@@ -0,0 +1,308 @@
+/* 
+ * Copyright (c) 2015 RobotsByTheC. All rights reserved.
+ *
+ * Open Source Software - may be modified and shared by FRC teams. The code must
+ * be accompanied by the BSD license file in the root directory of the project.
+ */
+package org.usfirst.frc.team2084.neuralnetwork;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * A set of training samples stored in two flat arrays, one for the inputs and
+ * one for the target outputs, with the values of each sample next to each
+ * other. Unlike a {@code double[][]}, there is no separate object for each
+ * sample, so a large data set takes up much less memory and its samples are
+ * read in order from memory.
+ * 
+ * The order of the samples is stored separately as a list of indices, so
+ * shuffling a data set only moves the indices and never the samples. A
+ * {@link #subset(int, int) subset} of the samples, like a mini-batch, is a view
+ * of the same arrays and indices, and does not copy anything.
+ * 
+ * @author Ben Wolsieffer
+ * 
+ * @see Network#trainEpoch(Dataset, int)
+ */
+public final class Dataset {
+
+    private final int inputCount;
+    private final int outputCount;
+    /**
+     * The inputs of every sample, with {@link #inputCount} values per sample.
+     */
+    private final double[] inputs;
+    /**
+     * The target outputs of every sample, with {@link #outputCount} values per
+     * sample.
+     */
+    private final double[] targetOutputs;
+    /**
+     * The index of each sample, in the current order. Subsets share this
+     * array with the data set they came from.
+     */
+    private final int[] order;
+    /**
+     * The position in {@link #order} of the first sample of this data set.
+     */
+    private final int start;
+    private final int size;
+
+    /**
+     * Creates a data set that uses the specified arrays to store its samples.
+     * The arrays are not copied.
+     * 
+     * @param inputCount the number of inputs in each sample
+     * @param outputCount the number of target outputs in each sample
+     * @param inputs the inputs of every sample, one sample after another
+     * @param targetOutputs the target outputs of every sample, one sample after
+     *            another
+     */
+    public Dataset(final int inputCount, final int outputCount, final double[] inputs,
+            final double[] targetOutputs) {
+        if (inputCount < 1 || outputCount < 1) {
+            throw new IllegalArgumentException("There must be at least one input and one output.");
+        }
+        if (inputs.length % inputCount != 0
+                || (long) inputs.length / inputCount * outputCount != targetOutputs.length) {
+            throw new IllegalArgumentException("inputs and targetOutputs do not contain the same number of samples.");
+        }
+        this.inputCount = inputCount;
+        this.outputCount = outputCount;
+        this.inputs = inputs;
+        this.targetOutputs = targetOutputs;
+        size = inputs.length / inputCount;
+        start = 0;
+        order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+    }
+
+    /**
+     * Creates a view of part of another data set.
+     * 
+     * @param dataset the data set to view
+     * @param offset the position of the first sample in the view
+     * @param length the number of samples in the view
+     */
+    private Dataset(final Dataset dataset, final int offset, final int length) {
+        inputCount = dataset.inputCount;
+        outputCount = dataset.outputCount;
+        inputs = dataset.inputs;
+        targetOutputs = dataset.targetOutputs;
+        order = dataset.order;
+        start = dataset.start + offset;
+        size = length;
+    }
+
+    /**
+     * Creates a data set by copying samples that are stored as matrices, like
+     * the samples of {@link Data}.
+     * 
+     * @param inputs the input values, with one row per sample
+     * @param targetOutputs the target output values, with one row per sample
+     * @return the data set
+     */
+    public static Dataset fromArrays(final double[][] inputs, final double[][] targetOutputs) {
+        if (inputs.length != targetOutputs.length) {
+            throw new IllegalArgumentException("inputs and targetOutputs lengths do not match.");
+        }
+        if (inputs.length == 0) {
+            throw new IllegalArgumentException("There must be at least one sample.");
+        }
+        final int inputCount = inputs[0].length;
+        final int outputCount = targetOutputs[0].length;
+        final double[] flatInputs = new double[inputs.length * inputCount];
+        final double[] flatTargetOutputs = new double[inputs.length * outputCount];
+        for (int s = 0; s < inputs.length; s++) {
+            if (inputs[s].length != inputCount) {
+                throw new IllegalArgumentException("Incorrect number of inputs in sample " + s);
+            }
+            if (targetOutputs[s].length != outputCount) {
+                throw new IllegalArgumentException("Incorrect number of target outputs in sample " + s);
+            }
+            System.arraycopy(inputs[s], 0, flatInputs, s * inputCount, inputCount);
+            System.arraycopy(targetOutputs[s], 0, flatTargetOutputs, s * outputCount, outputCount);
+        }
+        return new Dataset(inputCount, outputCount, flatInputs, flatTargetOutputs);
+    }
+
+    /**
+     * Creates a data set from the rest of the samples in the current epoch of
+     * a source. The samples are copied directly into the flat arrays.
+     * 
+     * @param source the source to read
+     * @return the data set
+     * @throws IOException if the samples could not be read
+     * @throws Data.FormatException if the samples are not valid
+     */
+    public static Dataset read(final SampleSource source) throws IOException, Data.FormatException {
+        final int inputCount = source.getInputCount();
+        final int outputCount = source.getOutputCount();
+        final double[] input = new double[inputCount];
+        final double[] targetOutput = new double[outputCount];
+
+        double[] inputs = new double[1024 * inputCount];
+        double[] targetOutputs = new double[1024 * outputCount];
+        int count = 0;
+        while (source.next(input, targetOutput)) {
+            if ((count + 1) * inputCount > inputs.length) {
+                inputs = Arrays.copyOf(inputs, inputs.length * 2);
+                targetOutputs = Arrays.copyOf(targetOutputs, targetOutputs.length * 2);
+            }
+            System.arraycopy(input, 0, inputs, count * inputCount, inputCount);
+            System.arraycopy(targetOutput, 0, targetOutputs, count * outputCount, outputCount);
+            count++;
+        }
+        return new Dataset(inputCount, outputCount, Arrays.copyOf(inputs, count * inputCount),
+                Arrays.copyOf(targetOutputs, count * outputCount));
+    }
+
+    /**
+     * Gets the number of samples.
+     * 
+     * @return the number of samples
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets the number of inputs in each sample.
+     * 
+     * @return the number of inputs
+     */
+    public int getInputCount() {
+        return inputCount;
+    }
+
+    /**
+     * Gets the number of target outputs in each sample.
+     * 
+     * @return the number of target outputs
+     */
+    public int getOutputCount() {
+        return outputCount;
+    }
+
+    /**
+     * Gets the array that stores the inputs of every sample, including the
+     * samples that are not part of this subset. Use
+     * {@link #getInputOffset(int)} to find the inputs of a sample.
+     * 
+     * @return the input array, which is not copied
+     */
+    public double[] getInputs() {
+        return inputs;
+    }
+
+    /**
+     * Gets the array that stores the target outputs of every sample,
+     * including the samples that are not part of this subset. Use
+     * {@link #getTargetOutputOffset(int)} to find the target outputs of a
+     * sample.
+     * 
+     * @return the target output array, which is not copied
+     */
+    public double[] getTargetOutputs() {
+        return targetOutputs;
+    }
+
+    /**
+     * Gets the index in the arrays of the sample at a position in the current
+     * order.
+     * 
+     * @param position the position of the sample in this data set
+     * @return the index of the sample
+     */
+    public int getIndex(final int position) {
+        if (position < 0 || position >= size) {
+            throw new IndexOutOfBoundsException("Sample " + position + " is out of range.");
+        }
+        return order[start + position];
+    }
+
+    /**
+     * Gets the offset in {@link #getInputs()} of the first input of the sample
+     * at a position in the current order.
+     * 
+     * @param position the position of the sample in this data set
+     * @return the offset of the inputs of the sample
+     */
+    public int getInputOffset(final int position) {
+        return getIndex(position) * inputCount;
+    }
+
+    /**
+     * Gets the offset in {@link #getTargetOutputs()} of the first target
+     * output of the sample at a position in the current order.
+     * 
+     * @param position the position of the sample in this data set
+     * @return the offset of the target outputs of the sample
+     */
+    public int getTargetOutputOffset(final int position) {
+        return getIndex(position) * outputCount;
+    }
+
+    /**
+     * Copies the inputs of a sample into an array.
+     * 
+     * @param position the position of the sample in this data set
+     * @param input the array to copy the inputs into
+     */
+    public void getInput(final int position, final double[] input) {
+        System.arraycopy(inputs, getInputOffset(position), input, 0, inputCount);
+    }
+
+    /**
+     * Copies the target outputs of a sample into an array.
+     * 
+     * @param position the position of the sample in this data set
+     * @param targetOutput the array to copy the target outputs into
+     */
+    public void getTargetOutput(final int position, final double[] targetOutput) {
+        System.arraycopy(targetOutputs, getTargetOutputOffset(position), targetOutput, 0, outputCount);
+    }
+
+    /**
+     * Gets a view of a range of the samples in the current order, like a
+     * mini-batch. The view shares its samples and order with this data set,
+     * so nothing is copied, and shuffling the view shuffles that range of
+     * this data set.
+     * 
+     * @param offset the position of the first sample of the view
+     * @param length the number of samples in the view
+     * @return the view
+     */
+    public Dataset subset(final int offset, final int length) {
+        if (offset < 0 || length < 0 || offset + length > size) {
+            throw new IllegalArgumentException("Invalid subset range.");
+        }
+        return new Dataset(this, offset, length);
+    }
+
+    /**
+     * Puts the samples in a random order, using the Fisher-Yates shuffle. Only
+     * the indices of the samples are moved.
+     * 
+     * @param random the random number generator to use
+     */
+    public void shuffle(final SplittableRandom random) {
+        for (int i = size - 1; i > 0; i--) {
+            final int j = random.nextInt(i + 1);
+            final int temp = order[start + i];
+            order[start + i] = order[start + j];
+            order[start + j] = temp;
+        }
+    }
+
+    /**
+     * Puts the samples back in the order they are stored in the arrays.
+     */
+    public void sort() {
+        Arrays.sort(order, start, start + size);
+    }
+}
@@ -0,0 +1,442 @@
+/* 
+ * Copyright (c) 2015 RobotsByTheC. All rights reserved.
+ *
+ * Open Source Software - may be modified and shared by FRC teams. The code must
+ * be accompanied by the BSD license file in the root directory of the project.
+ */
+package org.usfirst.frc.team2084.neuralnetwork;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * A single-precision version of {@link Network}. The weights, activations and
+ * gradients are stored as {@code float}s, which halves the memory used by the
+ * network and the memory bandwidth needed to run it, and doubles the number of
+ * values that fit in a SIMD register. The weights are laid out the same way as
+ * in {@link Network}, and the transfer function is still evaluated in double
+ * precision.
+ * 
+ * @author Ben Wolsieffer
+ */
+public class FloatNetwork {
+
+    private float recentAverageError;
+    private final int[] topology;
+    private float eta;
+    private float momentum;
+    /**
+     * The transfer function of each layer, with null for the input layer.
+     */
+    private final TransferFunction[] transferFunctions;
+    /**
+     * The random number generator used to initialize the weights.
+     */
+    private final SplittableRandom random = Network.newRandom();
+    private final float[] results;
+
+    /**
+     * The output values of each layer, including the bias neuron.
+     */
+    private final float[][] outputs;
+    /**
+     * The most recent sum of the weighted inputs of each neuron in each layer.
+     */
+    private final float[][] sums;
+    /**
+     * The gradient of each neuron in each layer.
+     */
+    private final float[][] gradients;
+    /**
+     * The connection weights between each layer and the next, with the same
+     * layout as {@link Network#getWeights(int)}.
+     */
+    private final float[][] weights;
+    /**
+     * The change in each weight from the last time it was updated.
+     */
+    private final float[][] deltaWeights;
+
+    /**
+     * Creates a single-precision neural network with the specified topology,
+     * learning rate (eta), momentum (alpha) and transfer function.
+     * 
+     * @param topology an array containing the size of each layer
+     * @param eta the learning rate
+     * @param momentum the learning momentum
+     * @param transferFunction the transfer function, which is used by every
+     *            layer
+     */
+    public FloatNetwork(final int[] topology, final float eta, final float momentum,
+            final TransferFunction transferFunction) {
+        this(topology, eta, momentum, Network.uniformTransferFunctions(topology, transferFunction));
+    }
+
+    /**
+     * Creates a single-precision neural network with a separate transfer
+     * function for each layer.
+     * 
+     * @param topology an array containing the size of each layer
+     * @param eta the learning rate
+     * @param momentum the learning momentum
+     * @param transferFunctions the transfer function of each layer after the
+     *            input layer
+     * 
+     * @see Network#Network(int[], double, double, TransferFunction[])
+     */
+    public FloatNetwork(final int[] topology, final float eta, final float momentum,
+            final TransferFunction[] transferFunctions) {
+        this.topology = topology;
+        this.eta = eta;
+        this.momentum = momentum;
+        this.transferFunctions = Network.layerTransferFunctions(topology, transferFunctions);
+
+        final int numberOfLayers = topology.length;
+        outputs = new float[numberOfLayers][];
+        sums = new float[numberOfLayers][];
+        gradients = new float[numberOfLayers][];
+        weights = new float[numberOfLayers - 1][];
+        deltaWeights = new float[numberOfLayers - 1][];
+
+        for (int layerNumber = 0; layerNumber < numberOfLayers; layerNumber++) {
+            final int layerSize = topology[layerNumber];
+            // Add 1 for bias
+            outputs[layerNumber] = new float[layerSize + 1];
+            sums[layerNumber] = new float[layerSize + 1];
+            gradients[layerNumber] = new float[layerSize + 1];
+
+            if (layerNumber < numberOfLayers - 1) {
+                final int numberWeights = topology[layerNumber + 1] * (layerSize + 1);
+                weights[layerNumber] = new float[numberWeights];
+                deltaWeights[layerNumber] = new float[numberWeights];
+            }
+
+            outputs[layerNumber][layerSize] = 1.0f;
+        }
+        results = new float[topology[numberOfLayers - 1]];
+
+        randomizeWeights();
+    }
+
+    /**
+     * Creates a single-precision copy of a double-precision network. The
+     * weights and delta weights are rounded to the nearest {@code float}.
+     * Single-precision networks always use the momentum rule, so the delta
+     * weights are only copied if the network uses {@link Optimizer.Momentum},
+     * and start at zero otherwise.
+     * 
+     * @param network the network to copy
+     * @return the single-precision network
+     */
+    public static FloatNetwork fromNetwork(final Network network) {
+        final FloatNetwork floatNetwork = new FloatNetwork(network.getTopology().clone(), (float) network.getEta(),
+                (float) network.getMomentum(), network.getTransferFunctions());
+
+        for (int l = 0; l < floatNetwork.weights.length; l++) {
+            final double[] layerWeights = network.getWeights(l);
+            final double[] layerDeltaWeights = network.getMomentumState(l);
+            for (int w = 0; w < layerWeights.length; w++) {
+                floatNetwork.weights[l][w] = (float) layerWeights[w];
+                if (layerDeltaWeights != null) {
+                    floatNetwork.deltaWeights[l][w] = (float) layerDeltaWeights[w];
+                }
+            }
+        }
+        return floatNetwork;
+    }
+
+    /**
+     * Creates a double-precision copy of this network. This can be used to
+     * continue training at a higher precision.
+     * 
+     * @return the double-precision network
+     */
+    public Network toNetwork() {
+        final Network network = new Network(topology.clone(), eta, momentum, getTransferFunctions());
+
+        for (int l = 0; l < weights.length; l++) {
+            final double[] layerWeights = network.getWeights(l);
+            final double[] layerDeltaWeights = network.getDeltaWeights(l);
+            for (int w = 0; w < layerWeights.length; w++) {
+                layerWeights[w] = weights[l][w];
+                layerDeltaWeights[w] = deltaWeights[l][w];
+            }
+        }
+        return network;
+    }
+
+    /**
+     * Calculates the outputs of the network given the specified inputs.
+     * 
+     * @param inputValues input values to the network
+     * 
+     * @see Network#feedForward(double...)
+     */
+    public void feedForward(final float... inputValues) {
+        final float[] inputLayer = outputs[0];
+
+        if (inputValues.length != inputLayer.length - 1) {
+            throw new IllegalArgumentException("inputValues needs to be the same size as the input layer - bias");
+        }
+
+        System.arraycopy(inputValues, 0, inputLayer, 0, inputValues.length);
+
+        for (int layerNumber = 1; layerNumber < outputs.length; layerNumber++) {
+            final float[] prevOutputs = outputs[layerNumber - 1];
+            final float[] layerWeights = weights[layerNumber - 1];
+            final float[] layerSums = sums[layerNumber];
+            final float[] layerOutputs = outputs[layerNumber];
+            final int rowLength = prevOutputs.length;
+            final TransferFunction transferFunction = transferFunctions[layerNumber];
+
+            for (int n = 0; n < layerOutputs.length - 1; n++) {
+                final float sum = Kernels.INSTANCE.dot(prevOutputs, 0, layerWeights, n * rowLength, rowLength);
+
+                layerSums[n] = sum;
+                layerOutputs[n] = (float) transferFunction.calculate(sum);
+            }
+        }
+    }
+
+    /**
+     * Performs back propagation learning on the network.
+     * 
+     * @param targetValues the target values for the outputs
+     * 
+     * @see Network#backPropagation(double...)
+     */
+    public void backPropagation(final float... targetValues) {
+        final int outputLayerNumber = outputs.length - 1;
+        final float[] outputValues = outputs[outputLayerNumber];
+        final float[] outputSums = sums[outputLayerNumber];
+        final float[] outputGradients = gradients[outputLayerNumber];
+
+        if (targetValues.length != outputValues.length - 1) {
+            throw new IllegalArgumentException("targetValues needs to be the same size as the output layer.");
+        }
+
+        float error = 0.0f;
+
+        final TransferFunction outputTransferFunction = transferFunctions[outputLayerNumber];
+        for (int n = 0; n < outputValues.length - 1; n++) {
+            final float delta = targetValues[n] - outputValues[n];
+            error += delta * delta;
+
+            outputGradients[n] = delta * (float) outputTransferFunction.derivative(outputSums[n], outputValues[n]);
+        }
+        recentAverageError = (float) Math.sqrt(error / outputValues.length);
+
+        // Calculate hidden layer gradients
+        for (int layerNumber = outputLayerNumber - 1; layerNumber > 0; layerNumber--) {
+            final float[] layerGradients = gradients[layerNumber];
+            final float[] layerSums = sums[layerNumber];
+            final float[] layerOutputs = outputs[layerNumber];
+            final float[] nextGradients = gradients[layerNumber + 1];
+            final float[] layerWeights = weights[layerNumber];
+            final int rowLength = layerGradients.length;
+            final int layerSize = rowLength - 1;
+            final TransferFunction transferFunction = transferFunctions[layerNumber];
+
+            Arrays.fill(layerGradients, 0, layerSize, 0.0f);
+
+            for (int n = 0; n < nextGradients.length - 1; n++) {
+                Kernels.INSTANCE.axpy(nextGradients[n], layerWeights, n * rowLength, layerGradients, 0, layerSize);
+            }
+
+            for (int i = 0; i < layerSize; i++) {
+                layerGradients[i] *= (float) transferFunction.derivative(layerSums[i], layerOutputs[i]);
+            }
+        }
+
+        // Update connection weights
+        for (int layerNumber = outputLayerNumber; layerNumber > 0; layerNumber--) {
+            final float[] layerGradients = gradients[layerNumber];
+            final float[] prevOutputs = outputs[layerNumber - 1];
+            final int rowLength = prevOutputs.length;
+
+            for (int n = 0; n < layerGradients.length - 1; n++) {
+                Kernels.INSTANCE.updateWeights(weights[layerNumber - 1], deltaWeights[layerNumber - 1],
+                        n * rowLength, prevOutputs, 0, eta, layerGradients[n], momentum, rowLength);
+            }
+        }
+    }
+
+    /**
+     * Gets the results of the network.
+     * 
+     * @return an array containing the values of each of the output neurons
+     */
+    public float[] getResults() {
+        System.arraycopy(outputs[outputs.length - 1], 0, results, 0, results.length);
+        return results;
+    }
+
+    /**
+     * Gets the learning rate of the network.
+     * 
+     * @return the learning rate
+     */
+    public float getEta() {
+        return eta;
+    }
+
+    /**
+     * Sets the learning rate of the network.
+     * 
+     * @param eta the learning rate
+     */
+    public void setEta(float eta) {
+        this.eta = eta;
+    }
+
+    /**
+     * Gets the momentum of the network.
+     * 
+     * @return the momentum
+     */
+    public float getMomentum() {
+        return momentum;
+    }
+
+    /**
+     * Sets the momentum of the network.
+     * 
+     * @param momentum the momentum
+     */
+    public void setMomentum(float momentum) {
+        this.momentum = momentum;
+    }
+
+    /**
+     * Gets the transfer function of the output layer.
+     * 
+     * @return the transfer function
+     * 
+     * @see Network#getTransferFunction()
+     */
+    public TransferFunction getTransferFunction() {
+        return transferFunctions[transferFunctions.length - 1];
+    }
+
+    /**
+     * Gets the transfer function of the specified layer.
+     * 
+     * @param num the layer index, which must be greater than 0
+     * @return the transfer function
+     */
+    public TransferFunction getTransferFunction(final int num) {
+        if (num < 1 || num >= transferFunctions.length) {
+            throw new IllegalArgumentException("Invalid layer for a transfer function: " + num);
+        }
+        return transferFunctions[num];
+    }
+
+    /**
+     * Gets the transfer functions of every layer after the input layer.
+     * 
+     * @return a new array containing the transfer functions
+     */
+    public TransferFunction[] getTransferFunctions() {
+        return Arrays.copyOfRange(transferFunctions, 1, transferFunctions.length);
+    }
+
+    /**
+     * Gets the topology of the network in the form of an int[], with each
+     * element containing the size of a layer.
+     * 
+     * @return the topology of the network
+     */
+    public int[] getTopology() {
+        return topology;
+    }
+
+    /**
+     * Get the most recent average error calculated during backprogagation.
+     * 
+     * @return the average error
+     */
+    public float getRecentAverageError() {
+        return recentAverageError;
+    }
+
+    /**
+     * Gets the number of layers in the network.
+     * 
+     * @return the number of layers in the network
+     */
+    public int getTotalLayers() {
+        return outputs.length;
+    }
+
+    /**
+     * Gets the weight matrix of the connections between the specified layer
+     * and the next one. It has the same layout and caveats as
+     * {@link Network#getWeights(int)}.
+     * 
+     * @param num the layer index, which must be less than the index of the
+     *            output layer
+     * @return the weight matrix
+     */
+    public float[] getWeights(final int num) {
+        return weights[num];
+    }
+
+    /**
+     * Gets the weight of the connection from a neuron in the specified layer
+     * to a neuron in the next layer.
+     * 
+     * @param num the layer index
+     * @param from the index of the neuron in the layer
+     * @param to the index of the neuron in the next layer
+     * @return the weight of the connection
+     */
+    public float getWeight(final int num, final int from, final int to) {
+        return weights[num][to * outputs[num].length + from];
+    }
+
+    /**
+     * Sets the weight of the connection from a neuron in the specified layer
+     * to a neuron in the next layer.
+     * 
+     * @param num the layer index
+     * @param from the index of the neuron in the layer
+     * @param to the index of the neuron in the next layer
+     * @param weight the new weight of the connection
+     */
+    public void setWeight(final int num, final int from, final int to, final float weight) {
+        weights[num][to * outputs[num].length + from] = weight;
+    }
+
+    public void reset() {
+        recentAverageError = 0;
+
+        for (int l = 0; l < outputs.length; l++) {
+            Arrays.fill(outputs[l], 0.0f);
+            Arrays.fill(sums[l], 0.0f);
+            Arrays.fill(gradients[l], 0.0f);
+            // Reset the bias neuron's output to 1
+            outputs[l][outputs[l].length - 1] = 1.0f;
+        }
+
+        randomizeWeights();
+    }
+
+    /**
+     * Sets every weight to a random value chosen by the
+     * {@link WeightInitializer} that suits each layer's transfer function, and
+     * clears the delta weights.
+     */
+    private void randomizeWeights() {
+        for (int l = 0; l < weights.length; l++) {
+            final WeightInitializer initializer = WeightInitializer.forTransferFunction(transferFunctions[l + 1]);
+            final float[] layerWeights = weights[l];
+            final int fanIn = topology[l];
+            final int fanOut = topology[l + 1];
+            for (int w = 0; w < layerWeights.length; w++) {
+                layerWeights[w] = (float) (w % (fanIn + 1) == fanIn ? initializer.bias(fanIn, fanOut, random)
+                        : initializer.weight(fanIn, fanOut, random));
+            }
+            Arrays.fill(deltaWeights[l], 0.0f);
+        }
+    }
+}
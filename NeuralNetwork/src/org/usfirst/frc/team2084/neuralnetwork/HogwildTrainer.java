@@ -0,0 +1,313 @@
+/* 
+ * Copyright (c) 2015 RobotsByTheC. All rights reserved.
+ *
+ * Open Source Software - may be modified and shared by FRC teams. The code must
+ * be accompanied by the BSD license file in the root directory of the project.
+ */
+package org.usfirst.frc.team2084.neuralnetwork;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Trains a {@link Network} using lock-free asynchronous stochastic gradient
+ * descent (also known as Hogwild!). Several threads each train on their own
+ * part of the samples, one sample at a time, and update the shared weights
+ * directly without any locking. Every thread has its own activation and
+ * gradient buffers, so only the weights (and their momentum) are shared.
+ * 
+ * Updates from different threads can overwrite each other, but this happens
+ * rarely enough that it does not noticeably slow down convergence, especially
+ * with noisy data. Unlike {@link DataParallelTrainer}, the results depend on
+ * thread scheduling and are not repeatable.
+ * 
+ * @author Ben Wolsieffer
+ */
+public class HogwildTrainer implements AutoCloseable {
+
+    /**
+     * Compares the convergence and speed of Hogwild training with sequential
+     * training of a copy of the same network.
+     * 
+     * @see HogwildTrainer#compare(Network, double[][], double[][], int, int)
+     */
+    public static class Comparison {
+
+        private final double[] sequentialErrors;
+        private final double[] hogwildErrors;
+        private final double sequentialThroughput;
+        private final double hogwildThroughput;
+
+        private Comparison(final double[] sequentialErrors, final double[] hogwildErrors,
+                final double sequentialThroughput, final double hogwildThroughput) {
+            this.sequentialErrors = sequentialErrors;
+            this.hogwildErrors = hogwildErrors;
+            this.sequentialThroughput = sequentialThroughput;
+            this.hogwildThroughput = hogwildThroughput;
+        }
+
+        /**
+         * Gets the average error of each epoch of sequential training.
+         * 
+         * @return the sequential training errors
+         */
+        public double[] getSequentialErrors() {
+            return sequentialErrors;
+        }
+
+        /**
+         * Gets the average error of each epoch of Hogwild training.
+         * 
+         * @return the Hogwild training errors
+         */
+        public double[] getHogwildErrors() {
+            return hogwildErrors;
+        }
+
+        /**
+         * Gets the number of samples per second processed by sequential
+         * training.
+         * 
+         * @return the sequential throughput
+         */
+        public double getSequentialThroughput() {
+            return sequentialThroughput;
+        }
+
+        /**
+         * Gets the number of samples per second processed by Hogwild
+         * training.
+         * 
+         * @return the Hogwild throughput
+         */
+        public double getHogwildThroughput() {
+            return hogwildThroughput;
+        }
+
+        @Override
+        public String toString() {
+            final int last = sequentialErrors.length - 1;
+            return String.format(
+                    "Sequential: %.0f samples/s, final error %g%nHogwild: %.0f samples/s, final error %g%nSpeedup: %.2f",
+                    sequentialThroughput, sequentialErrors[last], hogwildThroughput, hogwildErrors[last],
+                    hogwildThroughput / sequentialThroughput);
+        }
+    }
+
+    /**
+     * Trains on a range of samples using its own buffers.
+     */
+    private class Worker implements Callable<Void> {
+
+        private final Workspace workspace = new Workspace(network.getTopology(), 1);
+        private int from;
+        private int to;
+        /**
+         * The optimizer step of the first sample. The threads update the
+         * weights at the same time, so each one counts its own steps.
+         */
+        private long firstStep;
+        private double error;
+
+        @Override
+        public Void call() {
+            final double eta = network.getEta();
+            final double momentum = network.getMomentum();
+
+            error = 0.0;
+            for (int s = from; s < to; s++) {
+                workspace.feedForward(network, inputs, s, 1);
+                error += workspace.calculateGradients(network, targetOutputs, s, 1);
+                workspace.updateWeights(network, eta, momentum, firstStep + s - from + 1);
+            }
+            return null;
+        }
+    }
+
+    private final Network network;
+    private final ExecutorService executor;
+    private final List<Worker> workers;
+
+    // The samples of the current epoch
+    private double[][] inputs;
+    private double[][] targetOutputs;
+
+    /**
+     * The number of samples per second processed during the last epoch.
+     */
+    private double throughput;
+
+    /**
+     * Creates a trainer for the specified network that uses the specified
+     * number of threads.
+     * 
+     * @param network the network to train
+     * @param threads the number of worker threads
+     */
+    public HogwildTrainer(final Network network, final int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive.");
+        }
+
+        this.network = network;
+
+        workers = new ArrayList<>(threads);
+        for (int i = 0; i < threads; i++) {
+            workers.add(new Worker());
+        }
+        executor = Executors.newFixedThreadPool(threads, (r) -> {
+            final Thread thread = new Thread(r, "HogwildTrainer worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Trains the network on every sample once. The samples are split into one
+     * contiguous range per thread, and each thread trains on its range in
+     * order.
+     * 
+     * @param inputs the input values, with one row per sample
+     * @param targetOutputs the target values for the outputs, with one row per
+     *            sample
+     * @return the average error of all the samples
+     * @throws InterruptedException if the thread is interrupted while waiting
+     *             for the workers
+     */
+    public double trainEpoch(final double[][] inputs, final double[][] targetOutputs) throws InterruptedException {
+        if (inputs.length != targetOutputs.length) {
+            throw new IllegalArgumentException("inputs and targetOutputs lengths do not match.");
+        }
+        if (inputs.length == 0) {
+            return 0.0;
+        }
+
+        this.inputs = inputs;
+        this.targetOutputs = targetOutputs;
+
+        final int threads = workers.size();
+        final long firstStep = network.getOptimizerStep();
+        int maxSamples = 0;
+        for (int i = 0; i < threads; i++) {
+            final Worker worker = workers.get(i);
+            worker.from = (int) ((long) inputs.length * i / threads);
+            worker.to = (int) ((long) inputs.length * (i + 1) / threads);
+            worker.firstStep = firstStep;
+            maxSamples = Math.max(maxSamples, worker.to - worker.from);
+        }
+
+        final long startTime = System.nanoTime();
+        try {
+            for (Future<Void> future : executor.invokeAll(workers)) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    final Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    } else if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new IllegalStateException(cause);
+                }
+            }
+        } finally {
+            this.inputs = null;
+            this.targetOutputs = null;
+        }
+        throughput = inputs.length / ((System.nanoTime() - startTime) / 1e9);
+        network.setOptimizerStep(firstStep + maxSamples);
+
+        double error = 0.0;
+        for (Worker worker : workers) {
+            error += worker.error;
+        }
+        error /= inputs.length;
+        network.setRecentAverageError(error);
+        return error;
+    }
+
+    /**
+     * Gets the number of samples per second that were processed during the
+     * last call to {@link #trainEpoch(double[][], double[][])}.
+     * 
+     * @return the throughput in samples per second
+     */
+    public double getThroughput() {
+        return throughput;
+    }
+
+    /**
+     * Gets the network that is being trained.
+     * 
+     * @return the network
+     */
+    public Network getNetwork() {
+        return network;
+    }
+
+    /**
+     * Stops the worker threads. The trainer can not be used after it is
+     * closed.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    /**
+     * Trains two copies of a network for the same number of epochs, one
+     * sequentially using {@link Network#feedForward(double...)} and
+     * {@link Network#backPropagation(double...)}, and the other using a
+     * {@link HogwildTrainer}. The original network is not modified.
+     * 
+     * @param network the network to start from
+     * @param inputs the input values, with one row per sample
+     * @param targetOutputs the target values for the outputs, with one row per
+     *            sample
+     * @param threads the number of Hogwild threads
+     * @param epochs the number of epochs to train each copy for
+     * @return the errors and throughput of both methods
+     * @throws InterruptedException if the thread is interrupted while waiting
+     *             for the workers
+     */
+    public static Comparison compare(final Network network, final double[][] inputs, final double[][] targetOutputs,
+            final int threads, final int epochs) throws InterruptedException {
+        if (epochs < 1) {
+            throw new IllegalArgumentException("epochs must be positive.");
+        }
+
+        final double[] sequentialErrors = new double[epochs];
+        final double[] hogwildErrors = new double[epochs];
+
+        final Network sequentialNetwork = new Network(network);
+        final long startTime = System.nanoTime();
+        for (int e = 0; e < epochs; e++) {
+            double error = 0.0;
+            for (int s = 0; s < inputs.length; s++) {
+                sequentialNetwork.feedForward(inputs[s]);
+                sequentialNetwork.backPropagation(targetOutputs[s]);
+                error += sequentialNetwork.getRecentAverageError();
+            }
+            sequentialErrors[e] = error / inputs.length;
+        }
+        final double sequentialThroughput = (double) inputs.length * epochs
+                / ((System.nanoTime() - startTime) / 1e9);
+
+        double hogwildTime = 0;
+        try (HogwildTrainer trainer = new HogwildTrainer(new Network(network), threads)) {
+            for (int e = 0; e < epochs; e++) {
+                hogwildErrors[e] = trainer.trainEpoch(inputs, targetOutputs);
+                hogwildTime += inputs.length / trainer.getThroughput();
+            }
+        }
+        final double hogwildThroughput = inputs.length * epochs / hogwildTime;
+
+        return new Comparison(sequentialErrors, hogwildErrors, sequentialThroughput, hogwildThroughput);
+    }
+}
@@ -0,0 +1,43 @@
+/* 
+ * Copyright (c) 2015 RobotsByTheC. All rights reserved.
+ *
+ * Open Source Software - may be modified and shared by FRC teams. The code must
+ * be accompanied by the BSD license file in the root directory of the project.
+ */
+package org.usfirst.frc.team2084.neuralnetwork;
+
+/**
+ * A trained model that can only be used to make predictions. Unlike a
+ * {@link Network}, implementations of this interface do not store the results
+ * of a prediction, so {@link #predict(double[], double[])} can be called from
+ * any number of threads at the same time.
+ * 
+ * @author Ben Wolsieffer
+ */
+public interface InferenceModel {
+
+    /**
+     * Gets the number of values the model takes as input.
+     * 
+     * @return the number of inputs
+     */
+    int getInputCount();
+
+    /**
+     * Gets the number of values the model produces.
+     * 
+     * @return the number of outputs
+     */
+    int getOutputCount();
+
+    /**
+     * Calculates the outputs of the model for the specified inputs. This is
+     * safe to call from multiple threads at the same time.
+     * 
+     * @param inputs the input values, which must contain
+     *            {@link #getInputCount()} elements
+     * @param outputs the array to store the output values in, which must
+     *            contain at least {@link #getOutputCount()} elements
+     */
+    void predict(double[] inputs, double[] outputs);
+}
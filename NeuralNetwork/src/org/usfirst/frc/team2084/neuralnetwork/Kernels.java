@@ -0,0 +1,304 @@
+/* 
+ * Copyright (c) 2015 RobotsByTheC. All rights reserved.
+ *
+ * Open Source Software - may be modified and shared by FRC teams. The code must
+ * be accompanied by the BSD license file in the root directory of the project.
+ */
+package org.usfirst.frc.team2084.neuralnetwork;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The inner loops of the network calculations. This class contains the scalar
+ * implementation, which works on any JVM. If the {@code jdk.incubator.vector}
+ * module is available at runtime (it must be enabled with
+ * {@code --add-modules jdk.incubator.vector}), {@link #INSTANCE} is replaced by
+ * {@link VectorKernels}, which uses SIMD instructions to process several
+ * elements at once.
+ * 
+ * Vectorization can be disabled by setting the
+ * {@code neuralnetwork.vector} system property to {@code false}.
+ * 
+ * @author Ben Wolsieffer
+ */
+class Kernels {
+
+    /**
+     * The name of the module that contains the Java Vector API.
+     */
+    private static final String VECTOR_MODULE = "jdk.incubator.vector";
+
+    /**
+     * The best kernel implementation available on this JVM.
+     */
+    static final Kernels INSTANCE = load();
+
+    /**
+     * Loads the vectorized kernels if possible, otherwise falls back to the
+     * scalar ones.
+     * 
+     * @return the kernel implementation to use
+     */
+    private static Kernels load() {
+        if (Boolean.parseBoolean(System.getProperty("neuralnetwork.vector", "true"))
+                && ModuleLayer.boot().findModule(VECTOR_MODULE).isPresent()) {
+            try {
+                // Load the class reflectively, so this class never links
+                // against the Vector API if it is not available
+                return (Kernels) Class.forName(Kernels.class.getPackage().getName() + ".VectorKernels")
+                        .getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                System.err.println("Warning: could not load vectorized kernels, using scalar code: " + e);
+            }
+        }
+        return new Kernels();
+    }
+
+    /**
+     * Returns whether these kernels use SIMD instructions.
+     * 
+     * @return true if the kernels are vectorized
+     */
+    boolean isVectorized() {
+        return false;
+    }
+
+    /**
+     * Calculates the dot product of two vectors.
+     * 
+     * @param a the first vector
+     * @param aOffset the index of the first element of {@code a}
+     * @param b the second vector
+     * @param bOffset the index of the first element of {@code b}
+     * @param length the number of elements
+     * @return the dot product
+     */
+    double dot(final double[] a, final int aOffset, final double[] b, final int bOffset, final int length) {
+        double sum = 0.0;
+        for (int i = 0; i < length; i++) {
+            sum += a[aOffset + i] * b[bOffset + i];
+        }
+        return sum;
+    }
+
+    /**
+     * Adds a vector multiplied by a scalar to another vector
+     * ({@code y += alpha * x}). This is used to accumulate gradients.
+     * 
+     * @param alpha the scalar
+     * @param x the vector to add
+     * @param xOffset the index of the first element of {@code x}
+     * @param y the vector to add to
+     * @param yOffset the index of the first element of {@code y}
+     * @param length the number of elements
+     */
+    void axpy(final double alpha, final double[] x, final int xOffset, final double[] y, final int yOffset,
+            final int length) {
+        for (int i = 0; i < length; i++) {
+            y[yOffset + i] += alpha * x[xOffset + i];
+        }
+    }
+
+    /**
+     * Updates a row of weights using the learning rate and momentum. For each
+     * element, the new delta weight is {@code eta * x * gradient} plus
+     * {@code momentum} times the old delta weight, and it is added to the
+     * weight.
+     * 
+     * @param weights the weights
+     * @param deltaWeights the previous changes in the weights, which are
+     *            replaced by the new changes
+     * @param offset the index of the first weight
+     * @param x the inputs of the neuron
+     * @param xOffset the index of the first input
+     * @param eta the learning rate
+     * @param gradient the gradient of the neuron
+     * @param momentum the momentum
+     * @param length the number of weights
+     */
+    void updateWeights(final double[] weights, final double[] deltaWeights, final int offset, final double[] x,
+            final int xOffset, final double eta, final double gradient, final double momentum, final int length) {
+        for (int i = 0; i < length; i++) {
+            final int w = offset + i;
+            final double newDeltaWeight = eta * x[xOffset + i] * gradient + momentum * deltaWeights[w];
+
+            deltaWeights[w] = newDeltaWeight;
+            weights[w] += newDeltaWeight;
+        }
+    }
+
+    /**
+     * Calculates the dot product of a vector and a vector of little-endian
+     * doubles stored in a buffer, which may be outside of the Java heap. Only
+     * absolute reads are used, so several threads can share the buffer. This
+     * is never vectorized, because the Vector API method that loads from a
+     * buffer was removed in Java 19.
+     * 
+     * @param a the first vector
+     * @param aOffset the index of the first element of {@code a}
+     * @param b the buffer containing the second vector, which must be in
+     *            little-endian order
+     * @param bOffset the byte offset of the first element of {@code b}
+     * @param length the number of elements
+     * @return the dot product
+     */
+    double dot(final double[] a, final int aOffset, final ByteBuffer b, final int bOffset, final int length) {
+        double sum = 0.0;
+        for (int i = 0; i < length; i++) {
+            sum += a[aOffset + i] * b.getDouble(bOffset + i * Double.BYTES);
+        }
+        return sum;
+    }
+
+    /**
+     * Calculates the dot product of a sparse vector and a dense vector. The
+     * sparse vector is a range of a compressed sparse row matrix: each value
+     * is multiplied by the element of {@code x} at the matching index.
+     * 
+     * @param values the non-zero values of the sparse vector
+     * @param indices the index in {@code x} of each value
+     * @param offset the index of the first value
+     * @param length the number of values
+     * @param x the dense vector
+     * @return the dot product
+     */
+    double sparseDot(final double[] values, final int[] indices, final int offset, final int length,
+            final double[] x) {
+        double sum = 0.0;
+        for (int i = offset; i < offset + length; i++) {
+            sum += values[i] * x[indices[i]];
+        }
+        return sum;
+    }
+
+    /**
+     * Adds a sparse vector multiplied by a scalar to a dense vector
+     * ({@code y[indices[i]] += alpha * values[i]}). The indices in the range
+     * must be unique.
+     * 
+     * @param alpha the scalar
+     * @param values the non-zero values of the sparse vector
+     * @param indices the index in {@code y} of each value
+     * @param offset the index of the first value
+     * @param length the number of values
+     * @param y the dense vector to add to
+     */
+    void sparseAxpy(final double alpha, final double[] values, final int[] indices, final int offset,
+            final int length, final double[] y) {
+        for (int i = offset; i < offset + length; i++) {
+            y[indices[i]] += alpha * values[i];
+        }
+    }
+
+    /**
+     * Sparse version of
+     * {@link #updateWeights(double[], double[], int, double[], int, double, double, double, int)}
+     * . Only the weights that are stored are updated, so the missing ones stay
+     * zero.
+     * 
+     * @param weights the non-zero weights
+     * @param deltaWeights the previous changes in the weights, which are
+     *            replaced by the new changes
+     * @param indices the index in {@code x} of each weight
+     * @param offset the index of the first weight
+     * @param length the number of weights
+     * @param x the inputs of the neuron
+     * @param eta the learning rate
+     * @param gradient the gradient of the neuron
+     * @param momentum the momentum
+     */
+    void sparseUpdateWeights(final double[] weights, final double[] deltaWeights, final int[] indices,
+            final int offset, final int length, final double[] x, final double eta, final double gradient,
+            final double momentum) {
+        for (int w = offset; w < offset + length; w++) {
+            final double newDeltaWeight = eta * x[indices[w]] * gradient + momentum * deltaWeights[w];
+
+            deltaWeights[w] = newDeltaWeight;
+            weights[w] += newDeltaWeight;
+        }
+    }
+
+    /**
+     * Single-precision version of
+     * {@link #dot(double[], int, double[], int, int)}.
+     * 
+     * @param a the first vector
+     * @param aOffset the index of the first element of {@code a}
+     * @param b the second vector
+     * @param bOffset the index of the first element of {@code b}
+     * @param length the number of elements
+     * @return the dot product
+     */
+    float dot(final float[] a, final int aOffset, final float[] b, final int bOffset, final int length) {
+        float sum = 0.0f;
+        for (int i = 0; i < length; i++) {
+            sum += a[aOffset + i] * b[bOffset + i];
+        }
+        return sum;
+    }
+
+    /**
+     * Single-precision version of
+     * {@link #axpy(double, double[], int, double[], int, int)}.
+     * 
+     * @param alpha the scalar
+     * @param x the vector to add
+     * @param xOffset the index of the first element of {@code x}
+     * @param y the vector to add to
+     * @param yOffset the index of the first element of {@code y}
+     * @param length the number of elements
+     */
+    void axpy(final float alpha, final float[] x, final int xOffset, final float[] y, final int yOffset,
+            final int length) {
+        for (int i = 0; i < length; i++) {
+            y[yOffset + i] += alpha * x[xOffset + i];
+        }
+    }
+
+    /**
+     * Single-precision version of
+     * {@link #updateWeights(double[], double[], int, double[], int, double, double, double, int)}
+     * .
+     * 
+     * @param weights the weights
+     * @param deltaWeights the previous changes in the weights, which are
+     *            replaced by the new changes
+     * @param offset the index of the first weight
+     * @param x the inputs of the neuron
+     * @param xOffset the index of the first input
+     * @param eta the learning rate
+     * @param gradient the gradient of the neuron
+     * @param momentum the momentum
+     * @param length the number of weights
+     */
+    void updateWeights(final float[] weights, final float[] deltaWeights, final int offset, final float[] x,
+            final int xOffset, final float eta, final float gradient, final float momentum, final int length) {
+        for (int i = 0; i < length; i++) {
+            final int w = offset + i;
+            final float newDeltaWeight = eta * x[xOffset + i] * gradient + momentum * deltaWeights[w];
+
+            deltaWeights[w] = newDeltaWeight;
+            weights[w] += newDeltaWeight;
+        }
+    }
+
+    /**
+     * Calculates the dot product of two vectors of 8-bit integers. The
+     * products are accumulated in a 32-bit integer, which can not overflow
+     * for vectors shorter than 2^17 elements.
+     * 
+     * @param a the first vector
+     * @param aOffset the index of the first element of {@code a}
+     * @param b the second vector
+     * @param bOffset the index of the first element of {@code b}
+     * @param length the number of elements
+     * @return the dot product
+     */
+    int dot(final byte[] a, final int aOffset, final byte[] b, final int bOffset, final int length) {
+        int sum = 0;
+        for (int i = 0; i < length; i++) {
+            sum += a[aOffset + i] * b[bOffset + i];
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,399 @@
+/* 
+ * Copyright (c) 2015 RobotsByTheC. All rights reserved.
+ *
+ * Open Source Software - may be modified and shared by FRC teams. The code must
+ * be accompanied by the BSD license file in the root directory of the project.
+ */
+package org.usfirst.frc.team2084.neuralnetwork;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * An inference model whose weights stay in a file that is mapped into memory,
+ * instead of being copied onto the Java heap. Opening a model only reads a
+ * small header, no matter how large the network is, and the operating system
+ * loads the weights from the file as they are used. Because the mapping is
+ * read-only, every process on the same computer that opens the file shares a
+ * single copy of the weights in the page cache, and the weights never add to
+ * the work of the garbage collector.
+ * 
+ * The file is written by {@link #write(Network, File)} or
+ * {@link Data#saveMapped(File)}. It starts with the characters "NNMW", a
+ * version number and the size of the header. The header contains the
+ * topology, the name of the transfer function of each layer after the input
+ * layer and the position of the weights of each layer in the file. The
+ * weights of each layer have the same layout as
+ * {@link Network#getWeights(int)}, and start at a multiple of
+ * {@link #ALIGNMENT} bytes. All numbers are little-endian.
+ * 
+ * Like {@link CompiledNetwork}, a mapped network can not be changed and can
+ * be used by any number of threads at the same time. The file must not be
+ * modified while it is mapped.
+ * 
+ * @author Ben Wolsieffer
+ */
+public final class MappedNetwork implements InferenceModel {
+
+    /**
+     * The scratch buffers used by a single prediction. A context must not be
+     * used by more than one thread at a time.
+     */
+    public static final class Context {
+
+        private final double[] first;
+        private final double[] second;
+
+        private Context(final int size) {
+            first = new double[size];
+            second = new double[size];
+        }
+    }
+
+    /**
+     * The first four bytes of a mapped network file. These are written as
+     * bytes, so they do not depend on the byte order of the rest of the file.
+     */
+    private static final byte[] MAGIC = { 'N', 'N', 'M', 'W' };
+    /**
+     * The version of the file format.
+     */
+    private static final int VERSION = 1;
+    /**
+     * The size of the magic number, version and header size at the start of
+     * the file.
+     */
+    private static final int PREFIX_SIZE = 3 * Integer.BYTES;
+    /**
+     * The weights of each layer start at a multiple of this many bytes, so
+     * they are aligned to a cache line.
+     */
+    public static final int ALIGNMENT = 64;
+
+    private final int[] topology;
+    /**
+     * The transfer function of each layer after the input layer.
+     */
+    private final TransferFunction[] transferFunctions;
+    /**
+     * The mapped weights of each layer.
+     */
+    private final MappedByteBuffer[] weights;
+    /**
+     * The size of the buffers in a context, which is big enough for the
+     * largest layer and its bias.
+     */
+    private final int contextSize;
+    /**
+     * The context used by each thread that calls
+     * {@link #predict(double[], double[])}.
+     */
+    private final ThreadLocal<Context> threadContext;
+
+    private MappedNetwork(final int[] topology, final TransferFunction[] transferFunctions,
+            final MappedByteBuffer[] weights) {
+        this.topology = topology;
+        this.transferFunctions = transferFunctions;
+        this.weights = weights;
+
+        int maxLayerSize = 0;
+        for (int size : topology) {
+            maxLayerSize = Math.max(maxLayerSize, size);
+        }
+        contextSize = maxLayerSize + 1;
+        threadContext = ThreadLocal.withInitial(this::createContext);
+    }
+
+    /**
+     * Maps the weights of a network that was written by
+     * {@link #write(Network, File)}. Only the header is read; the weights are
+     * loaded by the operating system when they are first used.
+     * 
+     * @param file the file to open
+     * @return the mapped network
+     * @throws IOException if the file could not be read
+     * @throws Data.FormatException if the file is not a valid mapped network
+     */
+    public static MappedNetwork open(final File file) throws IOException, Data.FormatException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final long fileSize = channel.size();
+            if (fileSize < PREFIX_SIZE) {
+                throw new Data.FormatException("Not a mapped network.");
+            }
+
+            final ByteBuffer prefix = read(channel, 0, PREFIX_SIZE);
+            final byte[] magic = new byte[MAGIC.length];
+            prefix.get(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new Data.FormatException("Not a mapped network.");
+            }
+            final int version = prefix.getInt();
+            if (version != VERSION) {
+                throw new Data.FormatException("Unsupported mapped network version: " + version);
+            }
+            final int headerSize = prefix.getInt();
+            if (headerSize < Integer.BYTES || PREFIX_SIZE + (long) headerSize > fileSize) {
+                throw new Data.FormatException("Invalid header size.");
+            }
+
+            final ByteBuffer header = read(channel, PREFIX_SIZE, headerSize);
+            try {
+                final int layerCount = header.getInt();
+                // Every layer needs at least its size in the header, so a
+                // corrupt count fails before the topology is allocated
+                if (layerCount < 2 || layerCount > header.remaining() / Integer.BYTES) {
+                    throw new Data.FormatException("Invalid topology.");
+                }
+                final int[] topology = new int[layerCount];
+                for (int l = 0; l < layerCount; l++) {
+                    topology[l] = header.getInt();
+                    if (topology[l] < 1) {
+                        throw new Data.FormatException("Invalid topology.");
+                    }
+                }
+
+                final TransferFunction[] transferFunctions = new TransferFunction[layerCount - 1];
+                for (int l = 0; l < transferFunctions.length; l++) {
+                    final byte[] name = new byte[header.getShort() & 0xFFFF];
+                    header.get(name);
+                    transferFunctions[l] = Data.parseTransferFunction(new String(name, StandardCharsets.UTF_8));
+                    if (transferFunctions[l] == null) {
+                        throw new Data.FormatException("Unrecognized transfer function.");
+                    }
+                }
+
+                final MappedByteBuffer[] weights = new MappedByteBuffer[layerCount - 1];
+                for (int l = 0; l < weights.length; l++) {
+                    final long offset = header.getLong();
+                    final long size = (long) topology[l + 1] * (topology[l] + 1) * Double.BYTES;
+                    if (offset < PREFIX_SIZE + headerSize || size > Integer.MAX_VALUE
+                            || offset + size > fileSize) {
+                        throw new Data.FormatException("Invalid weights for layer " + l);
+                    }
+                    // Map each layer separately, so the whole file can be
+                    // larger than the 2 GB limit of a single mapping
+                    weights[l] = channel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+                    weights[l].order(ByteOrder.LITTLE_ENDIAN);
+                }
+
+                return new MappedNetwork(topology, transferFunctions, weights);
+            } catch (java.nio.BufferUnderflowException e) {
+                throw new Data.FormatException("Truncated header.");
+            }
+        }
+    }
+
+    /**
+     * Reads part of a file into a little-endian buffer.
+     * 
+     * @param channel the file to read
+     * @param position the position of the first byte to read
+     * @param size the number of bytes to read
+     * @return the buffer, ready to be read
+     * @throws IOException if the file could not be read
+     */
+    private static ByteBuffer read(final FileChannel channel, final long position, final int size)
+            throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of file.");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Writes the topology, transfer functions and weights of a network in the
+     * format used by {@link #open(File)}. The learning rate, momentum and
+     * delta weights are not saved, because a mapped network can only be used
+     * for inference.
+     * 
+     * @param network the network to write
+     * @param file the file to write to, which is replaced if it exists
+     * @throws IOException if the file could not be written
+     */
+    public static void write(final Network network, final File file) throws IOException {
+        final int[] topology = network.getTopology();
+        final TransferFunction[] transferFunctions = network.getTransferFunctions();
+
+        final byte[][] names = new byte[transferFunctions.length][];
+        int headerSize = Integer.BYTES * (1 + topology.length) + Long.BYTES * (topology.length - 1);
+        for (int l = 0; l < names.length; l++) {
+            names[l] = transferFunctions[l].toString().getBytes(StandardCharsets.UTF_8);
+            headerSize += Short.BYTES + names[l].length;
+        }
+
+        final ByteBuffer header = ByteBuffer.allocate(PREFIX_SIZE + headerSize).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(MAGIC);
+        header.putInt(VERSION);
+        header.putInt(headerSize);
+        header.putInt(topology.length);
+        for (int size : topology) {
+            header.putInt(size);
+        }
+        for (byte[] name : names) {
+            header.putShort((short) name.length);
+            header.put(name);
+        }
+        final long[] offsets = new long[topology.length - 1];
+        long offset = header.capacity();
+        for (int l = 0; l < offsets.length; l++) {
+            offset = offsets[l] = (offset + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+            header.putLong(offsets[l]);
+            offset += (long) network.getWeights(l).length * Double.BYTES;
+        }
+        header.flip();
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            write(channel, header, 0);
+            for (int l = 0; l < offsets.length; l++) {
+                final double[] layerWeights = network.getWeights(l);
+                final ByteBuffer buffer = ByteBuffer.allocate(layerWeights.length * Double.BYTES)
+                        .order(ByteOrder.LITTLE_ENDIAN);
+                buffer.asDoubleBuffer().put(layerWeights);
+                write(channel, buffer, offsets[l]);
+            }
+        }
+    }
+
+    /**
+     * Writes a whole buffer to a file at the specified position.
+     * 
+     * @param channel the file to write to
+     * @param buffer the buffer to write
+     * @param position the position of the first byte in the file
+     * @throws IOException if the file could not be written
+     */
+    private static void write(final FileChannel channel, final ByteBuffer buffer, final long position)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+
+    /**
+     * Creates a context that can be used with
+     * {@link #predict(double[], double[], Context)}.
+     * 
+     * @return a new context
+     */
+    public Context createContext() {
+        return new Context(contextSize);
+    }
+
+    @Override
+    public int getInputCount() {
+        return topology[0];
+    }
+
+    @Override
+    public int getOutputCount() {
+        return topology[topology.length - 1];
+    }
+
+    /**
+     * Gets the topology of the network.
+     * 
+     * @return a copy of the topology
+     */
+    public int[] getTopology() {
+        return topology.clone();
+    }
+
+    /**
+     * Gets the transfer functions of every layer after the input layer.
+     * 
+     * @return a copy of the transfer functions
+     */
+    public TransferFunction[] getTransferFunctions() {
+        return transferFunctions.clone();
+    }
+
+    /**
+     * Asks the operating system to load all the weights into memory now,
+     * instead of when they are first used. This makes the first predictions
+     * as fast as the rest.
+     */
+    public void load() {
+        for (MappedByteBuffer layerWeights : weights) {
+            layerWeights.load();
+        }
+    }
+
+    /**
+     * Copies the mapped weights into a normal {@link Network}, which can be
+     * trained or saved with {@link Data}.
+     * 
+     * @param eta the learning rate of the network
+     * @param momentum the momentum of the network
+     * @return the network
+     */
+    public Network toNetwork(final double eta, final double momentum) {
+        final Network network = new Network(topology.clone(), eta, momentum, getTransferFunctions());
+        for (int l = 0; l < weights.length; l++) {
+            weights[l].duplicate().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer().get(network.getWeights(l));
+        }
+        return network;
+    }
+
+    @Override
+    public void predict(final double[] inputs, final double[] outputs) {
+        predict(inputs, outputs, threadContext.get());
+    }
+
+    /**
+     * Calculates the outputs of the model for the specified inputs, using the
+     * specified context to store intermediate values.
+     * 
+     * @param inputs the input values
+     * @param outputs the array to store the output values in
+     * @param context the context to use, which must have been created by this
+     *            model and must not be in use by another thread
+     */
+    public void predict(final double[] inputs, final double[] outputs, final Context context) {
+        if (inputs.length != topology[0]) {
+            throw new IllegalArgumentException("inputs needs to be the same size as the input layer - bias");
+        }
+        if (outputs.length < topology[topology.length - 1]) {
+            throw new IllegalArgumentException("outputs is smaller than the output layer.");
+        }
+
+        double[] prevOutputs = context.first;
+        double[] layerOutputs = context.second;
+
+        System.arraycopy(inputs, 0, prevOutputs, 0, inputs.length);
+        prevOutputs[inputs.length] = 1.0;
+
+        for (int l = 1; l < topology.length; l++) {
+            final MappedByteBuffer layerWeights = weights[l - 1];
+            final int rowLength = topology[l - 1] + 1;
+            final int layerSize = topology[l];
+
+            for (int n = 0; n < layerSize; n++) {
+                layerOutputs[n] = Kernels.INSTANCE.dot(prevOutputs, 0, layerWeights, n * rowLength * Double.BYTES,
+                        rowLength);
+            }
+            transferFunctions[l - 1].calculate(layerOutputs, layerOutputs, 0, layerSize);
+            // Bias neuron
+            layerOutputs[layerSize] = 1.0;
+
+            // Swap the buffers, so this layer's outputs are the next layer's
+            // inputs
+            final double[] temp = prevOutputs;
+            prevOutputs = layerOutputs;
+            layerOutputs = temp;
+        }
+
+        System.arraycopy(prevOutputs, 0, outputs, 0, topology[topology.length - 1]);
+    }
+}
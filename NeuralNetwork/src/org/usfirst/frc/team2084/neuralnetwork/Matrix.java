@@ -0,0 +1,163 @@
+/* 
+ * Copyright (c) 2015 RobotsByTheC. All rights reserved.
+ *
+ * Open Source Software - may be modified and shared by FRC teams. The code must
+ * be accompanied by the BSD license file in the root directory of the project.
+ */
+package org.usfirst.frc.team2084.neuralnetwork;
+
+import java.util.Arrays;
+
+/**
+ * Cache-blocked matrix products used to process a batch of samples at once.
+ * All matrices are stored in row-major order in flat arrays, with an explicit
+ * row stride so that rows can carry an extra bias column. The loops are split
+ * into blocks that are small enough that the rows being combined stay in the
+ * cache while the block is processed, so each weight is loaded from memory
+ * once per block of samples rather than once per sample.
+ * 
+ * @author Ben Wolsieffer
+ */
+final class Matrix {
+
+    /**
+     * The number of samples (rows of the activation matrix) in a block.
+     */
+    static final int ROW_BLOCK = 32;
+    /**
+     * The number of neurons (rows of the weight matrix) in a block.
+     */
+    static final int NEURON_BLOCK = 64;
+    /**
+     * The number of inputs (columns of both matrices) in a block.
+     */
+    static final int INPUT_BLOCK = 256;
+
+    private Matrix() {
+    }
+
+    /**
+     * Calculates {@code c = a * transpose(w)}. This is the forward pass of a
+     * layer: each row of {@code a} is a sample, each row of {@code w} contains
+     * the input weights of a neuron and each row of {@code c} receives the
+     * sums of every neuron for a sample.
+     * 
+     * @param a the activation matrix, with {@code rows} rows of
+     *            {@code aStride} elements
+     * @param rows the number of rows in {@code a} and {@code c}
+     * @param aStride the row stride of {@code a}
+     * @param w the weight matrix, with {@code columns} rows of {@code length}
+     *            elements
+     * @param columns the number of rows in {@code w} (columns in {@code c})
+     * @param length the number of elements in each dot product
+     * @param c the result matrix, which is overwritten
+     * @param cStride the row stride of {@code c}
+     */
+    static void multiplyTransposed(final double[] a, final int rows, final int aStride, final double[] w,
+            final int columns, final int length, final double[] c, final int cStride) {
+        for (int r = 0; r < rows; r++) {
+            Arrays.fill(c, r * cStride, r * cStride + columns, 0.0);
+        }
+
+        for (int r0 = 0; r0 < rows; r0 += ROW_BLOCK) {
+            final int r1 = Math.min(r0 + ROW_BLOCK, rows);
+            for (int n0 = 0; n0 < columns; n0 += NEURON_BLOCK) {
+                final int n1 = Math.min(n0 + NEURON_BLOCK, columns);
+                for (int i0 = 0; i0 < length; i0 += INPUT_BLOCK) {
+                    final int i1 = Math.min(i0 + INPUT_BLOCK, length);
+                    for (int r = r0; r < r1; r++) {
+                        final int aRow = r * aStride;
+                        final int cRow = r * cStride;
+                        for (int n = n0; n < n1; n++) {
+                            c[cRow + n] += Kernels.INSTANCE.dot(a, aRow + i0, w, n * length + i0, i1 - i0);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Calculates {@code c = g * w}, only for the first {@code length} columns
+     * of {@code w}. This propagates the gradients of a layer back to the
+     * previous layer: each row of {@code g} contains the gradients of a
+     * sample, and each row of {@code c} receives the weighted sum of those
+     * gradients for every neuron in the previous layer.
+     * 
+     * @param g the gradient matrix, with {@code rows} rows of {@code gStride}
+     *            elements
+     * @param rows the number of rows in {@code g} and {@code c}
+     * @param gStride the row stride of {@code g}
+     * @param w the weight matrix, with {@code neurons} rows of {@code wStride}
+     *            elements
+     * @param neurons the number of rows in {@code w} (columns used in
+     *            {@code g})
+     * @param wStride the row stride of {@code w}
+     * @param length the number of columns to calculate
+     * @param c the result matrix, which is overwritten
+     * @param cStride the row stride of {@code c}
+     */
+    static void multiply(final double[] g, final int rows, final int gStride, final double[] w, final int neurons,
+            final int wStride, final int length, final double[] c, final int cStride) {
+        for (int r = 0; r < rows; r++) {
+            Arrays.fill(c, r * cStride, r * cStride + length, 0.0);
+        }
+
+        for (int r0 = 0; r0 < rows; r0 += ROW_BLOCK) {
+            final int r1 = Math.min(r0 + ROW_BLOCK, rows);
+            for (int i0 = 0; i0 < length; i0 += INPUT_BLOCK) {
+                final int i1 = Math.min(i0 + INPUT_BLOCK, length);
+                for (int n0 = 0; n0 < neurons; n0 += NEURON_BLOCK) {
+                    final int n1 = Math.min(n0 + NEURON_BLOCK, neurons);
+                    for (int r = r0; r < r1; r++) {
+                        final int gRow = r * gStride;
+                        final int cRow = r * cStride;
+                        for (int n = n0; n < n1; n++) {
+                            Kernels.INSTANCE.axpy(g[gRow + n], w, n * wStride + i0, c, cRow + i0, i1 - i0);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Calculates {@code c = transpose(g) * a}. This accumulates the weight
+     * gradients of a layer over a batch: for every neuron, the gradient of
+     * each sample is multiplied by the inputs of that sample and summed into
+     * the neuron's row of {@code c}.
+     * 
+     * @param g the gradient matrix, with {@code rows} rows of {@code gStride}
+     *            elements
+     * @param rows the number of rows in {@code g} and {@code a}
+     * @param gStride the row stride of {@code g}
+     * @param neurons the number of columns used in {@code g} (rows in
+     *            {@code c})
+     * @param a the activation matrix, with {@code rows} rows of
+     *            {@code aStride} elements
+     * @param aStride the row stride of {@code a}
+     * @param length the number of columns used in {@code a} (and the row
+     *            length of {@code c})
+     * @param c the result matrix, which is overwritten
+     */
+    static void multiplyTransposedLeft(final double[] g, final int rows, final int gStride, final int neurons,
+            final double[] a, final int aStride, final int length, final double[] c) {
+        Arrays.fill(c, 0, neurons * length, 0.0);
+
+        for (int n0 = 0; n0 < neurons; n0 += NEURON_BLOCK) {
+            final int n1 = Math.min(n0 + NEURON_BLOCK, neurons);
+            for (int i0 = 0; i0 < length; i0 += INPUT_BLOCK) {
+                final int i1 = Math.min(i0 + INPUT_BLOCK, length);
+                for (int r0 = 0; r0 < rows; r0 += ROW_BLOCK) {
+                    final int r1 = Math.min(r0 + ROW_BLOCK, rows);
+                    for (int n = n0; n < n1; n++) {
+                        final int cRow = n * length;
+                        for (int r = r0; r < r1; r++) {
+                            Kernels.INSTANCE.axpy(g[r * gStride + n], a, r * aStride + i0, c, cRow + i0, i1 - i0);
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
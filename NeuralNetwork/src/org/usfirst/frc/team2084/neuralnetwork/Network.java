@@ -6,23 +6,178 @@
  */
 package org.usfirst.frc.team2084.neuralnetwork;
 
+import java.io.IOException;
 import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * A feed-forward neural network that uses back-propagation learning.
  * 
+ * The state of the network is stored in flat arrays, one per layer, rather
+ * than in individual {@link Neuron} and {@link Connection} objects. The weights
+ * between layer {@code l} and layer {@code l + 1} are stored in a single
+ * {@code double[]}, with one row for each neuron in layer {@code l + 1}. Each
+ * row contains the weights of the connections from every neuron in layer
+ * {@code l} (including the bias neuron) to that neuron. This allows the
+ * forward and backward passes to walk through memory sequentially. The
+ * {@link Neuron} and {@link Connection} objects returned by this class are only
+ * views of this data.
+ * 
  * @author Ben Wolsieffer
  */
 public class Network {
 
+    /**
+     * The default minimum number of weights a layer must have before its
+     * calculations are split across threads.
+     */
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 16384;
+
+    /**
+     * The number of samples that {@link #calculateError(Dataset)} runs
+     * through the network at once.
+     */
+    private static final int EVALUATION_BLOCK = 256;
+
+    /**
+     * The random number generator of each thread. Networks that are not
+     * seeded split their own generator off of this one, so creating networks
+     * on several threads does not cause contention.
+     */
+    private static final ThreadLocal<SplittableRandom> threadRandom = ThreadLocal.withInitial(SplittableRandom::new);
+
+    /**
+     * Calculation that is run on a range of neurons in a layer.
+     */
+    @FunctionalInterface
+    private interface LayerTask {
+
+        void run(int layerNumber, int from, int to);
+    }
+
+    /**
+     * Fork/join action that runs a {@link LayerTask} on a range of neurons,
+     * splitting the range in half until each part is small enough.
+     */
+    @SuppressWarnings("serial")
+    private static class LayerAction extends RecursiveAction {
+
+        private final LayerTask task;
+        private final int layerNumber;
+        private final int from;
+        private final int to;
+        private final int grain;
+
+        LayerAction(final LayerTask task, final int layerNumber, final int from, final int to, final int grain) {
+            this.task = task;
+            this.layerNumber = layerNumber;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= grain) {
+                task.run(layerNumber, from, to);
+            } else {
+                final int middle = (from + to) >>> 1;
+                invokeAll(new LayerAction(task, layerNumber, from, middle, grain),
+                        new LayerAction(task, layerNumber, middle, to, grain));
+            }
+        }
+    }
+
     private double recentAverageError;
     private final int[] topology;
     private double eta;
     private double momentum;
-    private final TransferFunction transferFunction;
+    /**
+     * The transfer function of each layer. The input layer does not have one,
+     * so the first element is null.
+     */
+    private final TransferFunction[] transferFunctions;
+    /**
+     * The initializer used to choose the initial weights, or null to choose
+     * one for each layer based on its transfer function.
+     */
+    private WeightInitializer weightInitializer;
+    /**
+     * The random number generator used to initialize the weights.
+     */
+    private final SplittableRandom random;
     private final Neuron[][] layers;
     private final double[] results;
 
+    /**
+     * The output values of each layer, including the bias neuron (which is
+     * always the last element and has a value of 1.0).
+     */
+    final double[][] outputs;
+    /**
+     * The most recent sum of the weighted inputs of each neuron in each layer.
+     */
+    final double[][] sums;
+    /**
+     * The gradient of each neuron in each layer. Used in back-propagation.
+     */
+    final double[][] gradients;
+    /**
+     * The connection weights between each layer and the next, stored as a
+     * matrix with one row per neuron in the next layer.
+     */
+    final double[][] weights;
+    /**
+     * The change in each weight from the last time it was updated. This is
+     * used for momentum calculation and has the same layout as
+     * {@link #weights}.
+     */
+    final double[][] deltaWeights;
+    /**
+     * The rule used to update the weights.
+     */
+    private Optimizer optimizer = new Optimizer.Momentum();
+    /**
+     * The values the optimizer remembers for each weight, with one group of
+     * {@link Optimizer#getStateCount()} arrays per layer, each with the same
+     * layout as {@link #weights}.
+     */
+    double[][][] optimizerState;
+    /**
+     * The number of times the weights have been updated by the optimizer.
+     */
+    long optimizerStep;
+
+    /**
+     * The buffers used by the batch methods. These are created the first time
+     * they are needed.
+     */
+    private Workspace batchWorkspace;
+    /**
+     * The weight gradients accumulated over a batch, with the same layout as
+     * {@link #weights}.
+     */
+    private double[][] weightGradients;
+
+    /**
+     * The pool used to split wide layers across threads, or null if the
+     * network only uses the calling thread.
+     */
+    private ForkJoinPool pool;
+    /**
+     * The minimum number of weights in a layer (and in each part of a layer)
+     * for it to be split across threads.
+     */
+    private int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+
+    // Keep references to the layer calculations so they are not recreated on
+    // every pass
+    private final LayerTask feedForwardTask = this::feedForwardLayer;
+    private final LayerTask hiddenGradientsTask = this::calculateHiddenGradients;
+    private final LayerTask updateWeightsTask = this::updateInputWeights;
+
     /**
      * Creates a neural network with the specified topology, learning rate
      * (eta), momentum (alpha) and transfer function.
@@ -30,40 +185,149 @@ public class Network {
      * @param topology an array containing the size of each layer
      * @param eta the learning rate
      * @param momentum the learning momentum
-     * @param transferFunction the transfer function
+     * @param transferFunction the transfer function, which is used by every
+     *            layer
      */
     public Network(final int[] topology, final double eta, final double momentum,
             final TransferFunction transferFunction) {
+        this(topology, eta, momentum, uniformTransferFunctions(topology, transferFunction));
+    }
+
+    /**
+     * Creates a neural network with the specified topology, learning rate
+     * (eta), momentum (alpha) and a separate transfer function for each layer.
+     * For example, the hidden layers can use a cheap function like
+     * {@link TransferFunction.ReLU}, while the output layer uses
+     * {@link TransferFunction.Linear} or
+     * {@link TransferFunction.HyperbolicTangent}.
+     * 
+     * @param topology an array containing the size of each layer
+     * @param eta the learning rate
+     * @param momentum the learning momentum
+     * @param transferFunctions the transfer function of each layer after the
+     *            input layer, so it must have one less element than
+     *            {@code topology}
+     */
+    public Network(final int[] topology, final double eta, final double momentum,
+            final TransferFunction[] transferFunctions) {
+        this(topology, eta, momentum, transferFunctions, null, newRandom());
+    }
+
+    /**
+     * Creates a neural network with a separate transfer function for each
+     * layer, whose weights are chosen by the specified initializer.
+     * 
+     * @param topology an array containing the size of each layer
+     * @param eta the learning rate
+     * @param momentum the learning momentum
+     * @param transferFunctions the transfer function of each layer after the
+     *            input layer
+     * @param weightInitializer the initializer used to choose the initial
+     *            weights, or null to choose one for each layer with
+     *            {@link WeightInitializer#forTransferFunction}
+     */
+    public Network(final int[] topology, final double eta, final double momentum,
+            final TransferFunction[] transferFunctions, final WeightInitializer weightInitializer) {
+        this(topology, eta, momentum, transferFunctions, weightInitializer, newRandom());
+    }
+
+    /**
+     * Creates a neural network whose initial weights are chosen using a
+     * random number generator with the specified seed. Two networks created
+     * with the same parameters and seed start with the same weights, and are
+     * reset to the same weights by {@link #reset()}.
+     * 
+     * @param topology an array containing the size of each layer
+     * @param eta the learning rate
+     * @param momentum the learning momentum
+     * @param transferFunctions the transfer function of each layer after the
+     *            input layer
+     * @param weightInitializer the initializer used to choose the initial
+     *            weights, or null to choose one for each layer with
+     *            {@link WeightInitializer#forTransferFunction}
+     * @param seed the seed of the random number generator
+     */
+    public Network(final int[] topology, final double eta, final double momentum,
+            final TransferFunction[] transferFunctions, final WeightInitializer weightInitializer, final long seed) {
+        this(topology, eta, momentum, transferFunctions, weightInitializer, new SplittableRandom(seed));
+    }
+
+    private Network(final int[] topology, final double eta, final double momentum,
+            final TransferFunction[] transferFunctions, final WeightInitializer weightInitializer,
+            final SplittableRandom random) {
         this.topology = topology;
         this.eta = eta;
         this.momentum = momentum;
-        this.transferFunction = transferFunction;
+        this.transferFunctions = layerTransferFunctions(topology, transferFunctions);
+        this.weightInitializer = weightInitializer;
+        this.random = random;
 
         // size
         final int numberOfLayers = topology.length;
         layers = new Neuron[numberOfLayers][];
+        outputs = new double[numberOfLayers][];
+        sums = new double[numberOfLayers][];
+        gradients = new double[numberOfLayers][];
+        // The last layer has no connections, so it has no weights
+        weights = new double[numberOfLayers - 1][];
+        deltaWeights = new double[numberOfLayers - 1][];
 
         // create a new layer on each iteration
         for (int layerNumber = 0; layerNumber < numberOfLayers; layerNumber++) {
             final int layerSize = topology[layerNumber];
             // Add 1 for bias
             final Neuron[] layer = layers[layerNumber] = new Neuron[layerSize + 1];
+            outputs[layerNumber] = new double[layerSize + 1];
+            sums[layerNumber] = new double[layerSize + 1];
+            gradients[layerNumber] = new double[layerSize + 1];
 
-            // number of outputs to a neuron
-            final int numberOutputs = (layerNumber == numberOfLayers - 1) ? 0 : topology[layerNumber
-                    + 1];
+            if (layerNumber < numberOfLayers - 1) {
+                // Each neuron in the next layer has a connection from each
+                // neuron in this layer, including the bias
+                final int numberWeights = topology[layerNumber + 1] * (layerSize + 1);
+                weights[layerNumber] = new double[numberWeights];
+                deltaWeights[layerNumber] = new double[numberWeights];
+            }
 
             // fill layer with neurons and add bias neuron to the layer;
             for (int neuronNumber = 0; neuronNumber <= layerSize; neuronNumber++) {
-                layer[neuronNumber] = new Neuron(numberOutputs, neuronNumber, transferFunction);
+                layer[neuronNumber] = new Neuron(this, layerNumber, neuronNumber);
             }
 
             // Force the bias node's output to 1.0 (it was the last neuron
             // pushed in this layer):
-            layer[layer.length - 1].setOutputValue(1.0);
+            outputs[layerNumber][layerSize] = 1.0;
         }
         // Create results array that is length of output layer - bias
-        results = new double[layers[layers.length - 1].length - 1];
+        results = new double[topology[numberOfLayers - 1]];
+
+        createOptimizerState();
+        randomizeWeights();
+    }
+
+    /**
+     * Creates a copy of a network, with the same topology, parameters,
+     * weights, optimizer and optimizer state. The copy does not share any
+     * state with the original.
+     * 
+     * @param network the network to copy
+     */
+    public Network(final Network network) {
+        this(network.topology.clone(), network.eta, network.momentum, network.getTransferFunctions(),
+                network.weightInitializer, newRandom());
+
+        for (int l = 0; l < weights.length; l++) {
+            System.arraycopy(network.weights[l], 0, weights[l], 0, weights[l].length);
+            System.arraycopy(network.deltaWeights[l], 0, deltaWeights[l], 0, deltaWeights[l].length);
+        }
+        setOptimizer(network.optimizer);
+        for (int l = 0; l < weights.length; l++) {
+            for (int i = 0; i < optimizerState[l].length; i++) {
+                System.arraycopy(network.optimizerState[l][i], 0, optimizerState[l][i], 0,
+                        optimizerState[l][i].length);
+            }
+        }
+        optimizerStep = network.optimizerStep;
     }
 
     /**
@@ -81,26 +345,70 @@ public class Network {
      * @param inputValues input values to the network
      */
     public void feedForward(final double... inputValues) {
-        final Neuron[] inputLayer = layers[0];
+        final double[] inputLayer = outputs[0];
 
         if (inputValues.length != inputLayer.length - 1) {
             throw new IllegalArgumentException("inputValues needs to be the same size as the input layer - bias");
         }
 
-        for (int i = 0; i < inputValues.length; i++) {
-            inputLayer[i].setOutputValue(inputValues[i]);
+        System.arraycopy(inputValues, 0, inputLayer, 0, inputValues.length);
+
+        feedForwardLayers();
+    }
+
+    /**
+     * Calculates the outputs of a network that has a single input. This does
+     * the same thing as {@link #feedForward(double...)}, but avoids creating
+     * an array for the input value.
+     * 
+     * @param inputValue the input value to the network
+     */
+    public void feedForward(final double inputValue) {
+        final double[] inputLayer = outputs[0];
+
+        if (inputLayer.length != 2) {
+            throw new IllegalArgumentException("inputValues needs to be the same size as the input layer - bias");
         }
 
+        inputLayer[0] = inputValue;
+
+        feedForwardLayers();
+    }
+
+    /**
+     * Calculates the outputs of every layer after the input layer.
+     */
+    private void feedForwardLayers() {
         // forward propagation
         // loop each layer and each neuron inside the layer
-        Neuron[] prevLayer = inputLayer;
-        for (int layerNumber = 1; layerNumber < layers.length; layerNumber++) {
-            Neuron[] layer = layers[layerNumber];
-            for (int i = 0; i < layer.length - 1; i++) {
-                layer[i].feedForward(prevLayer);
-            }
-            prevLayer = layer;
+        for (int layerNumber = 1; layerNumber < outputs.length; layerNumber++) {
+            runLayer(feedForwardTask, layerNumber, topology[layerNumber], topology[layerNumber - 1] + 1);
+        }
+    }
+
+    /**
+     * Calculates the sums and outputs of a range of neurons in the specified
+     * layer from the outputs of the previous layer.
+     * 
+     * @param layerNumber the index of the layer, which must be greater than 0
+     * @param from the index of the first neuron
+     * @param to the index after the last neuron, which must not include the
+     *            bias
+     */
+    void feedForwardLayer(final int layerNumber, final int from, final int to) {
+        final double[] prevOutputs = outputs[layerNumber - 1];
+        final double[] layerWeights = weights[layerNumber - 1];
+        final double[] layerSums = sums[layerNumber];
+        final double[] layerOutputs = outputs[layerNumber];
+        final int rowLength = prevOutputs.length;
+
+        for (int n = from; n < to; n++) {
+            // Sum the previous layer's outputs (which are our inputs)
+            // Include the bias node from the previous layer.
+            layerSums[n] = Kernels.INSTANCE.dot(prevOutputs, 0, layerWeights, n * rowLength, rowLength);
         }
+        // activate function or transfer sig/gaussian/linear/step
+        transferFunctions[layerNumber].calculate(layerSums, layerOutputs, from, to - from);
     }
 
     /**
@@ -111,47 +419,585 @@ public class Network {
      * @param targetValues the target values for the outputs
      */
     public void backPropagation(final double... targetValues) {
+        final int outputLayerNumber = outputs.length - 1;
+        final double[] outputValues = outputs[outputLayerNumber];
+        final double[] outputSums = sums[outputLayerNumber];
+        final double[] outputGradients = gradients[outputLayerNumber];
 
-        final Neuron[] outputLayer = layers[layers.length - 1];
+        if (targetValues.length != outputValues.length - 1) {
+            throw new IllegalArgumentException("targetValues needs to be the same size as the output layer - bias");
+        }
 
         // Calculate overall net error (RMS-root mean square error - of output
         // neuron errors)
         // overall net error
         double error = 0.0;
 
-        for (int n = 0; n < outputLayer.length - 1; n++) {
-            Neuron output = outputLayer[n];
-            final double delta = targetValues[n] - output.getOutputValue();
+        final TransferFunction outputTransferFunction = transferFunctions[outputLayerNumber];
+        for (int n = 0; n < outputValues.length - 1; n++) {
+            final double delta = targetValues[n] - outputValues[n];
             error += delta * delta;
 
             // Calculate output layer gradients
-            outputLayer[n].calculateOutputGradients(targetValues[n]);
+            outputGradients[n] = delta * outputTransferFunction.derivative(outputSums[n], outputValues[n]);
         }
-        error = Math.sqrt(error / outputLayer.length);
+        error = Math.sqrt(error / outputValues.length);
 
         // error/=(* numPatterns); //get average error squared
         // error/=outputLayer.length - 1; //get average error squared
         // Implement a recent average measurement
         recentAverageError = error;
 
-        // Calculate hidden layer gradients
-        for (int layerNumber = layers.length - 2; layerNumber > 0; layerNumber--) {
-            final Neuron[] hiddenLayer = layers[layerNumber];
-            final Neuron[] nextLayer = layers[layerNumber + 1];
+        backPropagateGradients();
+    }
 
-            Arrays.stream(hiddenLayer).forEach(n -> n.calculateHiddenGradients(nextLayer));
+    /**
+     * Performs back propagation learning on a network that has a single
+     * output. This does the same thing as
+     * {@link #backPropagation(double...)}, but avoids creating an array for
+     * the target value.
+     * 
+     * @param targetValue the target value for the output
+     */
+    public void backPropagation(final double targetValue) {
+        final int outputLayerNumber = outputs.length - 1;
+        final double[] outputValues = outputs[outputLayerNumber];
+
+        if (outputValues.length != 2) {
+            throw new IllegalArgumentException("targetValues needs to be the same size as the output layer - bias");
+        }
+
+        final double delta = targetValue - outputValues[0];
+        gradients[outputLayerNumber][0] = delta
+                * transferFunctions[outputLayerNumber].derivative(sums[outputLayerNumber][0], outputValues[0]);
+        // Same error measurement as backPropagation(double...)
+        recentAverageError = Math.sqrt(delta * delta / outputValues.length);
+
+        backPropagateGradients();
+    }
+
+    /**
+     * Calculates the gradients of the hidden layers from the gradients of the
+     * output layer, and then updates every weight.
+     */
+    private void backPropagateGradients() {
+        final int outputLayerNumber = outputs.length - 1;
+
+        // Calculate hidden layer gradients
+        for (int layerNumber = outputLayerNumber - 1; layerNumber > 0; layerNumber--) {
+            // The bias neuron has no inputs, so it does not need a gradient
+            runLayer(hiddenGradientsTask, layerNumber, topology[layerNumber], topology[layerNumber + 1]);
         }
 
         // For all layers from outputs to first hidden layer,
         // update connection weights
-        for (int layerNumber = layers.length - 1; layerNumber > 0; layerNumber--) {
-            final Neuron[] layer = layers[layerNumber];
-            final Neuron[] prevLayer = layers[layerNumber - 1];
+        optimizerStep++;
+        for (int layerNumber = outputLayerNumber; layerNumber > 0; layerNumber--) {
+            runLayer(updateWeightsTask, layerNumber, topology[layerNumber], topology[layerNumber - 1] + 1);
+        }
+    }
+
+    /**
+     * Calculates the gradients of a range of neurons in a hidden layer from
+     * the gradients of the next layer. Because the weights are stored by
+     * destination neuron, the contributions of each neuron in the next layer
+     * are accumulated one row at a time.
+     * 
+     * @param layerNumber the index of the hidden layer
+     * @param from the index of the first neuron
+     * @param to the index after the last neuron, which must not include the
+     *            bias
+     */
+    void calculateHiddenGradients(final int layerNumber, final int from, final int to) {
+        final double[] layerGradients = gradients[layerNumber];
+        final double[] layerSums = sums[layerNumber];
+        final double[] nextGradients = gradients[layerNumber + 1];
+        final double[] layerWeights = weights[layerNumber];
+        final int rowLength = layerGradients.length;
+
+        Arrays.fill(layerGradients, from, to, 0.0);
+
+        // Sum our contributions of the errors at the nodes we feed.
+        for (int n = 0; n < nextGradients.length - 1; n++) {
+            Kernels.INSTANCE.axpy(nextGradients[n], layerWeights, n * rowLength + from, layerGradients, from,
+                    to - from);
+        }
+
+        transferFunctions[layerNumber].multiplyDerivative(layerSums, outputs[layerNumber], layerGradients, from,
+                to - from);
+    }
+
+    /**
+     * Updates the weights of the connections that feed into a range of
+     * neurons in the specified layer, using the gradients calculated during
+     * back-propagation.
+     * 
+     * @param layerNumber the index of the layer, which must be greater than 0
+     * @param from the index of the first neuron
+     * @param to the index after the last neuron, which must not include the
+     *            bias
+     */
+    void updateInputWeights(final int layerNumber, final int from, final int to) {
+        final double[] layerGradients = gradients[layerNumber];
+        final double[] prevOutputs = outputs[layerNumber - 1];
+        final double[] layerWeights = weights[layerNumber - 1];
+        final double[][] layerState = optimizerState[layerNumber - 1];
+        final int rowLength = prevOutputs.length;
+
+        for (int n = from; n < to; n++) {
+            // Each input, magnified by the gradient and train rate
+            optimizer.update(layerWeights, layerState, n * rowLength, prevOutputs, 0, layerGradients[n], 1, eta,
+                    momentum, optimizerStep, rowLength);
+        }
+    }
+
+    /**
+     * Runs a calculation on every neuron in a layer. If a pool has been set
+     * using {@link #setParallelism(ForkJoinPool, int)} and the layer is large
+     * enough, the neurons are split into ranges that run in parallel.
+     * Otherwise, the calculation runs on the calling thread.
+     * 
+     * @param task the calculation to run
+     * @param layerNumber the index of the layer
+     * @param neurons the number of neurons in the layer, not including the
+     *            bias
+     * @param weightsPerNeuron the number of weights each neuron processes
+     */
+    private void runLayer(final LayerTask task, final int layerNumber, final int neurons,
+            final int weightsPerNeuron) {
+        if (pool == null || (long) neurons * weightsPerNeuron < 2L * parallelThreshold) {
+            task.run(layerNumber, 0, neurons);
+        } else {
+            // Each part should process at least parallelThreshold weights
+            final int grain = Math.max(1, parallelThreshold / weightsPerNeuron);
+            pool.invoke(new LayerAction(task, layerNumber, 0, neurons, grain));
+        }
+    }
+
+    /**
+     * Enables or disables splitting the calculations of wide layers across
+     * the threads of a {@link ForkJoinPool}, using the default threshold.
+     * 
+     * @param pool the pool to use, or null to run everything on the calling
+     *            thread
+     * 
+     * @see #setParallelism(ForkJoinPool, int)
+     */
+    public void setParallelism(final ForkJoinPool pool) {
+        setParallelism(pool, DEFAULT_PARALLEL_THRESHOLD);
+    }
+
+    /**
+     * Enables or disables splitting the calculations of wide layers across
+     * the threads of a {@link ForkJoinPool}. When enabled, the feed forward
+     * calculation, the hidden gradient calculation and the weight update of
+     * each layer are split into ranges of neurons that are processed in
+     * parallel. Layers with fewer than twice the threshold number of weights
+     * are always processed on the calling thread, because the overhead of
+     * splitting them would be larger than the gain. The results are the same
+     * as when running on a single thread.
+     * 
+     * @param pool the pool to use, or null to run everything on the calling
+     *            thread
+     * @param threshold the minimum number of weights processed by each task
+     */
+    public void setParallelism(final ForkJoinPool pool, final int threshold) {
+        if (threshold < 1) {
+            throw new IllegalArgumentException("threshold must be positive.");
+        }
+        this.pool = pool;
+        parallelThreshold = threshold;
+    }
+
+    /**
+     * Calculates the outputs of the network for a batch of samples. This
+     * produces the same results as calling {@link #feedForward(double...)}
+     * for each sample, but each layer is calculated for the whole batch at
+     * once as a matrix product, so the weights are only loaded once per block
+     * of samples. This does not change the values returned by
+     * {@link #getResults()} or the neurons of the network.
+     * 
+     * @param inputs the input values, with one row per sample
+     * @return a matrix containing the output values, with one row per sample
+     */
+    public double[][] feedForwardBatch(final double[][] inputs) {
+        final double[][] batchResults = new double[inputs.length][results.length];
+        feedForwardBatch(inputs, batchResults);
+        return batchResults;
+    }
+
+    /**
+     * Calculates the outputs of the network for a batch of samples, and
+     * stores them in the specified matrix.
+     * 
+     * @param inputs the input values, with one row per sample
+     * @param batchResults the matrix to store the output values in, which
+     *            must have the same number of rows as {@code inputs}
+     * 
+     * @see #feedForwardBatch(double[][])
+     */
+    public void feedForwardBatch(final double[][] inputs, final double[][] batchResults) {
+        if (batchResults.length != inputs.length) {
+            throw new IllegalArgumentException("inputs and batchResults lengths do not match.");
+        }
+
+        final Workspace workspace = getBatchWorkspace();
+        workspace.feedForward(this, inputs, 0, inputs.length);
+        workspace.copyResults(inputs.length, batchResults);
+    }
+
+    /**
+     * Performs one step of back propagation learning using a batch of samples.
+     * The weight gradients of every sample are accumulated, and the weights
+     * are then updated once using the average gradient of the batch. After
+     * this is called, {@link #getRecentAverageError()} returns the average
+     * error of the samples in the batch.
+     * 
+     * @param inputs the input values, with one row per sample
+     * @param targetOutputs the target values for the outputs, with one row per
+     *            sample
+     */
+    public void trainBatch(final double[][] inputs, final double[][] targetOutputs) {
+        if (inputs.length != targetOutputs.length) {
+            throw new IllegalArgumentException("inputs and targetOutputs lengths do not match.");
+        }
+        trainBatch(inputs, targetOutputs, 0, inputs.length);
+    }
+
+    /**
+     * Performs one step of back propagation learning using a range of samples
+     * from a larger set. This makes it possible to split a data set into
+     * several batches without copying it.
+     * 
+     * @param inputs the input values, with one row per sample
+     * @param targetOutputs the target values for the outputs, with one row per
+     *            sample
+     * @param offset the index of the first sample in the batch
+     * @param length the number of samples in the batch
+     * 
+     * @see #trainBatch(double[][], double[][])
+     */
+    public void trainBatch(final double[][] inputs, final double[][] targetOutputs, final int offset,
+            final int length) {
+        if (offset < 0 || length < 1 || offset + length > inputs.length || offset + length > targetOutputs.length) {
+            throw new IllegalArgumentException("Invalid batch range.");
+        }
+
+        final Workspace workspace = getBatchWorkspace();
+        if (weightGradients == null) {
+            weightGradients = Workspace.createWeightGradients(topology);
+        }
+
+        workspace.feedForward(this, inputs, offset, length);
+        final double error = workspace.calculateGradients(this, targetOutputs, offset, length);
+        workspace.calculateWeightGradients(length, weightGradients);
+
+        applyWeightGradients(weightGradients, length);
+        recentAverageError = error / length;
+    }
+
+    /**
+     * Performs one step of back propagation learning using a range of samples
+     * from a {@link Dataset}, in the order of the data set. The samples are
+     * read directly from the arrays of the data set.
+     * 
+     * @param dataset the samples
+     * @param offset the position of the first sample of the batch in the data
+     *            set
+     * @param length the number of samples in the batch
+     * 
+     * @see #trainBatch(double[][], double[][], int, int)
+     */
+    public void trainBatch(final Dataset dataset, final int offset, final int length) {
+        if (dataset.getInputCount() != topology[0] || dataset.getOutputCount() != topology[topology.length - 1]) {
+            throw new IllegalArgumentException("The samples do not match the topology of the network.");
+        }
+        if (offset < 0 || length < 1 || offset + length > dataset.size()) {
+            throw new IllegalArgumentException("Invalid batch range.");
+        }
+
+        final Workspace workspace = getBatchWorkspace();
+        if (weightGradients == null) {
+            weightGradients = Workspace.createWeightGradients(topology);
+        }
+
+        workspace.feedForward(this, dataset, offset, length);
+        final double error = workspace.calculateGradients(this, dataset, offset, length);
+        workspace.calculateWeightGradients(length, weightGradients);
+
+        applyWeightGradients(weightGradients, length);
+        recentAverageError = error / length;
+    }
+
+    /**
+     * Trains the network on every sample of a {@link Dataset} once, in
+     * batches of the specified size, in the order of the data set. Call
+     * {@link Dataset#shuffle(SplittableRandom)} before each epoch to use the
+     * samples in a different order every time.
+     * 
+     * @param dataset the samples
+     * @param batchSize the number of samples in each batch
+     * @return the average error of all the samples
+     */
+    public double trainEpoch(final Dataset dataset, final int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be positive.");
+        }
 
-            for (int n = 0; n < layer.length - 1; n++) {
-                layer[n].updateInputWeights(prevLayer, eta, momentum);
+        double error = 0.0;
+        for (int offset = 0; offset < dataset.size(); offset += batchSize) {
+            final int length = Math.min(batchSize, dataset.size() - offset);
+            trainBatch(dataset, offset, length);
+            error += recentAverageError * length;
+        }
+        return dataset.size() > 0 ? error / dataset.size() : 0.0;
+    }
+
+    /**
+     * Calculates the average error of the network on every sample of a
+     * {@link Dataset}, without training. This is useful for measuring the
+     * error on samples that are not used for training. The samples are run
+     * through the network in blocks, so only one block is kept in memory.
+     * 
+     * @param dataset the samples
+     * @return the average error of the samples, each calculated the same way
+     *         as in {@link #backPropagation(double...)}
+     */
+    public double calculateError(final Dataset dataset) {
+        if (dataset.getInputCount() != topology[0] || dataset.getOutputCount() != topology[topology.length - 1]) {
+            throw new IllegalArgumentException("The samples do not match the topology of the network.");
+        }
+
+        final Workspace workspace = getBatchWorkspace();
+        double error = 0.0;
+        for (int offset = 0; offset < dataset.size(); offset += EVALUATION_BLOCK) {
+            final int length = Math.min(EVALUATION_BLOCK, dataset.size() - offset);
+            workspace.feedForward(this, dataset, offset, length);
+            error += workspace.calculateError(dataset, offset, length);
+        }
+        return dataset.size() > 0 ? error / dataset.size() : 0.0;
+    }
+
+    /**
+     * Trains the network on every remaining sample of the current epoch of a
+     * source, in batches of the specified size, and then rewinds the source
+     * so it is ready for the next epoch. Only one batch of samples is kept in
+     * memory at a time.
+     * 
+     * @param source the source of the samples
+     * @param batchSize the number of samples in each batch
+     * @return the average error of all the samples
+     * @throws IOException if the samples could not be read
+     * @throws Data.FormatException if the samples are not valid
+     * 
+     * @see #trainBatch(double[][], double[][], int, int)
+     */
+    public double trainEpoch(final SampleSource source, final int batchSize)
+            throws IOException, Data.FormatException {
+        if (source.getInputCount() != topology[0] || source.getOutputCount() != topology[topology.length - 1]) {
+            throw new IllegalArgumentException("The samples do not match the topology of the network.");
+        }
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be positive.");
+        }
+
+        final double[][] inputs = new double[batchSize][topology[0]];
+        final double[][] targetOutputs = new double[batchSize][topology[topology.length - 1]];
+        double error = 0.0;
+        long samples = 0;
+        int length;
+        while ((length = source.next(inputs, targetOutputs, 0, batchSize)) > 0) {
+            trainBatch(inputs, targetOutputs, 0, length);
+            error += recentAverageError * length;
+            samples += length;
+        }
+        source.rewind();
+        return samples > 0 ? error / samples : 0.0;
+    }
+
+    /**
+     * Updates the weights using gradients that were summed over a number of
+     * samples. The average gradient is passed to the optimizer, the same way
+     * as in {@link #backPropagation(double...)}.
+     * 
+     * @param weightGradients the summed weight gradients, with the same layout
+     *            as the weights
+     * @param samples the number of samples the gradients were summed over
+     */
+    void applyWeightGradients(final double[][] weightGradients, final int samples) {
+        optimizerStep++;
+        for (int l = 0; l < weights.length; l++) {
+            // The gradients already include the inputs, so they are treated
+            // as a single row with a gradient of 1
+            optimizer.update(weights[l], optimizerState[l], 0, weightGradients[l], 0, 1.0, samples, eta, momentum,
+                    optimizerStep, weights[l].length);
+        }
+    }
+
+    /**
+     * Sets the value returned by {@link #getRecentAverageError()}. This is used
+     * by trainers that calculate the error themselves.
+     * 
+     * @param error the error
+     */
+    void setRecentAverageError(final double error) {
+        recentAverageError = error;
+    }
+
+    /**
+     * Gets the workspace used by the batch methods, creating it if necessary.
+     * 
+     * @return the batch workspace
+     */
+    private Workspace getBatchWorkspace() {
+        if (batchWorkspace == null) {
+            batchWorkspace = new Workspace(topology);
+        }
+        return batchWorkspace;
+    }
+
+    /**
+     * Creates an immutable copy of this network that can only be used for
+     * prediction, and can be used from any number of threads at the same
+     * time. Later changes to this network do not affect the copy.
+     * 
+     * @return the inference model
+     */
+    public CompiledNetwork compileForInference() {
+        return new CompiledNetwork(this);
+    }
+
+    /**
+     * Creates a smaller copy of this network without the hidden neurons whose
+     * outgoing connections all have weights with an absolute value smaller
+     * than the threshold. Those neurons have almost no effect on the next
+     * layer, so the outputs barely change, but every layer they were removed
+     * from is cheaper to calculate. Each hidden layer keeps at least one
+     * neuron.
+     * 
+     * @param weightThreshold the smallest outgoing weight magnitude a neuron
+     *            needs to be kept
+     * @return the pruned network
+     * 
+     * @see #pruneNeurons(double, double, double[][])
+     */
+    public Network pruneNeurons(final double weightThreshold) {
+        return pruneNeurons(weightThreshold, 0.0, null);
+    }
+
+    /**
+     * Creates a smaller copy of this network without the hidden neurons that
+     * have negligible outgoing weights or whose outputs barely change over a
+     * set of sample inputs. A neuron with a nearly constant output acts like
+     * a second bias neuron, so its average output multiplied by each of its
+     * outgoing weights is added to the bias weights of the next layer before
+     * it is removed. The same is done for neurons removed because of their
+     * weights. Each hidden layer keeps at least one neuron.
+     * 
+     * The pruned network is a normal dense {@link Network} with a new
+     * topology, so it can be trained further or saved with {@link Data}.
+     * 
+     * @param weightThreshold the smallest outgoing weight magnitude a neuron
+     *            needs to be kept
+     * @param varianceThreshold the smallest output variance over the samples
+     *            a neuron needs to be kept
+     * @param inputs the sample inputs, with one row per sample, or null to
+     *            only prune by weight
+     * @return the pruned network
+     */
+    public Network pruneNeurons(final double weightThreshold, final double varianceThreshold,
+            final double[][] inputs) {
+        // Find the mean and variance of the output of each neuron
+        double[][] means = null;
+        double[][] variances = null;
+        if (inputs != null && inputs.length > 0) {
+            final Workspace workspace = new Workspace(topology, inputs.length);
+            workspace.feedForward(this, inputs, 0, inputs.length);
+
+            means = new double[topology.length][];
+            variances = new double[topology.length][];
+            for (int l = 1; l < topology.length - 1; l++) {
+                final int stride = topology[l] + 1;
+                final double[] layerOutputs = workspace.outputs[l];
+                means[l] = new double[topology[l]];
+                variances[l] = new double[topology[l]];
+                for (int n = 0; n < topology[l]; n++) {
+                    double sum = 0.0;
+                    double sumSquares = 0.0;
+                    for (int s = 0; s < inputs.length; s++) {
+                        final double output = layerOutputs[s * stride + n];
+                        sum += output;
+                        sumSquares += output * output;
+                    }
+                    means[l][n] = sum / inputs.length;
+                    variances[l][n] = sumSquares / inputs.length - means[l][n] * means[l][n];
+                }
+            }
+        }
+
+        // Choose the neurons to keep in each layer
+        final boolean[][] kept = new boolean[topology.length][];
+        final int[] newTopology = new int[topology.length];
+        for (int l = 0; l < topology.length; l++) {
+            kept[l] = new boolean[topology[l]];
+            if (l == 0 || l == topology.length - 1) {
+                Arrays.fill(kept[l], true);
+                newTopology[l] = topology[l];
+                continue;
+            }
+
+            final int rowLength = topology[l] + 1;
+            int strongest = 0;
+            double strongestWeight = -1.0;
+            for (int n = 0; n < topology[l]; n++) {
+                double maxWeight = 0.0;
+                for (int to = 0; to < topology[l + 1]; to++) {
+                    maxWeight = Math.max(maxWeight, Math.abs(weights[l][to * rowLength + n]));
+                }
+                if (maxWeight > strongestWeight) {
+                    strongest = n;
+                    strongestWeight = maxWeight;
+                }
+
+                kept[l][n] = maxWeight >= weightThreshold
+                        && (variances == null || variances[l][n] >= varianceThreshold);
+                if (kept[l][n]) {
+                    newTopology[l]++;
+                }
+            }
+            if (newTopology[l] == 0) {
+                kept[l][strongest] = true;
+                newTopology[l] = 1;
             }
         }
+
+        final Network pruned = new Network(newTopology, eta, momentum, getTransferFunctions());
+        // The optimizer starts over, because its state belongs to the old
+        // weights
+        pruned.setOptimizer(optimizer);
+        for (int l = 0; l < topology.length - 1; l++) {
+            int newTo = 0;
+            for (int to = 0; to < topology[l + 1]; to++) {
+                if (!kept[l + 1][to]) {
+                    continue;
+                }
+
+                double bias = getWeight(l, topology[l], to);
+                int newFrom = 0;
+                for (int from = 0; from < topology[l]; from++) {
+                    final double weight = getWeight(l, from, to);
+                    if (kept[l][from]) {
+                        pruned.setWeight(l, newFrom++, newTo, weight);
+                    } else if (means != null) {
+                        // Replace the removed neuron with its average output
+                        bias += means[l][from] * weight;
+                    }
+                }
+                pruned.setWeight(l, newFrom, newTo, bias);
+                newTo++;
+            }
+        }
+        return pruned;
     }
 
     /**
@@ -160,10 +1006,7 @@ public class Network {
      * @return an array containing the values of each of the output neurons
      */
     public double[] getResults() {
-        final Neuron[] outputLayer = layers[layers.length - 1];
-        for (int n = 0; n < outputLayer.length - 1; n++) {
-            results[n] = outputLayer[n].getOutputValue();
-        }
+        System.arraycopy(outputs[outputs.length - 1], 0, results, 0, results.length);
         return results;
     }
 
@@ -175,7 +1018,7 @@ public class Network {
     public double getEta() {
         return eta;
     }
-    
+
     /**
      * Sets the learning rate of the network.
      * 
@@ -193,7 +1036,7 @@ public class Network {
     public double getMomentum() {
         return momentum;
     }
-    
+
     /**
      * Sets the momentum of the network.
      * 
@@ -204,12 +1047,95 @@ public class Network {
     }
 
     /**
-     * Gets the transfer function for the network.
+     * Gets the transfer function of the output layer. If the network was
+     * created with a single transfer function, this is the transfer function
+     * of every layer.
      * 
      * @return the transfer function
+     * 
+     * @see #getTransferFunction(int)
      */
     public TransferFunction getTransferFunction() {
-        return transferFunction;
+        return transferFunctions[transferFunctions.length - 1];
+    }
+
+    /**
+     * Gets the transfer function of the specified layer.
+     * 
+     * @param num the layer index, which must be greater than 0 because the
+     *            input layer has no transfer function
+     * @return the transfer function
+     */
+    public TransferFunction getTransferFunction(final int num) {
+        if (num < 1 || num >= transferFunctions.length) {
+            throw new IllegalArgumentException("Invalid layer for a transfer function: " + num);
+        }
+        return transferFunctions[num];
+    }
+
+    /**
+     * Gets the transfer functions of every layer after the input layer.
+     * 
+     * @return a new array containing the transfer functions, with one less
+     *         element than the topology
+     */
+    public TransferFunction[] getTransferFunctions() {
+        return Arrays.copyOfRange(transferFunctions, 1, transferFunctions.length);
+    }
+
+    /**
+     * Checks whether every layer uses the same transfer function. Transfer
+     * functions are compared by name (their {@code toString()} value).
+     * 
+     * @return true if all the layers use the same transfer function
+     */
+    public boolean hasUniformTransferFunction() {
+        for (int l = 2; l < transferFunctions.length; l++) {
+            if (!transferFunctions[l].toString().equals(transferFunctions[1].toString())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Creates an array that uses the same transfer function for every layer
+     * after the input layer.
+     * 
+     * @param topology the topology of the network
+     * @param transferFunction the transfer function
+     * @return the transfer function of each layer after the input layer
+     */
+    static TransferFunction[] uniformTransferFunctions(final int[] topology,
+            final TransferFunction transferFunction) {
+        final TransferFunction[] transferFunctions = new TransferFunction[topology.length - 1];
+        Arrays.fill(transferFunctions, transferFunction);
+        return transferFunctions;
+    }
+
+    /**
+     * Checks the transfer functions passed to a constructor, and creates an
+     * array that can be indexed by layer number.
+     * 
+     * @param topology the topology of the network
+     * @param transferFunctions the transfer function of each layer after the
+     *            input layer
+     * @return the transfer function of each layer, with null for the input
+     *         layer
+     */
+    static TransferFunction[] layerTransferFunctions(final int[] topology,
+            final TransferFunction[] transferFunctions) {
+        if (transferFunctions.length != topology.length - 1) {
+            throw new IllegalArgumentException("There must be one transfer function for each layer after the input.");
+        }
+        final TransferFunction[] layerTransferFunctions = new TransferFunction[topology.length];
+        for (int l = 1; l < topology.length; l++) {
+            if (transferFunctions[l - 1] == null) {
+                throw new IllegalArgumentException("Transfer function of layer " + l + " is null.");
+            }
+            layerTransferFunctions[l] = transferFunctions[l - 1];
+        }
+        return layerTransferFunctions;
     }
 
     /**
@@ -234,9 +1160,10 @@ public class Network {
     /**
      * Gets the outputs of specified layer in the form of an array of doubles.
      * This is fairly inefficient because it creates a new {@code double[]} each
-     * time it is called. It is recommended to get the neuron object itself
-     * (through {@link #getLayer(int)} and call {@link Neuron#getOutputValue()}
-     * on it.
+     * time it is called. It is recommended to use
+     * {@link #getLayerOutputs(int, double[])} with a reused array instead, or
+     * to get the neuron object itself (through {@link #getLayer(int)} and call
+     * {@link Neuron#getOutputValue()} on it.
      * 
      * The returned array does not include the output of the bias node, which is
      * generally useless. If it is absolutely necessary to know the output of
@@ -246,25 +1173,208 @@ public class Network {
      * @return the array of layer outputs
      */
     public double[] getLayerOutputs(final int num) {
-        final Neuron[] layer = layers[num];
-        final double[] values = new double[layer.length - 1];
+        final double[] layerOutputs = outputs[num];
+        return Arrays.copyOf(layerOutputs, layerOutputs.length - 1);
+    }
 
-        for (int i = 0; i < layer.length - 1; i++) {
-            values[i] = layer[i].getOutputValue();
+    /**
+     * Copies the outputs of the specified layer into an existing array,
+     * without allocating anything. Like {@link #getLayerOutputs(int)}, the
+     * output of the bias neuron is not included.
+     * 
+     * @param num the layer index
+     * @param layerOutputs the array to copy the outputs into, which must have
+     *            at least as many elements as the layer has neurons
+     * @return {@code layerOutputs}
+     */
+    public double[] getLayerOutputs(final int num, final double[] layerOutputs) {
+        final int layerSize = topology[num];
+        if (layerOutputs.length < layerSize) {
+            throw new IllegalArgumentException("layerOutputs is smaller than the layer.");
         }
-        return values;
+
+        System.arraycopy(outputs[num], 0, layerOutputs, 0, layerSize);
+        return layerOutputs;
     }
 
     public void setLayerOutputs(final int num, final double... outputs) {
-        final Neuron[] layer = layers[num];
+        final double[] layerOutputs = this.outputs[num];
+
+        if (outputs.length != layerOutputs.length - 1) {
+            throw new IllegalArgumentException("Incorrect number of outputs.");
+        }
+
+        System.arraycopy(outputs, 0, layerOutputs, 0, outputs.length);
+    }
 
-        if (outputs.length != layer.length - 1) {
+    /**
+     * Sets the output of a layer that contains a single neuron, without
+     * creating an array for the value.
+     * 
+     * @param num the layer index
+     * @param output the new output value
+     * 
+     * @see #setLayerOutputs(int, double...)
+     */
+    public void setLayerOutputs(final int num, final double output) {
+        final double[] layerOutputs = outputs[num];
+
+        if (layerOutputs.length != 2) {
             throw new IllegalArgumentException("Incorrect number of outputs.");
         }
 
-        for (int i = 0; i < outputs.length; i++) {
-            layer[i].setOutputValue(outputs[i]);
+        layerOutputs[0] = output;
+    }
+
+    /**
+     * Gets the weight matrix of the connections between the specified layer
+     * and the next one. The matrix has one row for each neuron in the next
+     * layer (excluding its bias), and each row has one column for each neuron
+     * in the specified layer (including its bias). The weight of the
+     * connection from neuron {@code i} to neuron {@code n} is therefore
+     * located at index {@code n * (topology[num] + 1) + i}.
+     * 
+     * Like {@link #getLayer(int)}, the returned array is the one used
+     * internally, so changes to it affect the network.
+     * 
+     * @param num the layer index, which must be less than the index of the
+     *            output layer
+     * @return the weight matrix
+     * 
+     * @see #getWeight(int, int, int)
+     */
+    public double[] getWeights(final int num) {
+        return weights[num];
+    }
+
+    /**
+     * Gets the matrix containing the most recent change in each weight. It has
+     * the same layout and caveats as {@link #getWeights(int)}. This is the
+     * state of the {@link Optimizer.Momentum} rule, so it is only updated
+     * while the network uses that optimizer. Other optimizers keep their own
+     * state (see {@link #getOptimizerState(int, int)}), and this matrix stays
+     * zero.
+     * 
+     * @param num the layer index, which must be less than the index of the
+     *            output layer
+     * @return the delta weight matrix
+     */
+    public double[] getDeltaWeights(final int num) {
+        return deltaWeights[num];
+    }
+
+    /**
+     * Gets the most recent change in each weight of a layer, if the network
+     * uses the {@link Optimizer.Momentum} rule. This is used to copy the state
+     * of that rule to single-precision and sparse networks, which always use
+     * it.
+     * 
+     * @param num the layer index
+     * @return the delta weight matrix, or null if the network uses another
+     *         optimizer
+     */
+    double[] getMomentumState(final int num) {
+        return optimizer instanceof Optimizer.Momentum ? optimizerState[num][0] : null;
+    }
+
+    /**
+     * Gets the rule used to update the weights.
+     * 
+     * @return the optimizer
+     */
+    public Optimizer getOptimizer() {
+        return optimizer;
+    }
+
+    /**
+     * Sets the rule used to update the weights. The state of the previous
+     * optimizer is discarded, so the new one starts from the beginning.
+     * 
+     * @param optimizer the optimizer
+     */
+    public void setOptimizer(final Optimizer optimizer) {
+        this.optimizer = optimizer;
+        createOptimizerState();
+    }
+
+    /**
+     * Gets one of the arrays that the optimizer uses to store a value for
+     * each weight of a layer. It has the same layout as
+     * {@link #getWeights(int)}. Modifying it changes the state of the
+     * optimizer.
+     * 
+     * @param num the layer index, which must be less than the index of the
+     *            output layer
+     * @param index the index of the state array, which must be less than
+     *            {@link Optimizer#getStateCount()}
+     * @return the state array
+     */
+    public double[] getOptimizerState(final int num, final int index) {
+        return optimizerState[num][index];
+    }
+
+    /**
+     * Gets the number of times the weights have been updated by the
+     * optimizer since it was set or the network was reset.
+     * 
+     * @return the number of updates
+     */
+    public long getOptimizerStep() {
+        return optimizerStep;
+    }
+
+    /**
+     * Sets the number of times the weights have been updated, which is used
+     * when the state of an optimizer is loaded.
+     * 
+     * @param step the number of updates
+     */
+    void setOptimizerStep(final long step) {
+        optimizerStep = step;
+    }
+
+    /**
+     * Allocates empty state arrays for the optimizer. The state of the
+     * {@link Optimizer.Momentum} rule is the delta weights, so they are shared
+     * instead of being allocated again.
+     */
+    private void createOptimizerState() {
+        optimizerState = new double[weights.length][][];
+        for (int l = 0; l < weights.length; l++) {
+            final double[][] layerState = optimizerState[l] = new double[optimizer.getStateCount()][];
+            for (int i = 0; i < layerState.length; i++) {
+                layerState[i] = i == 0 && optimizer instanceof Optimizer.Momentum ? deltaWeights[l]
+                        : new double[weights[l].length];
+            }
+            Arrays.fill(deltaWeights[l], 0.0);
         }
+        optimizerStep = 0;
+    }
+
+    /**
+     * Gets the weight of the connection from a neuron in the specified layer
+     * to a neuron in the next layer.
+     * 
+     * @param num the layer index
+     * @param from the index of the neuron in the layer
+     * @param to the index of the neuron in the next layer
+     * @return the weight of the connection
+     */
+    public double getWeight(final int num, final int from, final int to) {
+        return weights[num][to * outputs[num].length + from];
+    }
+
+    /**
+     * Sets the weight of the connection from a neuron in the specified layer
+     * to a neuron in the next layer.
+     * 
+     * @param num the layer index
+     * @param from the index of the neuron in the layer
+     * @param to the index of the neuron in the next layer
+     * @param weight the new weight of the connection
+     */
+    public void setWeight(final int num, final int from, final int to, final double weight) {
+        weights[num][to * outputs[num].length + from] = weight;
     }
 
     /**
@@ -318,14 +1428,99 @@ public class Network {
     public void reset() {
         // Reset recent average error
         recentAverageError = 0;
-        
+
         // Reset all neurons
-        for (Neuron[] layer : layers) {
-            for (Neuron n : layer) {
-                n.reset();
-            }
+        for (int l = 0; l < outputs.length; l++) {
+            Arrays.fill(outputs[l], 0.0);
+            Arrays.fill(sums[l], 0.0);
+            Arrays.fill(gradients[l], 0.0);
             // Reset the bias nueron's output to 1
-            layer[layer.length - 1].setOutputValue(1.0);
+            outputs[l][outputs[l].length - 1] = 1.0;
         }
+
+        randomizeWeights();
+    }
+
+    /**
+     * Gets the initializer used to choose the initial weights.
+     * 
+     * @return the weight initializer, or null if it is chosen for each layer
+     *         based on its transfer function
+     */
+    public WeightInitializer getWeightInitializer() {
+        return weightInitializer;
+    }
+
+    /**
+     * Sets the initializer used to choose the weights the next time the
+     * network is reset.
+     * 
+     * @param weightInitializer the weight initializer, or null to choose one
+     *            for each layer with
+     *            {@link WeightInitializer#forTransferFunction}
+     */
+    public void setWeightInitializer(final WeightInitializer weightInitializer) {
+        this.weightInitializer = weightInitializer;
+    }
+
+    /**
+     * Gets the initializer used for the weights between the specified layer
+     * and the next one.
+     * 
+     * @param num the layer index
+     * @return the weight initializer
+     */
+    private WeightInitializer getWeightInitializer(final int num) {
+        return weightInitializer != null ? weightInitializer
+                : WeightInitializer.forTransferFunction(transferFunctions[num + 1]);
+    }
+
+    /**
+     * Chooses a new initial value for a single weight. This is used by
+     * {@link Connection#reset()}.
+     * 
+     * @param num the layer index
+     * @param index the index of the weight in the layer's weight matrix
+     * @return the initial weight
+     */
+    double initialWeight(final int num, final int index) {
+        final WeightInitializer initializer = getWeightInitializer(num);
+        final int fanIn = topology[num];
+        final int fanOut = topology[num + 1];
+        // The bias weight is the last one in each row
+        return index % (fanIn + 1) == fanIn ? initializer.bias(fanIn, fanOut, random)
+                : initializer.weight(fanIn, fanOut, random);
+    }
+
+    /**
+     * Sets every weight to a random value and clears the delta weights and
+     * the optimizer state.
+     */
+    private void randomizeWeights() {
+        for (int l = 0; l < weights.length; l++) {
+            final WeightInitializer initializer = getWeightInitializer(l);
+            final double[] layerWeights = weights[l];
+            final int fanIn = topology[l];
+            final int fanOut = topology[l + 1];
+            for (int w = 0; w < layerWeights.length; w++) {
+                layerWeights[w] = w % (fanIn + 1) == fanIn ? initializer.bias(fanIn, fanOut, random)
+                        : initializer.weight(fanIn, fanOut, random);
+            }
+            Arrays.fill(deltaWeights[l], 0.0);
+            for (final double[] state : optimizerState[l]) {
+                Arrays.fill(state, 0.0);
+            }
+        }
+        optimizerStep = 0;
+    }
+
+    /**
+     * Creates a random number generator for a network that was not seeded,
+     * by splitting the generator of the current thread.
+     * 
+     * @return a new random number generator
+     */
+    static SplittableRandom newRandom() {
+        return threadRandom.get().split();
     }
 }
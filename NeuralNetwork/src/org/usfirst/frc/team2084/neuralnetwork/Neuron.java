@@ -7,51 +7,44 @@
 package org.usfirst.frc.team2084.neuralnetwork;
 
 /**
- * Represents a neuron in a neural network.
+ * Represents a neuron in a neural network. This is a view of the data stored
+ * in a {@link Network}, so it holds no state of its own.
  * 
  * @author Ben Wolsieffer
  */
 public class Neuron {
 
     /**
-     * Most recent sum of the inputs multiplied by their connection weights.
+     * The network that holds the state of this neuron.
      */
-    private double sum;
+    private final Network network;
     /**
-     * Most recent output value, which is the transfer function evaluated at the
-     * sum.
+     * The index of the layer this neuron is in.
      */
-    double outputValue;
-    /**
-     * Gradient of the neuron. Used in back-propagation.
-     */
-    private double gradient;
-    /**
-     * Transfer function that is used to convert inputs into the output value.
-     */
-    private final TransferFunction transferFunction;
+    private final int layer;
     /**
      * The index in the layer of this neuron.
      */
     private final int index;
 
-    private final Connection[] outputConnections;
+    /**
+     * Views of the connections from this neuron to the next layer. These are
+     * created the first time they are requested.
+     */
+    private Connection[] outputConnections;
 
     /**
-     * Create a {@link Neuron} with the specified number of outputs, index and
-     * transfer function. This is usually only called by {@link Network}.
+     * Create a {@link Neuron} that is a view of a neuron in the specified
+     * network. This is only called by {@link Network}.
      * 
-     * @param numberOutputs the number of outputs to the next layer
+     * @param network the network that holds the state of the neuron
+     * @param layer the index of the layer
      * @param index the index of the neuron within the layer
-     * @param transferFunction the neuron's transfer function
      */
-    public Neuron(final int numberOutputs, final int index, final TransferFunction transferFunction) {
-        outputConnections = new Connection[numberOutputs];
-        for (int i = 0; i < outputConnections.length; i++) {
-            outputConnections[i] = new Connection();
-        }
+    Neuron(final Network network, final int layer, final int index) {
+        this.network = network;
+        this.layer = layer;
         this.index = index;
-        this.transferFunction = transferFunction;
     }
 
     /**
@@ -60,80 +53,92 @@ public class Neuron {
      * @param value the output value
      */
     public void setOutputValue(final double value) {
-        outputValue = value;
+        network.outputs[layer][index] = value;
     }
 
     public double getOutputValue() {
-        return outputValue;
+        return network.outputs[layer][index];
     }
 
     public Connection[] getOutputConnections() {
+        if (outputConnections == null) {
+            // The output layer has no connections
+            final int numberOutputs = layer < network.weights.length ? network.getTopology()[layer + 1] : 0;
+            final int rowLength = network.outputs[layer].length;
+
+            outputConnections = new Connection[numberOutputs];
+            for (int c = 0; c < numberOutputs; c++) {
+                outputConnections[c] = new Connection(network, layer, c * rowLength + index);
+            }
+        }
         return outputConnections;
     }
 
     public void feedForward(final Neuron[] prevLayer) {
-        double sum = 0.0;
+        final double[] prevOutputs = network.outputs[layer - 1];
+        final double[] weights = network.weights[layer - 1];
 
         // Sum the previous layer's outputs (which are our inputs)
         // Include the bias node from the previous layer.
-        for (final Neuron n : prevLayer) {
-            sum += n.getOutputValue() * n.outputConnections[index].weight;
-        }
+        final double sum = Kernels.INSTANCE.dot(prevOutputs, 0, weights, index * prevOutputs.length,
+                prevOutputs.length);
 
         // activate function or transfer sig/gaussian/linear/step
-        outputValue = transferFunction.calculate(sum);
-        this.sum = sum;
+        network.outputs[layer][index] = network.getTransferFunction(layer).calculate(sum);
+        network.sums[layer][index] = sum;
     }
 
     public void calculateOutputGradients(final double targetValue) {
-        gradient = (targetValue - outputValue) * transferFunction.derivative(sum);
+        network.gradients[layer][index] = (targetValue - getOutputValue())
+                * network.getTransferFunction(layer).derivative(network.sums[layer][index], getOutputValue());
     }
 
     public double sumDOW(final Neuron[] nextLayer) {
+        final double[] nextGradients = network.gradients[layer + 1];
+        final double[] weights = network.weights[layer];
+        final int rowLength = network.outputs[layer].length;
         double sum = 0.0;
 
         // Sum our contributions of the errors at the nodes we feed.
-        for (int n = 0; n < nextLayer.length - 1; n++) {
-            sum += outputConnections[n].weight * nextLayer[n].gradient;
+        for (int n = 0; n < nextGradients.length - 1; n++) {
+            sum += weights[n * rowLength + index] * nextGradients[n];
         }
 
         return sum;
     }
 
     public void calculateHiddenGradients(final Neuron[] nextLayer) {
-        gradient = sumDOW(nextLayer) * transferFunction.derivative(sum);
+        network.gradients[layer][index] = sumDOW(nextLayer)
+                * network.getTransferFunction(layer).derivative(network.sums[layer][index], getOutputValue());
     }
 
     public void updateInputWeights(final Neuron[] prevLayer, final double eta, final double momentum) {
-        // The weights to be updated are in the Connection container
-        // in the neurons in the preceding layer
-        for (int n = 0; n < prevLayer.length; n++) {
-            final Neuron neuron = prevLayer[n];
-            final Connection conn = neuron.outputConnections[index];
-
-            final double oldDeltaWeight = conn.deltaWeight;
-            // Individual input, magnified by the gradient and train
-            // rate:
-            final double newDeltaWeight = eta
-                    * neuron.getOutputValue()
-                    * gradient
-                    // Also add momentum = a fraction of the previous
-                    // delta weight;
-                    + momentum
-                    * oldDeltaWeight;
-
-            conn.deltaWeight = newDeltaWeight;
-            conn.weight += newDeltaWeight;
+        // The weights to be updated are in the row of the weight matrix that
+        // belongs to this neuron
+        final double[] prevOutputs = network.outputs[layer - 1];
+        final double[] weights = network.weights[layer - 1];
+        final double[][] state = network.optimizerState[layer - 1];
+        final double gradient = network.gradients[layer][index];
+
+        // A back-propagation pass updates the output layer first, so this is
+        // the start of a new optimizer step, like in
+        // Network.backPropagateGradients()
+        if (layer == network.outputs.length - 1 && index == 0) {
+            network.optimizerStep++;
         }
 
+        // Individual input, magnified by the gradient and train rate, using
+        // the optimizer of the network
+        network.getOptimizer().update(weights, state, index * prevOutputs.length, prevOutputs, 0, gradient, 1, eta,
+                momentum, network.optimizerStep, prevOutputs.length);
     }
-    
+
     public void reset() {
-        sum = 0;
-        gradient = 0;
-        outputValue = 0;
-        
-        for(Connection c : outputConnections) {
+        network.sums[layer][index] = 0;
+        network.gradients[layer][index] = 0;
+        network.outputs[layer][index] = 0;
+
+        for(Connection c : getOutputConnections()) {
             c.reset();
         }
     }
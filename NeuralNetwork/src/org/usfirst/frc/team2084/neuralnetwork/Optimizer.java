@@ -0,0 +1,383 @@
+/* 
+ * Copyright (c) 2015 RobotsByTheC. All rights reserved.
+ *
+ * Open Source Software - may be modified and shared by FRC teams. The code must
+ * be accompanied by the BSD license file in the root directory of the project.
+ */
+package org.usfirst.frc.team2084.neuralnetwork;
+
+/**
+ * The rule that is used to update the weights of a {@link Network} from their
+ * gradients. An optimizer does not store anything itself. Any values it needs
+ * to remember between steps, like the previous change of each weight, are kept
+ * by the network in flat arrays with the same layout as the weights of each
+ * layer, so the update of a row of weights only reads and writes contiguous
+ * memory.
+ * 
+ * Every optimizer except {@link Rprop} uses the learning rate of the network
+ * (eta). Only {@link Momentum} uses the momentum of the network.
+ * 
+ * The name of an optimizer is the value returned by its {@code toString()}
+ * method, which is used to save it in a {@link Data} file.
+ * 
+ * @author Ben Wolsieffer
+ * 
+ * @see Network#setOptimizer(Optimizer)
+ */
+public interface Optimizer {
+
+    /**
+     * Gets the number of values that this optimizer stores for each weight.
+     * The network allocates this many arrays for each layer.
+     * 
+     * @return the number of state arrays
+     */
+    int getStateCount();
+
+    /**
+     * Updates a range of weights. The gradient of each weight is the input of
+     * the weight multiplied by the gradient of its neuron, divided by the
+     * number of samples. It points in the direction that reduces the error,
+     * so it is added to the weight.
+     * 
+     * @param weights the weights of the layer
+     * @param state the state arrays of the layer, which have the same layout
+     *            as the weights
+     * @param offset the index of the first weight to update
+     * @param x the inputs of the weights
+     * @param xOffset the index of the input of the first weight
+     * @param gradient the gradient of the neuron
+     * @param samples the number of samples the inputs were summed over
+     * @param eta the learning rate
+     * @param momentum the momentum of the network
+     * @param step the number of the update, starting from 1
+     * @param length the number of weights to update
+     */
+    void update(double[] weights, double[][] state, int offset, double[] x, int xOffset, double gradient, int samples,
+            double eta, double momentum, long step, int length);
+
+    /**
+     * The original update rule, which adds a fraction (the momentum) of the
+     * previous change of each weight to the new change. Its only state is the
+     * previous change, which is the same array as
+     * {@link Network#getDeltaWeights(int)}.
+     */
+    public static class Momentum implements Optimizer {
+
+        @Override
+        public int getStateCount() {
+            return 1;
+        }
+
+        @Override
+        public void update(double[] weights, double[][] state, int offset, double[] x, int xOffset, double gradient,
+                int samples, double eta, double momentum, long step, int length) {
+            Kernels.INSTANCE.updateWeights(weights, state[0], offset, x, xOffset, eta / samples, gradient, momentum,
+                    length);
+        }
+
+        @Override
+        public String toString() {
+            return "momentum";
+        }
+    }
+
+    /**
+     * Adaptive moment estimation, which keeps a moving average of each
+     * gradient and of its square, and divides the first by the square root of
+     * the second. This gives every weight its own step size, so the learning
+     * rate needs much less tuning.
+     */
+    public static class Adam implements Optimizer {
+
+        public static final double DEFAULT_BETA1 = 0.9;
+        public static final double DEFAULT_BETA2 = 0.999;
+        public static final double DEFAULT_EPSILON = 1e-8;
+
+        private final double beta1;
+        private final double beta2;
+        private final double epsilon;
+
+        /**
+         * Creates an Adam optimizer with the default decay rates.
+         */
+        public Adam() {
+            this(DEFAULT_BETA1, DEFAULT_BETA2, DEFAULT_EPSILON);
+        }
+
+        /**
+         * Creates an Adam optimizer with the specified decay rates.
+         * 
+         * @param beta1 the decay rate of the average gradient
+         * @param beta2 the decay rate of the average squared gradient
+         * @param epsilon the value added to the divisor to avoid dividing by
+         *            zero
+         */
+        public Adam(double beta1, double beta2, double epsilon) {
+            this.beta1 = beta1;
+            this.beta2 = beta2;
+            this.epsilon = epsilon;
+        }
+
+        @Override
+        public int getStateCount() {
+            return 2;
+        }
+
+        @Override
+        public void update(double[] weights, double[][] state, int offset, double[] x, int xOffset, double gradient,
+                int samples, double eta, double momentum, long step, int length) {
+            final double[] m = state[0];
+            final double[] v = state[1];
+            // Correct the bias of the averages towards zero in the first steps
+            final double scaledEta = eta / (1.0 - Math.pow(beta1, step));
+            final double vCorrection = 1.0 / (1.0 - Math.pow(beta2, step));
+            final double scale = gradient / samples;
+            for (int i = 0; i < length; i++) {
+                final int w = offset + i;
+                final double g = x[xOffset + i] * scale;
+                m[w] = beta1 * m[w] + (1.0 - beta1) * g;
+                v[w] = beta2 * v[w] + (1.0 - beta2) * g * g;
+                weights[w] += scaledEta * m[w] / (Math.sqrt(v[w] * vCorrection) + epsilon);
+            }
+        }
+
+        /**
+         * Gets the name of the optimizer. If the parameters are not the
+         * defaults, they are added to the name in parentheses.
+         */
+        @Override
+        public String toString() {
+            if (beta1 == DEFAULT_BETA1 && beta2 == DEFAULT_BETA2 && epsilon == DEFAULT_EPSILON) {
+                return "adam";
+            }
+            return "adam(" + beta1 + "," + beta2 + "," + epsilon + ")";
+        }
+    }
+
+    /**
+     * Divides each gradient by the square root of a moving average of its
+     * square, so weights with large gradients take smaller steps.
+     */
+    public static class RMSProp implements Optimizer {
+
+        public static final double DEFAULT_DECAY = 0.9;
+        public static final double DEFAULT_EPSILON = 1e-8;
+
+        private final double decay;
+        private final double epsilon;
+
+        /**
+         * Creates an RMSProp optimizer with the default decay rate.
+         */
+        public RMSProp() {
+            this(DEFAULT_DECAY, DEFAULT_EPSILON);
+        }
+
+        /**
+         * Creates an RMSProp optimizer with the specified decay rate.
+         * 
+         * @param decay the decay rate of the average squared gradient
+         * @param epsilon the value added to the divisor to avoid dividing by
+         *            zero
+         */
+        public RMSProp(double decay, double epsilon) {
+            this.decay = decay;
+            this.epsilon = epsilon;
+        }
+
+        @Override
+        public int getStateCount() {
+            return 1;
+        }
+
+        @Override
+        public void update(double[] weights, double[][] state, int offset, double[] x, int xOffset, double gradient,
+                int samples, double eta, double momentum, long step, int length) {
+            final double[] meanSquare = state[0];
+            final double scale = gradient / samples;
+            for (int i = 0; i < length; i++) {
+                final int w = offset + i;
+                final double g = x[xOffset + i] * scale;
+                meanSquare[w] = decay * meanSquare[w] + (1.0 - decay) * g * g;
+                weights[w] += eta * g / (Math.sqrt(meanSquare[w]) + epsilon);
+            }
+        }
+
+        /**
+         * Gets the name of the optimizer. If the parameters are not the
+         * defaults, they are added to the name in parentheses.
+         */
+        @Override
+        public String toString() {
+            if (decay == DEFAULT_DECAY && epsilon == DEFAULT_EPSILON) {
+                return "rmsprop";
+            }
+            return "rmsprop(" + decay + "," + epsilon + ")";
+        }
+    }
+
+    /**
+     * Divides each gradient by the square root of the sum of all of its
+     * previous squares, so the step size of each weight keeps shrinking as it
+     * is updated.
+     */
+    public static class AdaGrad implements Optimizer {
+
+        public static final double DEFAULT_EPSILON = 1e-8;
+
+        private final double epsilon;
+
+        /**
+         * Creates an AdaGrad optimizer.
+         */
+        public AdaGrad() {
+            this(DEFAULT_EPSILON);
+        }
+
+        /**
+         * Creates an AdaGrad optimizer.
+         * 
+         * @param epsilon the value added to the divisor to avoid dividing by
+         *            zero
+         */
+        public AdaGrad(double epsilon) {
+            this.epsilon = epsilon;
+        }
+
+        @Override
+        public int getStateCount() {
+            return 1;
+        }
+
+        @Override
+        public void update(double[] weights, double[][] state, int offset, double[] x, int xOffset, double gradient,
+                int samples, double eta, double momentum, long step, int length) {
+            final double[] sumSquare = state[0];
+            final double scale = gradient / samples;
+            for (int i = 0; i < length; i++) {
+                final int w = offset + i;
+                final double g = x[xOffset + i] * scale;
+                sumSquare[w] += g * g;
+                weights[w] += eta * g / (Math.sqrt(sumSquare[w]) + epsilon);
+            }
+        }
+
+        /**
+         * Gets the name of the optimizer. If epsilon is not the default, it is
+         * added to the name in parentheses.
+         */
+        @Override
+        public String toString() {
+            return epsilon == DEFAULT_EPSILON ? "adagrad" : "adagrad(" + epsilon + ")";
+        }
+    }
+
+    /**
+     * Resilient propagation (the iRPROP- variant), which only uses the sign
+     * of each gradient. Every weight has its own step size, which grows while
+     * the sign of its gradient stays the same and shrinks when it changes.
+     * When the sign changes, the weight is not updated in that step. It does
+     * not use a learning rate.
+     * 
+     * Because it only looks at signs, it only works well when each update
+     * uses the gradient of every sample, like in {@link RpropTrainer}.
+     */
+    public static class Rprop implements Optimizer {
+
+        public static final double DEFAULT_INCREASE = 1.2;
+        public static final double DEFAULT_DECREASE = 0.5;
+        public static final double DEFAULT_INITIAL_STEP = 0.1;
+        public static final double DEFAULT_MIN_STEP = 1e-6;
+        public static final double DEFAULT_MAX_STEP = 50.0;
+
+        private final double increase;
+        private final double decrease;
+        private final double initialStep;
+        private final double minStep;
+        private final double maxStep;
+
+        /**
+         * Creates an RPROP optimizer with the default step sizes.
+         */
+        public Rprop() {
+            this(DEFAULT_INCREASE, DEFAULT_DECREASE, DEFAULT_INITIAL_STEP, DEFAULT_MIN_STEP, DEFAULT_MAX_STEP);
+        }
+
+        /**
+         * Creates an RPROP optimizer with the specified step sizes.
+         * 
+         * @param increase the factor the step size is multiplied by when the
+         *            gradient keeps its sign
+         * @param decrease the factor the step size is multiplied by when the
+         *            gradient changes sign
+         * @param initialStep the step size of every weight before the first
+         *            update
+         * @param minStep the smallest step size
+         * @param maxStep the largest step size
+         */
+        public Rprop(double increase, double decrease, double initialStep, double minStep, double maxStep) {
+            if (increase <= 1.0 || decrease <= 0.0 || decrease >= 1.0) {
+                throw new IllegalArgumentException("increase must be greater than 1 and decrease between 0 and 1.");
+            }
+            if (minStep <= 0.0 || maxStep < minStep || initialStep < minStep || initialStep > maxStep) {
+                throw new IllegalArgumentException("Invalid step size limits.");
+            }
+            this.increase = increase;
+            this.decrease = decrease;
+            this.initialStep = initialStep;
+            this.minStep = minStep;
+            this.maxStep = maxStep;
+        }
+
+        @Override
+        public int getStateCount() {
+            return 2;
+        }
+
+        @Override
+        public void update(double[] weights, double[][] state, int offset, double[] x, int xOffset, double gradient,
+                int samples, double eta, double momentum, long step, int length) {
+            final double[] stepSizes = state[0];
+            final double[] previousGradients = state[1];
+            for (int i = 0; i < length; i++) {
+                final int w = offset + i;
+                // The number of samples does not change the sign
+                double g = x[xOffset + i] * gradient;
+                // A step size of zero means the weight has not been updated
+                // yet
+                double stepSize = stepSizes[w] == 0.0 ? initialStep : stepSizes[w];
+
+                final double product = g * previousGradients[w];
+                if (product > 0.0) {
+                    stepSize = Math.min(stepSize * increase, maxStep);
+                } else if (product < 0.0) {
+                    // The last step went past a minimum, so skip this one
+                    stepSize = Math.max(stepSize * decrease, minStep);
+                    g = 0.0;
+                }
+
+                if (g > 0.0) {
+                    weights[w] += stepSize;
+                } else if (g < 0.0) {
+                    weights[w] -= stepSize;
+                }
+                stepSizes[w] = stepSize;
+                previousGradients[w] = g;
+            }
+        }
+
+        /**
+         * Gets the name of the optimizer. If the parameters are not the
+         * defaults, they are added to the name in parentheses.
+         */
+        @Override
+        public String toString() {
+            if (increase == DEFAULT_INCREASE && decrease == DEFAULT_DECREASE && initialStep == DEFAULT_INITIAL_STEP
+                    && minStep == DEFAULT_MIN_STEP && maxStep == DEFAULT_MAX_STEP) {
+                return "rprop";
+            }
+            return "rprop(" + increase + "," + decrease + "," + initialStep + "," + minStep + "," + maxStep + ")";
+        }
+    }
+}
@@ -0,0 +1,286 @@
+/* 
+ * Copyright (c) 2015 RobotsByTheC. All rights reserved.
+ *
+ * Open Source Software - may be modified and shared by FRC teams. The code must
+ * be accompanied by the BSD license file in the root directory of the project.
+ */
+package org.usfirst.frc.team2084.neuralnetwork;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Reads samples from another {@link SampleSource} on a background thread, so
+ * the samples are read and parsed while the network is training on the
+ * previous ones. The samples are passed between the threads in blocks, and
+ * only a fixed number of blocks exist, so the reading thread waits if it gets
+ * too far ahead.
+ * 
+ * When the reading thread reaches the end of an epoch, it waits until
+ * {@link #rewind()} is called before it starts reading the next epoch.
+ * 
+ * @author Ben Wolsieffer
+ */
+public class PrefetchingSampleSource implements SampleSource {
+
+    /**
+     * The default number of samples in each block.
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 1024;
+    /**
+     * The default number of blocks.
+     */
+    public static final int DEFAULT_BLOCKS = 4;
+
+    /**
+     * A group of samples that is passed from the reading thread to the
+     * training thread.
+     */
+    private static class Block {
+
+        private final double[] inputs;
+        private final double[] targetOutputs;
+        /**
+         * The number of samples in the block.
+         */
+        private int count;
+        /**
+         * Set if this is the last block of the epoch.
+         */
+        private boolean last;
+        /**
+         * The error that stopped the epoch, if any.
+         */
+        private Exception error;
+
+        private Block(final int size, final int inputCount, final int outputCount) {
+            inputs = new double[size * inputCount];
+            targetOutputs = new double[size * outputCount];
+        }
+    }
+
+    private final SampleSource source;
+    private final int inputCount;
+    private final int outputCount;
+    private final int blockSize;
+    /**
+     * Blocks that have been filled by the reading thread.
+     */
+    private final BlockingQueue<Block> filled;
+    /**
+     * Blocks that can be filled by the reading thread.
+     */
+    private final BlockingQueue<Block> empty;
+    /**
+     * Released to let the reading thread start the next epoch.
+     */
+    private final Semaphore rewind = new Semaphore(0);
+    private final Thread thread;
+
+    /**
+     * The block that samples are being read from.
+     */
+    private Block current;
+    /**
+     * The index of the next sample in the current block.
+     */
+    private int index;
+    /**
+     * Set when the last block of the epoch has been read.
+     */
+    private boolean endOfEpoch = false;
+    /**
+     * Set if no samples have been read since the start of the epoch.
+     */
+    private boolean atStart = true;
+
+    /**
+     * Starts reading samples from another source in the background, using
+     * the default block size and number of blocks.
+     * 
+     * @param source the source to read, which is closed when this source is
+     *            closed
+     */
+    public PrefetchingSampleSource(final SampleSource source) {
+        this(source, DEFAULT_BLOCK_SIZE, DEFAULT_BLOCKS);
+    }
+
+    /**
+     * Starts reading samples from another source in the background.
+     * 
+     * @param source the source to read, which is closed when this source is
+     *            closed
+     * @param blockSize the number of samples in each block
+     * @param blocks the number of blocks, which limits how far ahead of the
+     *            training thread the reading thread can get
+     */
+    public PrefetchingSampleSource(final SampleSource source, final int blockSize, final int blocks) {
+        if (blockSize < 1 || blocks < 1) {
+            throw new IllegalArgumentException("blockSize and blocks must be positive.");
+        }
+        this.source = source;
+        this.blockSize = blockSize;
+        inputCount = source.getInputCount();
+        outputCount = source.getOutputCount();
+
+        filled = new ArrayBlockingQueue<>(blocks);
+        empty = new ArrayBlockingQueue<>(blocks);
+        for (int i = 0; i < blocks; i++) {
+            empty.add(new Block(blockSize, inputCount, outputCount));
+        }
+
+        thread = new Thread(this::read, "Sample prefetch");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Fills blocks with samples until the thread is interrupted.
+     */
+    private void read() {
+        final double[] input = new double[inputCount];
+        final double[] targetOutput = new double[outputCount];
+        Exception rewindError = null;
+
+        try {
+            while (true) {
+                final Block block = empty.take();
+                block.count = 0;
+                block.error = rewindError;
+                block.last = rewindError != null;
+                rewindError = null;
+
+                try {
+                    while (!block.last && block.count < blockSize) {
+                        if (source.next(input, targetOutput)) {
+                            System.arraycopy(input, 0, block.inputs, block.count * inputCount, inputCount);
+                            System.arraycopy(targetOutput, 0, block.targetOutputs, block.count * outputCount,
+                                    outputCount);
+                            block.count++;
+                        } else {
+                            block.last = true;
+                        }
+                    }
+                } catch (IOException | Data.FormatException | RuntimeException e) {
+                    block.error = e;
+                    block.last = true;
+                }
+                filled.put(block);
+
+                if (block.last) {
+                    rewind.acquire();
+                    try {
+                        source.rewind();
+                    } catch (IOException | Data.FormatException | RuntimeException e) {
+                        // Report the error when the next epoch is read
+                        rewindError = e;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            // The source was closed
+        }
+    }
+
+    @Override
+    public int getInputCount() {
+        return inputCount;
+    }
+
+    @Override
+    public int getOutputCount() {
+        return outputCount;
+    }
+
+    @Override
+    public boolean next(final double[] input, final double[] targetOutput) throws IOException, Data.FormatException {
+        atStart = false;
+        while (current == null || index >= current.count) {
+            if (current != null) {
+                endOfEpoch = current.last;
+                empty.add(current);
+                current = null;
+            }
+            if (endOfEpoch) {
+                return false;
+            }
+
+            current = take();
+            index = 0;
+            if (current.error != null) {
+                final Exception error = current.error;
+                endOfEpoch = true;
+                empty.add(current);
+                current = null;
+                if (error instanceof IOException) {
+                    throw (IOException) error;
+                } else if (error instanceof Data.FormatException) {
+                    throw (Data.FormatException) error;
+                } else {
+                    throw (RuntimeException) error;
+                }
+            }
+        }
+
+        System.arraycopy(current.inputs, index * inputCount, input, 0, inputCount);
+        System.arraycopy(current.targetOutputs, index * outputCount, targetOutput, 0, outputCount);
+        index++;
+        return true;
+    }
+
+    /**
+     * Waits for the reading thread to fill a block.
+     * 
+     * @return the block
+     * @throws InterruptedIOException if the thread is interrupted while waiting
+     */
+    private Block take() throws InterruptedIOException {
+        try {
+            return filled.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for samples");
+        }
+    }
+
+    /**
+     * Starts a new epoch. If the current epoch has not been read completely,
+     * the rest of its samples are skipped first.
+     */
+    @Override
+    public void rewind() throws IOException {
+        if (atStart) {
+            return;
+        }
+        // Skip the rest of the epoch
+        while (!endOfEpoch) {
+            if (current != null) {
+                endOfEpoch = current.last;
+                empty.add(current);
+                current = null;
+            } else {
+                current = take();
+            }
+        }
+        endOfEpoch = false;
+        atStart = true;
+        rewind.release();
+    }
+
+    /**
+     * Stops the reading thread and closes the source.
+     */
+    @Override
+    public void close() throws IOException {
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        source.close();
+    }
+}
@@ -0,0 +1,548 @@
+/* 
+ * Copyright (c) 2015 RobotsByTheC. All rights reserved.
+ *
+ * Open Source Software - may be modified and shared by FRC teams. The code must
+ * be accompanied by the BSD license file in the root directory of the project.
+ */
+package org.usfirst.frc.team2084.neuralnetwork;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * An inference model that stores the weights of a trained {@link Network} as
+ * 8-bit integers, which uses 8 times less memory than doubles. The inputs of
+ * each layer are also converted to 8-bit integers, so the weighted sums are
+ * calculated using integer multiplication, with 32-bit accumulation. The sums
+ * are converted back to doubles before the transfer function is applied.
+ * 
+ * The quantization is symmetric: a value {@code x} is stored as
+ * {@code round(x / scale)}, clamped to [-127, 127]. Each neuron has its own
+ * weight scale, based on its largest weight. Each layer has an input scale,
+ * which is calibrated by running a set of sample inputs through the original
+ * network and recording the largest value that reaches that layer. The biases
+ * are not quantized. They are stored as floats and added after the
+ * accumulated sum has been converted back to a double, because a bias can be
+ * much larger than the weights of its neuron, and it would not fit in the
+ * scale of the sum.
+ * 
+ * Like {@link CompiledNetwork}, a quantized network is immutable and can be
+ * used by any number of threads at the same time.
+ * 
+ * @author Ben Wolsieffer
+ */
+public final class QuantizedNetwork implements InferenceModel {
+
+    /**
+     * The accuracy of a quantized network compared to the network it was
+     * created from.
+     * 
+     * @see QuantizedNetwork#measureAccuracy(Network, double[][])
+     */
+    public static class Accuracy {
+
+        private final double maxError;
+        private final double meanError;
+        private final double rmsError;
+
+        private Accuracy(final double maxError, final double meanError, final double rmsError) {
+            this.maxError = maxError;
+            this.meanError = meanError;
+            this.rmsError = rmsError;
+        }
+
+        /**
+         * Gets the largest absolute difference between an output of the
+         * quantized network and the original network.
+         * 
+         * @return the maximum error
+         */
+        public double getMaxError() {
+            return maxError;
+        }
+
+        /**
+         * Gets the average absolute difference between the outputs of the
+         * quantized network and the original network.
+         * 
+         * @return the mean absolute error
+         */
+        public double getMeanError() {
+            return meanError;
+        }
+
+        /**
+         * Gets the root mean square difference between the outputs of the
+         * quantized network and the original network.
+         * 
+         * @return the RMS error
+         */
+        public double getRmsError() {
+            return rmsError;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Max error: %g, mean error: %g, RMS error: %g", maxError, meanError, rmsError);
+        }
+    }
+
+    /**
+     * The scratch buffers used by a single prediction. A context must not be
+     * used by more than one thread at a time.
+     */
+    public static final class Context {
+
+        private final byte[] first;
+        private final byte[] second;
+        private final double[] values;
+
+        private Context(final int size) {
+            first = new byte[size];
+            second = new byte[size];
+            values = new double[size];
+        }
+    }
+
+    /**
+     * The first four bytes of a saved quantized network ("NNQ8").
+     */
+    private static final int MAGIC = 0x4E4E5138;
+    /**
+     * The version of the saved format.
+     */
+    private static final int VERSION = 1;
+    /**
+     * The largest magnitude of a quantized value.
+     */
+    private static final int MAX_QUANTIZED = 127;
+
+    private final int[] topology;
+    /**
+     * The transfer function of each layer after the input layer.
+     */
+    private final TransferFunction[] transferFunctions;
+    /**
+     * The scale of the inputs of each layer after the input layer.
+     */
+    private final float[] inputScales;
+    /**
+     * The weight scale of each neuron in each layer after the input layer.
+     */
+    private final float[][] weightScales;
+    /**
+     * The quantized weights of each layer, without the biases. The weights are
+     * laid out like the weights of a {@link Network}, but with no bias column.
+     */
+    private final byte[][] weights;
+    /**
+     * The bias of each neuron, which is not quantized.
+     */
+    private final float[][] biases;
+    /**
+     * The number to multiply the accumulated sum of each neuron by to convert
+     * it to a double (the input scale times the weight scale).
+     */
+    private final double[][] sumScales;
+    private final int maxLayerSize;
+    private final ThreadLocal<Context> threadContext = ThreadLocal.withInitial(this::createContext);
+
+    private QuantizedNetwork(final int[] topology, final TransferFunction[] transferFunctions,
+            final float[] inputScales, final float[][] weightScales, final byte[][] weights, final float[][] biases) {
+        this.topology = topology;
+        this.transferFunctions = transferFunctions;
+        this.inputScales = inputScales;
+        this.weightScales = weightScales;
+        this.weights = weights;
+        this.biases = biases;
+
+        sumScales = new double[weightScales.length][];
+        for (int l = 0; l < weightScales.length; l++) {
+            sumScales[l] = new double[weightScales[l].length];
+            for (int n = 0; n < weightScales[l].length; n++) {
+                sumScales[l][n] = (double) inputScales[l] * weightScales[l][n];
+            }
+        }
+
+        maxLayerSize = maxSize(topology);
+    }
+
+    /**
+     * Creates a quantized copy of a network. The input scale of each layer is
+     * calibrated by running the specified inputs through the network. They
+     * should cover the range of inputs the network will see when it is used,
+     * and can be a sample of the inputs it was trained on (see
+     * {@link Data#getInputs()}).
+     * 
+     * @param network the network to quantize
+     * @param calibrationInputs the inputs used to calibrate the scales, with
+     *            one row per sample
+     * @return the quantized network
+     */
+    public static QuantizedNetwork quantize(final Network network, final double[][] calibrationInputs) {
+        if (calibrationInputs.length == 0) {
+            throw new IllegalArgumentException("At least one calibration input is required.");
+        }
+
+        final int[] topology = network.getTopology().clone();
+        final int layers = topology.length - 1;
+
+        // Find the largest value that reaches each layer
+        final double[] maxInputs = new double[layers];
+        final Network copy = new Network(network);
+        final double[] layerOutputs = new double[maxSize(topology)];
+        for (double[] input : calibrationInputs) {
+            copy.feedForward(input);
+            for (int l = 0; l < layers; l++) {
+                copy.getLayerOutputs(l, layerOutputs);
+                for (int n = 0; n < topology[l]; n++) {
+                    maxInputs[l] = Math.max(maxInputs[l], Math.abs(layerOutputs[n]));
+                }
+            }
+        }
+
+        final float[] inputScales = new float[layers];
+        final float[][] weightScales = new float[layers][];
+        final byte[][] weights = new byte[layers][];
+        final float[][] biases = new float[layers][];
+
+        for (int l = 0; l < layers; l++) {
+            final int inputs = topology[l];
+            final int neurons = topology[l + 1];
+            final double[] layerWeights = network.getWeights(l);
+
+            inputScales[l] = scale(maxInputs[l]);
+            weightScales[l] = new float[neurons];
+            weights[l] = new byte[neurons * inputs];
+            biases[l] = new float[neurons];
+
+            for (int n = 0; n < neurons; n++) {
+                final int row = n * (inputs + 1);
+
+                double maxWeight = 0;
+                for (int i = 0; i < inputs; i++) {
+                    maxWeight = Math.max(maxWeight, Math.abs(layerWeights[row + i]));
+                }
+                final float weightScale = weightScales[l][n] = scale(maxWeight);
+
+                for (int i = 0; i < inputs; i++) {
+                    weights[l][n * inputs + i] = (byte) quantize(layerWeights[row + i], weightScale);
+                }
+
+                biases[l][n] = (float) layerWeights[row + inputs];
+            }
+        }
+
+        return new QuantizedNetwork(topology, network.getTransferFunctions(), inputScales, weightScales, weights,
+                biases);
+    }
+
+    /**
+     * Calculates the scale that maps the range [-max, max] to the range of a
+     * quantized value. The scale is rounded to a float, so it can be saved
+     * without changing it.
+     * 
+     * @param max the largest magnitude of the values
+     * @return the scale
+     */
+    private static float scale(final double max) {
+        // Don't divide by zero if all the values are zero
+        return max > 0 ? (float) (max / MAX_QUANTIZED) : 1.0f;
+    }
+
+    /**
+     * Quantizes a value, rounding to the nearest integer and clamping it.
+     * 
+     * @param value the value to quantize
+     * @param scale the scale of the quantized value
+     * @return the quantized value
+     */
+    private static int quantize(final double value, final double scale) {
+        final double quantized = Math.rint(value / scale);
+        return (int) Math.max(-MAX_QUANTIZED, Math.min(MAX_QUANTIZED, quantized));
+    }
+
+    /**
+     * Finds the size of the largest layer in a topology.
+     * 
+     * @param topology the topology
+     * @return the size of the largest layer
+     */
+    private static int maxSize(final int[] topology) {
+        int max = 0;
+        for (int size : topology) {
+            max = Math.max(max, size);
+        }
+        return max;
+    }
+
+    /**
+     * Creates a context that can be used with
+     * {@link #predict(double[], double[], Context)}.
+     * 
+     * @return a new context
+     */
+    public Context createContext() {
+        return new Context(maxLayerSize);
+    }
+
+    @Override
+    public int getInputCount() {
+        return topology[0];
+    }
+
+    @Override
+    public int getOutputCount() {
+        return topology[topology.length - 1];
+    }
+
+    /**
+     * Gets the topology of the network this model was created from.
+     * 
+     * @return a copy of the topology
+     */
+    public int[] getTopology() {
+        return topology.clone();
+    }
+
+    /**
+     * Gets the transfer functions of every layer after the input layer.
+     * 
+     * @return a copy of the transfer functions
+     */
+    public TransferFunction[] getTransferFunctions() {
+        return transferFunctions.clone();
+    }
+
+    @Override
+    public void predict(final double[] inputs, final double[] outputs) {
+        predict(inputs, outputs, threadContext.get());
+    }
+
+    /**
+     * Calculates the outputs of the model for the specified inputs, using the
+     * specified context to store intermediate values.
+     * 
+     * @param inputs the input values
+     * @param outputs the array to store the output values in
+     * @param context the context to use, which must have been created by this
+     *            model and must not be in use by another thread
+     */
+    public void predict(final double[] inputs, final double[] outputs, final Context context) {
+        if (inputs.length != topology[0]) {
+            throw new IllegalArgumentException("inputs needs to be the same size as the input layer - bias");
+        }
+        if (outputs.length < topology[topology.length - 1]) {
+            throw new IllegalArgumentException("outputs is smaller than the output layer.");
+        }
+
+        byte[] layerInputs = context.first;
+        byte[] nextInputs = context.second;
+        final double[] values = context.values;
+
+        for (int i = 0; i < inputs.length; i++) {
+            layerInputs[i] = (byte) quantize(inputs[i], inputScales[0]);
+        }
+
+        for (int l = 0; l < weights.length; l++) {
+            final int inputCount = topology[l];
+            final int neurons = topology[l + 1];
+            final byte[] layerWeights = weights[l];
+            final float[] layerBiases = biases[l];
+            final double[] layerSumScales = sumScales[l];
+
+            for (int n = 0; n < neurons; n++) {
+                final int sum = Kernels.INSTANCE.dot(layerInputs, 0, layerWeights, n * inputCount, inputCount);
+                values[n] = sum * layerSumScales[n] + layerBiases[n];
+            }
+            transferFunctions[l].calculate(values, values, 0, neurons);
+
+            if (l < weights.length - 1) {
+                // Quantize the outputs for the next layer
+                final double nextScale = inputScales[l + 1];
+                for (int n = 0; n < neurons; n++) {
+                    nextInputs[n] = (byte) quantize(values[n], nextScale);
+                }
+
+                final byte[] temp = layerInputs;
+                layerInputs = nextInputs;
+                nextInputs = temp;
+            }
+        }
+
+        System.arraycopy(values, 0, outputs, 0, topology[topology.length - 1]);
+    }
+
+    /**
+     * Compares the outputs of this network with the outputs of the network it
+     * was created from, to find out how much accuracy was lost by
+     * quantization.
+     * 
+     * @param network the original network, which is not modified
+     * @param inputs the inputs to compare the outputs for, with one row per
+     *            sample
+     * @return the differences between the outputs
+     */
+    public Accuracy measureAccuracy(final Network network, final double[][] inputs) {
+        final CompiledNetwork reference = network.compileForInference();
+        final int outputCount = getOutputCount();
+        final double[] referenceOutputs = new double[outputCount];
+        final double[] quantizedOutputs = new double[outputCount];
+
+        double maxError = 0;
+        double errorSum = 0;
+        double squaredErrorSum = 0;
+        for (double[] input : inputs) {
+            reference.predict(input, referenceOutputs);
+            predict(input, quantizedOutputs);
+            for (int o = 0; o < outputCount; o++) {
+                final double error = Math.abs(quantizedOutputs[o] - referenceOutputs[o]);
+                maxError = Math.max(maxError, error);
+                errorSum += error;
+                squaredErrorSum += error * error;
+            }
+        }
+
+        final long count = (long) inputs.length * outputCount;
+        return count > 0 ? new Accuracy(maxError, errorSum / count, Math.sqrt(squaredErrorSum / count))
+                : new Accuracy(0, 0, 0);
+    }
+
+    /**
+     * Saves the quantized network to a file.
+     * 
+     * @param file the file to save to
+     * @throws IOException if the file could not be written
+     * 
+     * @see #save(OutputStream)
+     */
+    public void save(final File file) throws IOException {
+        try (OutputStream stream = new BufferedOutputStream(new FileOutputStream(file))) {
+            save(stream);
+        }
+    }
+
+    /**
+     * Saves the quantized network in a compact binary format. The format
+     * starts with the characters "NNQ8" and a version number, followed by the
+     * topology, the name of the transfer function of each layer after the
+     * input layer and the scales, biases and weights of each layer. All numbers are big-endian.
+     * 
+     * @param stream the stream to save to, which is not closed
+     * @throws IOException if the stream could not be written
+     */
+    public void save(final OutputStream stream) throws IOException {
+        final DataOutputStream data = new DataOutputStream(stream);
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+
+        data.writeInt(topology.length);
+        for (int size : topology) {
+            data.writeInt(size);
+        }
+        for (TransferFunction transferFunction : transferFunctions) {
+            data.writeUTF(transferFunction.toString());
+        }
+
+        for (int l = 0; l < weights.length; l++) {
+            data.writeFloat(inputScales[l]);
+            for (float scale : weightScales[l]) {
+                data.writeFloat(scale);
+            }
+            for (float bias : biases[l]) {
+                data.writeFloat(bias);
+            }
+            data.write(weights[l]);
+        }
+        data.flush();
+    }
+
+    /**
+     * Loads a quantized network from a file.
+     * 
+     * @param file the file to load from
+     * @return the quantized network
+     * @throws IOException if the file could not be read
+     * @throws Data.FormatException if the file is not a valid quantized
+     *             network
+     * 
+     * @see #load(InputStream)
+     */
+    public static QuantizedNetwork load(final File file) throws IOException, Data.FormatException {
+        try (InputStream stream = new BufferedInputStream(new FileInputStream(file))) {
+            return load(stream);
+        }
+    }
+
+    /**
+     * Loads a quantized network that was saved with
+     * {@link #save(OutputStream)}.
+     * 
+     * @param stream the stream to load from, which is not closed
+     * @return the quantized network
+     * @throws IOException if the stream could not be read
+     * @throws Data.FormatException if the stream does not contain a valid
+     *             quantized network
+     */
+    public static QuantizedNetwork load(final InputStream stream) throws IOException, Data.FormatException {
+        final DataInputStream data = new DataInputStream(stream);
+        if (data.readInt() != MAGIC) {
+            throw new Data.FormatException("Not a quantized network.");
+        }
+        final int version = data.readInt();
+        if (version != VERSION) {
+            throw new Data.FormatException("Unsupported quantized network version: " + version);
+        }
+
+        final int layerCount = data.readInt();
+        if (layerCount < 2) {
+            throw new Data.FormatException("Invalid topology.");
+        }
+        final int[] topology = new int[layerCount];
+        for (int l = 0; l < layerCount; l++) {
+            topology[l] = data.readInt();
+            if (topology[l] < 1) {
+                throw new Data.FormatException("Invalid topology.");
+            }
+        }
+
+        final int layers = layerCount - 1;
+        final TransferFunction[] transferFunctions = new TransferFunction[layers];
+        for (int l = 0; l < layers; l++) {
+            transferFunctions[l] = Data.parseTransferFunction(data.readUTF());
+            if (transferFunctions[l] == null) {
+                throw new Data.FormatException("Unrecognized transfer function.");
+            }
+        }
+
+        final float[] inputScales = new float[layers];
+        final float[][] weightScales = new float[layers][];
+        final byte[][] weights = new byte[layers][];
+        final float[][] biases = new float[layers][];
+        for (int l = 0; l < layers; l++) {
+            final int neurons = topology[l + 1];
+
+            inputScales[l] = data.readFloat();
+            weightScales[l] = new float[neurons];
+            for (int n = 0; n < neurons; n++) {
+                weightScales[l][n] = data.readFloat();
+            }
+            biases[l] = new float[neurons];
+            for (int n = 0; n < neurons; n++) {
+                biases[l][n] = data.readFloat();
+            }
+            weights[l] = new byte[neurons * topology[l]];
+            data.readFully(weights[l]);
+        }
+
+        return new QuantizedNetwork(topology, transferFunctions, inputScales, weightScales, weights, biases);
+    }
+}
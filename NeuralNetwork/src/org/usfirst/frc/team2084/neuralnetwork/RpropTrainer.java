@@ -0,0 +1,119 @@
+/* 
+ * Copyright (c) 2015 RobotsByTheC. All rights reserved.
+ *
+ * Open Source Software - may be modified and shared by FRC teams. The code must
+ * be accompanied by the BSD license file in the root directory of the project.
+ */
+package org.usfirst.frc.team2084.neuralnetwork;
+
+/**
+ * Trains a {@link Network} using resilient propagation, with the
+ * {@link Optimizer.Rprop} optimizer. Each epoch adds up the gradients of every
+ * sample and then updates every weight once, using a step size that adapts to
+ * the sign of its gradient, so no learning rate needs to be chosen. For the
+ * small networks used on the robot, this usually reaches the same error in
+ * far fewer epochs than updating the weights after every sample.
+ * 
+ * The gradients are calculated by a {@link DataParallelTrainer}, so the
+ * samples of an epoch can be split across several threads, and the result
+ * does not depend on the number of threads. It only keeps the gradients of a
+ * few shards per thread, so the memory used by an epoch does not grow with
+ * the number of samples.
+ * 
+ * @author Ben Wolsieffer
+ */
+public class RpropTrainer implements AutoCloseable {
+
+    private final DataParallelTrainer trainer;
+
+    /**
+     * Creates a trainer for the specified network that uses the calling
+     * thread and the default RPROP step sizes.
+     * 
+     * @param network the network to train
+     */
+    public RpropTrainer(final Network network) {
+        this(network, 1);
+    }
+
+    /**
+     * Creates a trainer for the specified network that uses the specified
+     * number of threads and the default RPROP step sizes.
+     * 
+     * @param network the network to train
+     * @param threads the number of worker threads
+     */
+    public RpropTrainer(final Network network, final int threads) {
+        this(network, threads, new Optimizer.Rprop());
+    }
+
+    /**
+     * Creates a trainer for the specified network that uses the specified
+     * number of threads and RPROP optimizer. If the network is not already
+     * using that optimizer, it is set, which clears the state of its previous
+     * optimizer.
+     * 
+     * @param network the network to train
+     * @param threads the number of worker threads
+     * @param optimizer the RPROP optimizer, which chooses the step sizes
+     */
+    public RpropTrainer(final Network network, final int threads, final Optimizer.Rprop optimizer) {
+        trainer = new DataParallelTrainer(network, threads);
+        // Keep the step sizes of a network that was loaded part way through
+        // training
+        if (!network.getOptimizer().toString().equals(optimizer.toString())) {
+            network.setOptimizer(optimizer);
+        }
+    }
+
+    /**
+     * Trains the network on every sample once, updating the weights a single
+     * time using the gradients of all the samples. The whole dataset is one
+     * batch of the {@link DataParallelTrainer}, which adds up the gradients a
+     * window of shards at a time.
+     * 
+     * @param inputs the input values, with one row per sample
+     * @param targetOutputs the target values for the outputs, with one row per
+     *            sample
+     * @return the average error of all the samples, before the weights were
+     *         updated
+     * @throws InterruptedException if the thread is interrupted while waiting
+     *             for the workers
+     */
+    public double trainEpoch(final double[][] inputs, final double[][] targetOutputs) throws InterruptedException {
+        if (inputs.length != targetOutputs.length) {
+            throw new IllegalArgumentException("inputs and targetOutputs lengths do not match.");
+        }
+        if (inputs.length == 0) {
+            return 0.0;
+        }
+        return trainer.trainBatch(inputs, targetOutputs, 0, inputs.length);
+    }
+
+    /**
+     * Gets the network that is being trained.
+     * 
+     * @return the network
+     */
+    public Network getNetwork() {
+        return trainer.getNetwork();
+    }
+
+    /**
+     * Gets the number of worker threads.
+     * 
+     * @return the number of threads
+     */
+    public int getThreads() {
+        return trainer.getThreads();
+    }
+
+    /**
+     * Stops the worker threads. The trainer can not be used after it is
+     * closed.
+     */
+    @Override
+    public void close() {
+        trainer.close();
+    }
+}
@@ -0,0 +1,86 @@
+/* 
+ * Copyright (c) 2015 RobotsByTheC. All rights reserved.
+ *
+ * Open Source Software - may be modified and shared by FRC teams. The code must
+ * be accompanied by the BSD license file in the root directory of the project.
+ */
+package org.usfirst.frc.team2084.neuralnetwork;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A sequence of training samples that is read one sample at a time, instead
+ * of being loaded into memory all at once like the samples of {@link Data}.
+ * This makes it possible to train on data sets that are larger than the heap,
+ * and to start training before the whole data set has been read.
+ * 
+ * A source reads one epoch (every sample once) and then reports that there are
+ * no more samples. {@link #rewind()} starts the next epoch.
+ * 
+ * @author Ben Wolsieffer
+ * 
+ * @see Network#trainEpoch(SampleSource, int)
+ */
+public interface SampleSource extends Closeable {
+
+    /**
+     * Gets the number of inputs in each sample.
+     * 
+     * @return the number of inputs
+     */
+    int getInputCount();
+
+    /**
+     * Gets the number of target outputs in each sample.
+     * 
+     * @return the number of target outputs
+     */
+    int getOutputCount();
+
+    /**
+     * Reads the next sample.
+     * 
+     * @param input the array to store the inputs in, which must have room for
+     *            {@link #getInputCount()} values
+     * @param targetOutput the array to store the target outputs in, which must
+     *            have room for {@link #getOutputCount()} values
+     * @return true if a sample was read, or false if every sample in this
+     *         epoch has already been read
+     * @throws IOException if the samples could not be read
+     * @throws Data.FormatException if the samples are not valid
+     */
+    boolean next(double[] input, double[] targetOutput) throws IOException, Data.FormatException;
+
+    /**
+     * Reads up to the specified number of samples into rows of a pair of
+     * matrices, so they can be used as a batch.
+     * 
+     * @param inputs the matrix to store the inputs in, with one row per
+     *            sample
+     * @param targetOutputs the matrix to store the target outputs in, with one
+     *            row per sample
+     * @param offset the index of the first row to fill
+     * @param length the largest number of samples to read
+     * @return the number of samples that were read, which is less than
+     *         {@code length} only at the end of the epoch
+     * @throws IOException if the samples could not be read
+     * @throws Data.FormatException if the samples are not valid
+     */
+    default int next(final double[][] inputs, final double[][] targetOutputs, final int offset, final int length)
+            throws IOException, Data.FormatException {
+        int count = 0;
+        while (count < length && next(inputs[offset + count], targetOutputs[offset + count])) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Starts a new epoch, so the samples are read again from the beginning.
+     * 
+     * @throws IOException if the samples could not be read
+     * @throws Data.FormatException if the samples are not valid
+     */
+    void rewind() throws IOException, Data.FormatException;
+}
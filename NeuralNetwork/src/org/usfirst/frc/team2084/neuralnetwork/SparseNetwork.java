@@ -0,0 +1,636 @@
+/* 
+ * Copyright (c) 2015 RobotsByTheC. All rights reserved.
+ *
+ * Open Source Software - may be modified and shared by FRC teams. The code must
+ * be accompanied by the BSD license file in the root directory of the project.
+ */
+package org.usfirst.frc.team2084.neuralnetwork;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * A version of {@link Network} that only stores the weights that have not been
+ * pruned. It is created from a trained network by one of the
+ * {@link #prune(Network, double) prune} methods, which remove the connections
+ * with the smallest weights. The bias connections are never pruned.
+ * 
+ * The weights between layer {@code l} and layer {@code l + 1} are stored as a
+ * compressed sparse row matrix, with one row for each neuron in layer
+ * {@code l + 1}. {@link #getRowStarts(int)} contains the index of the first
+ * weight of each row, {@link #getColumns(int)} contains the index of the
+ * neuron in layer {@code l} each weight comes from (the bias neuron is the
+ * last one) and {@link #getWeights(int)} contains the weights themselves. The
+ * forward and backward passes only touch the stored weights, so their cost is
+ * proportional to the number of connections that are left.
+ * 
+ * Training the network with {@link #backPropagation(double...)} fine-tunes the
+ * remaining weights, and the pruned connections stay at zero.
+ * 
+ * @author Ben Wolsieffer
+ */
+public class SparseNetwork {
+
+    private double recentAverageError;
+    private final int[] topology;
+    private double eta;
+    private double momentum;
+    /**
+     * The transfer function of each layer, with null for the input layer.
+     */
+    private final TransferFunction[] transferFunctions;
+    private final double[] results;
+
+    /**
+     * The output values of each layer, including the bias neuron.
+     */
+    private final double[][] outputs;
+    /**
+     * The most recent sum of the weighted inputs of each neuron in each layer.
+     */
+    private final double[][] sums;
+    /**
+     * The gradient of each neuron in each layer.
+     */
+    private final double[][] gradients;
+    /**
+     * The index of the first weight of each row, plus the total number of
+     * weights at the end.
+     */
+    private final int[][] rowStarts;
+    /**
+     * The index of the neuron each weight comes from, in increasing order
+     * within each row.
+     */
+    private final int[][] columns;
+    /**
+     * The weights that have not been pruned.
+     */
+    private final double[][] weights;
+    /**
+     * The change in each weight from the last time it was updated.
+     */
+    private final double[][] deltaWeights;
+
+    /**
+     * Creates a sparse network from weights that are already in compressed
+     * sparse row form. The arrays are used directly, not copied.
+     * 
+     * @param topology an array containing the size of each layer
+     * @param eta the learning rate
+     * @param momentum the learning momentum
+     * @param transferFunctions the transfer function of each layer after the
+     *            input layer
+     * @param rowStarts the index of the first weight of each row of each
+     *            layer, with an extra element containing the number of weights
+     * @param columns the index of the neuron each weight comes from
+     * @param weights the weights
+     * @throws IllegalArgumentException if the arrays do not describe a valid
+     *             sparse matrix for each layer
+     */
+    SparseNetwork(final int[] topology, final double eta, final double momentum,
+            final TransferFunction[] transferFunctions, final int[][] rowStarts, final int[][] columns,
+            final double[][] weights) {
+        this.topology = topology;
+        this.eta = eta;
+        this.momentum = momentum;
+        this.transferFunctions = Network.layerTransferFunctions(topology, transferFunctions);
+        this.rowStarts = rowStarts;
+        this.columns = columns;
+        this.weights = weights;
+
+        final int numberOfLayers = topology.length;
+        if (rowStarts.length != numberOfLayers - 1 || columns.length != numberOfLayers - 1
+                || weights.length != numberOfLayers - 1) {
+            throw new IllegalArgumentException("There must be one weight matrix for each layer except the output.");
+        }
+
+        outputs = new double[numberOfLayers][];
+        sums = new double[numberOfLayers][];
+        gradients = new double[numberOfLayers][];
+        deltaWeights = new double[numberOfLayers - 1][];
+
+        for (int layerNumber = 0; layerNumber < numberOfLayers; layerNumber++) {
+            final int layerSize = topology[layerNumber];
+            // Add 1 for bias
+            outputs[layerNumber] = new double[layerSize + 1];
+            sums[layerNumber] = new double[layerSize + 1];
+            gradients[layerNumber] = new double[layerSize + 1];
+
+            if (layerNumber < numberOfLayers - 1) {
+                checkLayer(layerNumber);
+                deltaWeights[layerNumber] = new double[weights[layerNumber].length];
+            }
+
+            outputs[layerNumber][layerSize] = 1.0;
+        }
+        results = new double[topology[numberOfLayers - 1]];
+    }
+
+    /**
+     * Makes sure the sparse matrix of a layer is valid.
+     * 
+     * @param num the layer index
+     */
+    private void checkLayer(final int num) {
+        final int[] layerRowStarts = rowStarts[num];
+        final int[] layerColumns = columns[num];
+        final int rowLength = topology[num] + 1;
+
+        if (layerRowStarts.length != topology[num + 1] + 1 || layerRowStarts[0] != 0
+                || layerRowStarts[layerRowStarts.length - 1] != layerColumns.length
+                || layerColumns.length != weights[num].length) {
+            throw new IllegalArgumentException("Invalid sparse matrix for layer " + num);
+        }
+        for (int n = 0; n < layerRowStarts.length - 1; n++) {
+            int previous = -1;
+            if (layerRowStarts[n + 1] < layerRowStarts[n]) {
+                throw new IllegalArgumentException("Invalid sparse matrix for layer " + num);
+            }
+            for (int w = layerRowStarts[n]; w < layerRowStarts[n + 1]; w++) {
+                if (layerColumns[w] <= previous || layerColumns[w] >= rowLength) {
+                    throw new IllegalArgumentException("Invalid connection in layer " + num + ": " + layerColumns[w]);
+                }
+                previous = layerColumns[w];
+            }
+        }
+    }
+
+    /**
+     * Creates a sparse copy of a network without the connections whose
+     * weights have an absolute value smaller than the threshold. Weights that
+     * are exactly zero are always removed, except for the bias connections,
+     * which are always kept.
+     * 
+     * @param network the network to prune
+     * @param threshold the smallest weight magnitude to keep
+     * @return the sparse network
+     */
+    public static SparseNetwork prune(final Network network, final double threshold) {
+        final double[] thresholds = new double[network.getTotalLayers() - 1];
+        Arrays.fill(thresholds, threshold);
+        return prune(network, thresholds);
+    }
+
+    /**
+     * Creates a sparse copy of a network, using a separate pruning threshold
+     * for the weights between each layer and the next. Sparse networks always
+     * use the momentum rule, so the delta weights of the kept connections are
+     * only copied if the network uses {@link Optimizer.Momentum}, and start
+     * at zero otherwise.
+     * 
+     * @param network the network to prune
+     * @param thresholds the smallest weight magnitude to keep for each layer
+     *            except the output layer
+     * @return the sparse network
+     * 
+     * @see #prune(Network, double)
+     */
+    public static SparseNetwork prune(final Network network, final double[] thresholds) {
+        final int[] topology = network.getTopology();
+        if (thresholds.length != topology.length - 1) {
+            throw new IllegalArgumentException("There must be one threshold for each layer except the output.");
+        }
+
+        final int[][] rowStarts = new int[topology.length - 1][];
+        final int[][] columns = new int[topology.length - 1][];
+        final double[][] weights = new double[topology.length - 1][];
+        final double[][] deltaWeights = new double[topology.length - 1][];
+
+        for (int l = 0; l < topology.length - 1; l++) {
+            final double[] layerWeights = network.getWeights(l);
+            final double[] layerDeltaWeights = network.getMomentumState(l);
+            final int rowLength = topology[l] + 1;
+            final int bias = topology[l];
+
+            int count = 0;
+            for (int w = 0; w < layerWeights.length; w++) {
+                if (keep(layerWeights[w], w % rowLength == bias, thresholds[l])) {
+                    count++;
+                }
+            }
+
+            final int[] layerRowStarts = rowStarts[l] = new int[topology[l + 1] + 1];
+            final int[] layerColumns = columns[l] = new int[count];
+            final double[] sparseWeights = weights[l] = new double[count];
+            final double[] sparseDeltaWeights = deltaWeights[l] = new double[count];
+
+            int k = 0;
+            for (int n = 0; n < topology[l + 1]; n++) {
+                layerRowStarts[n] = k;
+                for (int i = 0; i < rowLength; i++) {
+                    final int w = n * rowLength + i;
+                    if (keep(layerWeights[w], i == bias, thresholds[l])) {
+                        layerColumns[k] = i;
+                        sparseWeights[k] = layerWeights[w];
+                        if (layerDeltaWeights != null) {
+                            sparseDeltaWeights[k] = layerDeltaWeights[w];
+                        }
+                        k++;
+                    }
+                }
+            }
+            layerRowStarts[topology[l + 1]] = k;
+        }
+
+        final SparseNetwork sparseNetwork = new SparseNetwork(topology.clone(), network.getEta(),
+                network.getMomentum(), network.getTransferFunctions(), rowStarts, columns, weights);
+        for (int l = 0; l < deltaWeights.length; l++) {
+            System.arraycopy(deltaWeights[l], 0, sparseNetwork.deltaWeights[l], 0, deltaWeights[l].length);
+        }
+        return sparseNetwork;
+    }
+
+    /**
+     * Creates a sparse copy of a network with approximately the specified
+     * fraction of its (non-bias) connections removed. A single magnitude
+     * threshold is chosen for the whole network, so layers with many small
+     * weights lose more connections than others.
+     * 
+     * @param network the network to prune
+     * @param sparsity the fraction of the connections to remove, from 0 to 1
+     * @return the sparse network
+     */
+    public static SparseNetwork pruneToSparsity(final Network network, final double sparsity) {
+        if (!(sparsity >= 0.0 && sparsity <= 1.0)) {
+            throw new IllegalArgumentException("sparsity must be between 0 and 1.");
+        }
+
+        final int[] topology = network.getTopology();
+        int count = 0;
+        for (int l = 0; l < topology.length - 1; l++) {
+            count += topology[l + 1] * topology[l];
+        }
+
+        final double[] magnitudes = new double[count];
+        int m = 0;
+        for (int l = 0; l < topology.length - 1; l++) {
+            final double[] layerWeights = network.getWeights(l);
+            final int rowLength = topology[l] + 1;
+            for (int w = 0; w < layerWeights.length; w++) {
+                if (w % rowLength != topology[l]) {
+                    magnitudes[m++] = Math.abs(layerWeights[w]);
+                }
+            }
+        }
+        Arrays.sort(magnitudes);
+
+        // Everything smaller than the first weight that is kept is removed
+        final int removed = (int) Math.round(sparsity * count);
+        return prune(network, removed < count ? magnitudes[removed] : Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Decides whether a weight survives pruning.
+     * 
+     * @param weight the weight
+     * @param bias true if the weight belongs to a bias connection
+     * @param threshold the smallest weight magnitude to keep
+     * @return true if the weight should be kept
+     */
+    private static boolean keep(final double weight, final boolean bias, final double threshold) {
+        return bias || (weight != 0.0 && Math.abs(weight) >= threshold);
+    }
+
+    /**
+     * Creates a dense copy of this network, with zeros in place of the pruned
+     * connections. Training the dense network can make those weights
+     * non-zero again.
+     * 
+     * @return the dense network
+     */
+    public Network toNetwork() {
+        final Network network = new Network(topology.clone(), eta, momentum, getTransferFunctions());
+
+        for (int l = 0; l < weights.length; l++) {
+            final double[] layerWeights = network.getWeights(l);
+            final double[] layerDeltaWeights = network.getDeltaWeights(l);
+            final int rowLength = topology[l] + 1;
+            Arrays.fill(layerWeights, 0.0);
+            Arrays.fill(layerDeltaWeights, 0.0);
+            for (int n = 0; n < topology[l + 1]; n++) {
+                for (int w = rowStarts[l][n]; w < rowStarts[l][n + 1]; w++) {
+                    layerWeights[n * rowLength + columns[l][w]] = weights[l][w];
+                    layerDeltaWeights[n * rowLength + columns[l][w]] = deltaWeights[l][w];
+                }
+            }
+        }
+        return network;
+    }
+
+    /**
+     * Calculates the outputs of the network given the specified inputs.
+     * 
+     * @param inputValues input values to the network
+     * 
+     * @see Network#feedForward(double...)
+     */
+    public void feedForward(final double... inputValues) {
+        final double[] inputLayer = outputs[0];
+
+        if (inputValues.length != inputLayer.length - 1) {
+            throw new IllegalArgumentException("inputValues needs to be the same size as the input layer - bias");
+        }
+
+        System.arraycopy(inputValues, 0, inputLayer, 0, inputValues.length);
+
+        for (int layerNumber = 1; layerNumber < outputs.length; layerNumber++) {
+            final double[] prevOutputs = outputs[layerNumber - 1];
+            final int[] layerRowStarts = rowStarts[layerNumber - 1];
+            final int[] layerColumns = columns[layerNumber - 1];
+            final double[] layerWeights = weights[layerNumber - 1];
+            final double[] layerSums = sums[layerNumber];
+            final int layerSize = topology[layerNumber];
+
+            for (int n = 0; n < layerSize; n++) {
+                final int start = layerRowStarts[n];
+                layerSums[n] = Kernels.INSTANCE.sparseDot(layerWeights, layerColumns, start,
+                        layerRowStarts[n + 1] - start, prevOutputs);
+            }
+            transferFunctions[layerNumber].calculate(layerSums, outputs[layerNumber], 0, layerSize);
+        }
+    }
+
+    /**
+     * Performs back propagation learning on the network. Only the weights
+     * that were not pruned are updated.
+     * 
+     * @param targetValues the target values for the outputs
+     * 
+     * @see Network#backPropagation(double...)
+     */
+    public void backPropagation(final double... targetValues) {
+        final int outputLayerNumber = outputs.length - 1;
+        final double[] outputValues = outputs[outputLayerNumber];
+        final double[] outputSums = sums[outputLayerNumber];
+        final double[] outputGradients = gradients[outputLayerNumber];
+
+        if (targetValues.length != outputValues.length - 1) {
+            throw new IllegalArgumentException("targetValues needs to be the same size as the output layer.");
+        }
+
+        double error = 0.0;
+
+        final TransferFunction outputTransferFunction = transferFunctions[outputLayerNumber];
+        for (int n = 0; n < outputValues.length - 1; n++) {
+            final double delta = targetValues[n] - outputValues[n];
+            error += delta * delta;
+
+            outputGradients[n] = delta * outputTransferFunction.derivative(outputSums[n], outputValues[n]);
+        }
+        recentAverageError = Math.sqrt(error / outputValues.length);
+
+        // Calculate hidden layer gradients by scattering each gradient back
+        // through the connections that feed its neuron
+        for (int layerNumber = outputLayerNumber - 1; layerNumber > 0; layerNumber--) {
+            final double[] layerGradients = gradients[layerNumber];
+            final double[] nextGradients = gradients[layerNumber + 1];
+            final int[] nextRowStarts = rowStarts[layerNumber];
+            final int[] nextColumns = columns[layerNumber];
+            final double[] nextWeights = weights[layerNumber];
+            final int layerSize = topology[layerNumber];
+
+            // The bias element collects a gradient too, but it is never used
+            Arrays.fill(layerGradients, 0.0);
+
+            for (int n = 0; n < topology[layerNumber + 1]; n++) {
+                final int start = nextRowStarts[n];
+                Kernels.INSTANCE.sparseAxpy(nextGradients[n], nextWeights, nextColumns, start,
+                        nextRowStarts[n + 1] - start, layerGradients);
+            }
+
+            transferFunctions[layerNumber].multiplyDerivative(sums[layerNumber], outputs[layerNumber],
+                    layerGradients, 0, layerSize);
+        }
+
+        // Update connection weights
+        for (int layerNumber = outputLayerNumber; layerNumber > 0; layerNumber--) {
+            final double[] layerGradients = gradients[layerNumber];
+            final double[] prevOutputs = outputs[layerNumber - 1];
+            final int[] layerRowStarts = rowStarts[layerNumber - 1];
+
+            for (int n = 0; n < topology[layerNumber]; n++) {
+                final int start = layerRowStarts[n];
+                Kernels.INSTANCE.sparseUpdateWeights(weights[layerNumber - 1], deltaWeights[layerNumber - 1],
+                        columns[layerNumber - 1], start, layerRowStarts[n + 1] - start, prevOutputs, eta,
+                        layerGradients[n], momentum);
+            }
+        }
+    }
+
+    /**
+     * Gets the results of the network.
+     * 
+     * @return an array containing the values of each of the output neurons
+     */
+    public double[] getResults() {
+        System.arraycopy(outputs[outputs.length - 1], 0, results, 0, results.length);
+        return results;
+    }
+
+    /**
+     * Gets the learning rate of the network.
+     * 
+     * @return the learning rate
+     */
+    public double getEta() {
+        return eta;
+    }
+
+    /**
+     * Sets the learning rate of the network.
+     * 
+     * @param eta the learning rate
+     */
+    public void setEta(double eta) {
+        this.eta = eta;
+    }
+
+    /**
+     * Gets the momentum of the network.
+     * 
+     * @return the momentum
+     */
+    public double getMomentum() {
+        return momentum;
+    }
+
+    /**
+     * Sets the momentum of the network.
+     * 
+     * @param momentum the momentum
+     */
+    public void setMomentum(double momentum) {
+        this.momentum = momentum;
+    }
+
+    /**
+     * Gets the transfer function of the output layer.
+     * 
+     * @return the transfer function
+     * 
+     * @see Network#getTransferFunction()
+     */
+    public TransferFunction getTransferFunction() {
+        return transferFunctions[transferFunctions.length - 1];
+    }
+
+    /**
+     * Gets the transfer function of the specified layer.
+     * 
+     * @param num the layer index, which must be greater than 0
+     * @return the transfer function
+     */
+    public TransferFunction getTransferFunction(final int num) {
+        if (num < 1 || num >= transferFunctions.length) {
+            throw new IllegalArgumentException("Invalid layer for a transfer function: " + num);
+        }
+        return transferFunctions[num];
+    }
+
+    /**
+     * Gets the transfer functions of every layer after the input layer.
+     * 
+     * @return a new array containing the transfer functions
+     */
+    public TransferFunction[] getTransferFunctions() {
+        return Arrays.copyOfRange(transferFunctions, 1, transferFunctions.length);
+    }
+
+    /**
+     * Gets the topology of the network in the form of an int[], with each
+     * element containing the size of a layer.
+     * 
+     * @return the topology of the network
+     */
+    public int[] getTopology() {
+        return topology;
+    }
+
+    /**
+     * Get the most recent average error calculated during backprogagation.
+     * 
+     * @return the average error
+     */
+    public double getRecentAverageError() {
+        return recentAverageError;
+    }
+
+    /**
+     * Gets the number of layers in the network.
+     * 
+     * @return the number of layers in the network
+     */
+    public int getTotalLayers() {
+        return outputs.length;
+    }
+
+    /**
+     * Gets the index of the first weight of each row of the sparse matrix
+     * between the specified layer and the next one. Row {@code n} contains
+     * the weights from {@code getRowStarts(num)[n]} up to (but not including)
+     * {@code getRowStarts(num)[n + 1]}. The array must not be modified.
+     * 
+     * @param num the layer index, which must be less than the index of the
+     *            output layer
+     * @return the row start indices
+     */
+    public int[] getRowStarts(final int num) {
+        return rowStarts[num];
+    }
+
+    /**
+     * Gets the index of the neuron each weight between the specified layer
+     * and the next one comes from. The array must not be modified.
+     * 
+     * @param num the layer index, which must be less than the index of the
+     *            output layer
+     * @return the column indices
+     */
+    public int[] getColumns(final int num) {
+        return columns[num];
+    }
+
+    /**
+     * Gets the weights between the specified layer and the next one that
+     * have not been pruned. Like {@link Network#getWeights(int)}, this is the
+     * internal array, so changes to it affect the network.
+     * 
+     * @param num the layer index, which must be less than the index of the
+     *            output layer
+     * @return the non-zero weights
+     */
+    public double[] getWeights(final int num) {
+        return weights[num];
+    }
+
+    /**
+     * Gets the weight of the connection from a neuron in the specified layer
+     * to a neuron in the next layer.
+     * 
+     * @param num the layer index
+     * @param from the index of the neuron in the layer
+     * @param to the index of the neuron in the next layer
+     * @return the weight of the connection, or 0 if it was pruned
+     */
+    public double getWeight(final int num, final int from, final int to) {
+        final int w = Arrays.binarySearch(columns[num], rowStarts[num][to], rowStarts[num][to + 1], from);
+        return w >= 0 ? weights[num][w] : 0.0;
+    }
+
+    /**
+     * Gets the number of connections between the specified layer and the next
+     * one that have not been pruned, including the bias connections.
+     * 
+     * @param num the layer index
+     * @return the number of stored weights
+     */
+    public int getWeightCount(final int num) {
+        return weights[num].length;
+    }
+
+    /**
+     * Gets the total number of connections that have not been pruned,
+     * including the bias connections.
+     * 
+     * @return the number of stored weights
+     */
+    public int getWeightCount() {
+        int count = 0;
+        for (double[] layerWeights : weights) {
+            count += layerWeights.length;
+        }
+        return count;
+    }
+
+    /**
+     * Clears the state of the network and sets every remaining weight to a
+     * random value chosen by the {@link WeightInitializer} that suits each
+     * layer's transfer function. The pruned connections stay pruned.
+     */
+    public void reset() {
+        recentAverageError = 0;
+
+        for (int l = 0; l < outputs.length; l++) {
+            Arrays.fill(outputs[l], 0.0);
+            Arrays.fill(sums[l], 0.0);
+            Arrays.fill(gradients[l], 0.0);
+            // Reset the bias neuron's output to 1
+            outputs[l][outputs[l].length - 1] = 1.0;
+        }
+
+        final SplittableRandom random = Network.newRandom();
+        for (int l = 0; l < weights.length; l++) {
+            final WeightInitializer initializer = WeightInitializer.forTransferFunction(transferFunctions[l + 1]);
+            final double[] layerWeights = weights[l];
+            final int fanIn = topology[l];
+            final int fanOut = topology[l + 1];
+            for (int w = 0; w < layerWeights.length; w++) {
+                // The bias weight is the last one in each row
+                layerWeights[w] = columns[l][w] == fanIn ? initializer.bias(fanIn, fanOut, random)
+                        : initializer.weight(fanIn, fanOut, random);
+            }
+            Arrays.fill(deltaWeights[l], 0.0);
+        }
+    }
+}
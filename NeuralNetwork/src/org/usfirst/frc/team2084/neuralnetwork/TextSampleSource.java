@@ -0,0 +1,149 @@
+/* 
+ * Copyright (c) 2015 RobotsByTheC. All rights reserved.
+ *
+ * Open Source Software - may be modified and shared by FRC teams. The code must
+ * be accompanied by the BSD license file in the root directory of the project.
+ */
+package org.usfirst.frc.team2084.neuralnetwork;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * A {@link SampleSource} that streams the {@code in} and {@code out} lines of
+ * a file in the text format of {@link Data}. The number of inputs and outputs
+ * comes from the {@code topology} line, which must come before the samples.
+ * Each {@code in} line must be followed by its {@code out} line, like the
+ * files written by {@link Data#save(File)}. Every other label is ignored.
+ * 
+ * Each epoch reads the file again from the beginning, so only the current
+ * line is kept in memory.
+ * 
+ * @author Ben Wolsieffer
+ */
+public class TextSampleSource implements SampleSource {
+
+    private final File file;
+    private int inputCount;
+    private int outputCount;
+    private DataTokenizer tokenizer;
+
+    /**
+     * Opens a network data file and reads up to its topology.
+     * 
+     * @param file the file to read
+     * @throws IOException if the file could not be opened
+     * @throws Data.FormatException if the file does not contain a topology
+     */
+    public TextSampleSource(final File file) throws IOException, Data.FormatException {
+        this.file = file;
+        open();
+    }
+
+    /**
+     * Opens the file and skips everything before the topology.
+     * 
+     * @throws IOException if the file could not be opened
+     * @throws Data.FormatException if the file does not contain a topology
+     */
+    private void open() throws IOException, Data.FormatException {
+        tokenizer = new DataTokenizer(new FileInputStream(file));
+        while (tokenizer.nextLine()) {
+            final String label = tokenizer.nextLabel();
+            if ("topology".equals(label)) {
+                int layers = 0;
+                int first = 0;
+                int last = 0;
+                while (tokenizer.hasNextInt()) {
+                    last = tokenizer.nextInt();
+                    if (layers++ == 0) {
+                        first = last;
+                    }
+                }
+                if (layers < 1) {
+                    throw new Data.FormatException("Invalid topology.");
+                }
+                inputCount = first;
+                outputCount = last;
+                return;
+            } else if ("in".equals(label) || "out".equals(label)) {
+                throw new Data.FormatException("Samples must appear after topology.");
+            }
+        }
+        throw new Data.FormatException("No topology defined.");
+    }
+
+    @Override
+    public int getInputCount() {
+        return inputCount;
+    }
+
+    @Override
+    public int getOutputCount() {
+        return outputCount;
+    }
+
+    @Override
+    public boolean next(final double[] input, final double[] targetOutput) throws Data.FormatException {
+        boolean inputRead = false;
+        while (tokenizer.nextLine()) {
+            final String label = tokenizer.nextLabel();
+            if ("in".equals(label)) {
+                if (inputRead) {
+                    throw new Data.FormatException("Mismatched input output data samples.");
+                }
+                readValues(input, inputCount, "Warning: ignoring extra training input.", "Too few training inputs.");
+                inputRead = true;
+            } else if ("out".equals(label)) {
+                if (!inputRead) {
+                    throw new Data.FormatException("Mismatched input output data samples.");
+                }
+                readValues(targetOutput, outputCount, "Warning: ignoring extra target output.",
+                        "Too few target outputs.");
+                return true;
+            }
+        }
+        if (inputRead) {
+            throw new Data.FormatException("Mismatched input output data samples.");
+        }
+        return false;
+    }
+
+    /**
+     * Reads the values on the rest of the current line, the same way as
+     * {@link Data}.
+     * 
+     * @param values the array to store the values in
+     * @param count the number of values to read
+     * @param extraWarning the warning to print if there are too many values
+     * @param tooFewMessage the error message if there are too few values
+     * @throws Data.FormatException if there are too few values
+     */
+    private void readValues(final double[] values, final int count, final String extraWarning,
+            final String tooFewMessage) throws Data.FormatException {
+        int i;
+        for (i = 0; tokenizer.hasNextDouble(); i++) {
+            final double value = tokenizer.nextDouble();
+            if (i >= count) {
+                System.err.println(extraWarning);
+            } else {
+                values[i] = value;
+            }
+        }
+        if (i < count) {
+            throw new Data.FormatException(tooFewMessage);
+        }
+    }
+
+    @Override
+    public void rewind() throws IOException, Data.FormatException {
+        tokenizer.close();
+        open();
+    }
+
+    @Override
+    public void close() {
+        tokenizer.close();
+    }
+}
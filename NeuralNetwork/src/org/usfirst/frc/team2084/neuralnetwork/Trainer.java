@@ -0,0 +1,415 @@
+/* 
+ * Copyright (c) 2015 RobotsByTheC. All rights reserved.
+ *
+ * Open Source Software - may be modified and shared by FRC teams. The code must
+ * be accompanied by the BSD license file in the root directory of the project.
+ */
+package org.usfirst.frc.team2084.neuralnetwork;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Trains a {@link Network} on a {@link Dataset} for a number of epochs, and
+ * decides when to stop. The error of each epoch is the average error of every
+ * sample in the epoch, not just the last one, so training stops when the
+ * network is actually good enough. Training can also stop when the error
+ * stops improving, or when the error on a separate validation set starts to
+ * get worse.
+ * 
+ * The trainer does not print anything or depend on a user interface. Progress
+ * is reported to {@link Listener}s, which are called on the training thread.
+ * 
+ * @author Ben Wolsieffer
+ */
+public class Trainer {
+
+    /**
+     * The default maximum number of epochs.
+     */
+    public static final int DEFAULT_MAX_EPOCHS = 1000;
+
+    /**
+     * The reason that training stopped.
+     */
+    public enum StopReason {
+        /**
+         * The epoch error reached the target error.
+         */
+        TARGET_ERROR,
+        /**
+         * The epoch error did not improve enough for the number of epochs set
+         * by {@link Trainer#setPatience(int, double)}.
+         */
+        PLATEAU,
+        /**
+         * The validation error did not improve for the number of epochs set
+         * by {@link Trainer#setValidation(Dataset, int)}.
+         */
+        VALIDATION,
+        /**
+         * The maximum number of epochs was reached.
+         */
+        MAX_EPOCHS,
+        /**
+         * {@link Trainer#stop()} was called or the thread was interrupted.
+         */
+        STOPPED
+    }
+
+    /**
+     * Receives the progress of a {@link Trainer}.
+     */
+    @FunctionalInterface
+    public interface Listener {
+
+        /**
+         * Called after an epoch is completed.
+         * 
+         * @param epoch the number of epochs that have been completed
+         * @param error the average error of the samples in the epoch
+         * @param validationError the average error of the validation samples
+         *            after the epoch, or {@link Double#NaN} if there is no
+         *            validation set
+         */
+        void epochCompleted(int epoch, double error, double validationError);
+    }
+
+    /**
+     * A listener and how often it is called.
+     */
+    private static class ListenerEntry {
+
+        private final Listener listener;
+        private final int interval;
+
+        private ListenerEntry(final Listener listener, final int interval) {
+            this.listener = listener;
+            this.interval = interval;
+        }
+    }
+
+    private final Network network;
+    private final List<ListenerEntry> listeners = new ArrayList<>();
+
+    private int maxEpochs = DEFAULT_MAX_EPOCHS;
+    private int batchSize = 1;
+    private double targetError = 0.0;
+    private int patience = 0;
+    private double minImprovement = 0.0;
+    private Dataset validation;
+    private int validationPatience = 0;
+    private SplittableRandom random;
+
+    private volatile boolean stopRequested;
+
+    // The state of the current or last training run
+    private int epoch;
+    private double error = Double.NaN;
+    private double validationError = Double.NaN;
+
+    /**
+     * Creates a trainer for the specified network. By default, it trains one
+     * sample at a time for at most {@link #DEFAULT_MAX_EPOCHS} epochs, without
+     * shuffling, and none of the other stopping criteria are used.
+     * 
+     * @param network the network to train
+     */
+    public Trainer(final Network network) {
+        this.network = network;
+    }
+
+    /**
+     * Trains the network until one of the stopping criteria is met. The epoch
+     * count starts from zero every time this is called.
+     * 
+     * @param dataset the training samples, which are shuffled in place before
+     *            each epoch if shuffling is enabled
+     * @return the reason that training stopped
+     */
+    public StopReason train(final Dataset dataset) {
+        if (dataset.size() == 0) {
+            throw new IllegalArgumentException("There must be at least one sample.");
+        }
+
+        stopRequested = false;
+        epoch = 0;
+        error = Double.NaN;
+        validationError = Double.NaN;
+
+        double bestError = Double.POSITIVE_INFINITY;
+        int bestErrorEpoch = 0;
+        double bestValidationError = Double.NaN;
+        int bestValidationEpoch = 0;
+        // A copy of the weights with the lowest validation error
+        final double[][] bestWeights = validation != null && validationPatience > 0
+                ? Workspace.createWeightGradients(network.getTopology()) : null;
+
+        StopReason reason = null;
+        while (reason == null) {
+            if (stopRequested || Thread.currentThread().isInterrupted()) {
+                reason = StopReason.STOPPED;
+                break;
+            }
+
+            if (random != null) {
+                dataset.shuffle(random);
+            }
+            error = network.trainEpoch(dataset, batchSize);
+            epoch++;
+
+            if (validation != null) {
+                validationError = network.calculateError(validation);
+                if (!(validationError >= bestValidationError)) {
+                    bestValidationError = validationError;
+                    bestValidationEpoch = epoch;
+                    if (bestWeights != null) {
+                        copyWeights(bestWeights);
+                    }
+                }
+            }
+
+            if (error < bestError - minImprovement) {
+                bestError = error;
+                bestErrorEpoch = epoch;
+            }
+
+            if (error <= targetError) {
+                reason = StopReason.TARGET_ERROR;
+            } else if (bestWeights != null && epoch - bestValidationEpoch >= validationPatience) {
+                reason = StopReason.VALIDATION;
+            } else if (patience > 0 && epoch - bestErrorEpoch >= patience) {
+                reason = StopReason.PLATEAU;
+            } else if (epoch >= maxEpochs) {
+                reason = StopReason.MAX_EPOCHS;
+            }
+
+            notifyListeners(reason != null);
+        }
+
+        if (reason == StopReason.VALIDATION) {
+            // Go back to the weights from before the network started to
+            // overfit
+            for (int l = 0; l < bestWeights.length; l++) {
+                System.arraycopy(bestWeights[l], 0, network.getWeights(l), 0, bestWeights[l].length);
+            }
+            validationError = bestValidationError;
+        }
+        return reason;
+    }
+
+    /**
+     * Copies the current weights of the network.
+     * 
+     * @param destination the arrays to copy the weights into
+     */
+    private void copyWeights(final double[][] destination) {
+        for (int l = 0; l < destination.length; l++) {
+            System.arraycopy(network.getWeights(l), 0, destination[l], 0, destination[l].length);
+        }
+    }
+
+    /**
+     * Calls the listeners whose interval divides the current epoch.
+     * 
+     * @param last true if this is the last epoch, in which case every listener
+     *            is called
+     */
+    private void notifyListeners(final boolean last) {
+        for (final ListenerEntry entry : listeners) {
+            if (last || epoch % entry.interval == 0) {
+                entry.listener.epochCompleted(epoch, error, validationError);
+            }
+        }
+    }
+
+    /**
+     * Stops training after the current epoch. This can be called from any
+     * thread.
+     */
+    public void stop() {
+        stopRequested = true;
+    }
+
+    /**
+     * Adds a listener that is called after every epoch.
+     * 
+     * @param listener the listener
+     */
+    public void addListener(final Listener listener) {
+        addListener(listener, 1);
+    }
+
+    /**
+     * Adds a listener that is called after every {@code interval} epochs, and
+     * after the last epoch.
+     * 
+     * @param listener the listener
+     * @param interval the number of epochs between calls
+     */
+    public void addListener(final Listener listener, final int interval) {
+        if (interval < 1) {
+            throw new IllegalArgumentException("interval must be positive.");
+        }
+        listeners.add(new ListenerEntry(listener, interval));
+    }
+
+    /**
+     * Removes a listener.
+     * 
+     * @param listener the listener to remove
+     */
+    public void removeListener(final Listener listener) {
+        listeners.removeIf((e) -> e.listener == listener);
+    }
+
+    /**
+     * Gets the network that is being trained.
+     * 
+     * @return the network
+     */
+    public Network getNetwork() {
+        return network;
+    }
+
+    /**
+     * Gets the maximum number of epochs.
+     * 
+     * @return the maximum number of epochs
+     */
+    public int getMaxEpochs() {
+        return maxEpochs;
+    }
+
+    /**
+     * Sets the maximum number of epochs.
+     * 
+     * @param maxEpochs the maximum number of epochs
+     */
+    public void setMaxEpochs(final int maxEpochs) {
+        if (maxEpochs < 1) {
+            throw new IllegalArgumentException("maxEpochs must be positive.");
+        }
+        this.maxEpochs = maxEpochs;
+    }
+
+    /**
+     * Gets the number of samples in each batch.
+     * 
+     * @return the batch size
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Sets the number of samples in each batch. A batch size of one updates
+     * the weights after every sample, like
+     * {@link Network#backPropagation(double...)}.
+     * 
+     * @param batchSize the batch size
+     */
+    public void setBatchSize(final int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be positive.");
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Gets the epoch error that stops training.
+     * 
+     * @return the target error
+     */
+    public double getTargetError() {
+        return targetError;
+    }
+
+    /**
+     * Sets the epoch error that stops training. The default of zero means
+     * training only stops for one of the other reasons.
+     * 
+     * @param targetError the target error
+     */
+    public void setTargetError(final double targetError) {
+        this.targetError = targetError;
+    }
+
+    /**
+     * Stops training if the epoch error does not improve on the best error so
+     * far by more than {@code minImprovement} for {@code patience} epochs.
+     * 
+     * @param patience the number of epochs to wait, or zero to disable this
+     * @param minImprovement the smallest decrease in error that counts as an
+     *            improvement
+     */
+    public void setPatience(final int patience, final double minImprovement) {
+        if (patience < 0) {
+            throw new IllegalArgumentException("patience must not be negative.");
+        }
+        this.patience = patience;
+        this.minImprovement = minImprovement;
+    }
+
+    /**
+     * Sets the samples that are used to measure the error after each epoch,
+     * which should not be part of the training samples. If the validation
+     * error does not improve for {@code patience} epochs, training stops and
+     * the network goes back to the weights that had the lowest validation
+     * error.
+     * 
+     * @param validation the validation samples, or null to disable validation
+     * @param patience the number of epochs to wait, or zero to only measure
+     *            the validation error
+     */
+    public void setValidation(final Dataset validation, final int patience) {
+        if (patience < 0) {
+            throw new IllegalArgumentException("patience must not be negative.");
+        }
+        this.validation = validation;
+        validationPatience = patience;
+    }
+
+    /**
+     * Sets the random number generator used to shuffle the training samples
+     * before each epoch.
+     * 
+     * @param random the random number generator, or null to use the samples
+     *            in order
+     */
+    public void setShuffle(final SplittableRandom random) {
+        this.random = random;
+    }
+
+    /**
+     * Gets the number of epochs completed by the current or last training run.
+     * 
+     * @return the number of epochs
+     */
+    public int getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * Gets the average error of the samples in the last epoch.
+     * 
+     * @return the epoch error, or {@link Double#NaN} if no epoch has been
+     *         completed
+     */
+    public double getError() {
+        return error;
+    }
+
+    /**
+     * Gets the validation error after the last epoch. If training stopped
+     * because of {@link StopReason#VALIDATION}, this is the error of the
+     * weights that were restored.
+     * 
+     * @return the validation error, or {@link Double#NaN} if there is no
+     *         validation set
+     */
+    public double getValidationError() {
+        return validationError;
+    }
+}
@@ -15,6 +15,67 @@ public interface TransferFunction {
 
     public double derivative(double x);
 
+    /**
+     * Calculates the derivative of the function, given both the input and the
+     * output that {@link #calculate(double)} returned for it. Functions whose
+     * derivative can be written in terms of their output (like the sigmoid
+     * and hyperbolic tangent) override this to avoid evaluating the function
+     * again.
+     * 
+     * @param x the input of the function
+     * @param y the output of the function for {@code x}
+     * @return the derivative of the function at {@code x}
+     */
+    public default double derivative(double x, double y) {
+        return derivative(x);
+    }
+
+    /**
+     * Calculates the function for a range of values. {@code x} and {@code y}
+     * can be the same array.
+     * 
+     * @param x the input values
+     * @param y the array to store the output values in
+     * @param offset the index of the first value in both arrays
+     * @param length the number of values
+     */
+    public default void calculate(double[] x, double[] y, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            y[i] = calculate(x[i]);
+        }
+    }
+
+    /**
+     * Calculates the derivative of the function for a range of values.
+     * 
+     * @param x the input values of the function
+     * @param y the output values of the function for each input
+     * @param derivatives the array to store the derivatives in
+     * @param offset the index of the first value in all three arrays
+     * @param length the number of values
+     */
+    public default void derivative(double[] x, double[] y, double[] derivatives, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            derivatives[i] = derivative(x[i], y[i]);
+        }
+    }
+
+    /**
+     * Multiplies a range of values by the derivative of the function. This is
+     * used to turn the error at the output of each neuron into its gradient.
+     * 
+     * @param x the input values of the function
+     * @param y the output values of the function for each input
+     * @param values the values to multiply by the derivative
+     * @param offset the index of the first value in all three arrays
+     * @param length the number of values
+     */
+    public default void multiplyDerivative(double[] x, double[] y, double[] values, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            values[i] *= derivative(x[i], y[i]);
+        }
+    }
+
     public static class Sigmoid implements TransferFunction {
 
         @Override
@@ -28,13 +89,51 @@ public interface TransferFunction {
             return expnegx / Math.pow((1 + expnegx), 2);
         }
 
+        @Override
+        public double derivative(double x, double y) {
+            return y * (1.0 - y);
+        }
+
+        @Override
+        public void calculate(double[] x, double[] y, int offset, int length) {
+            for (int i = offset; i < offset + length; i++) {
+                y[i] = 1 / (1 + Math.exp(-x[i]));
+            }
+        }
+
+        @Override
+        public void multiplyDerivative(double[] x, double[] y, double[] values, int offset, int length) {
+            for (int i = offset; i < offset + length; i++) {
+                values[i] *= y[i] * (1.0 - y[i]);
+            }
+        }
+
         @Override
         public String toString() {
             return "sig";
         }
     }
 
-    public static class Step implements TransferFunction {
+    /**
+     * The original name of {@link ReLU}, which is kept so old network files
+     * can still be loaded. Its derivative used to always be 1.0, which was
+     * wrong for negative inputs.
+     */
+    public static class Step extends ReLU {
+
+        @Override
+        public String toString() {
+            return "step";
+        }
+    }
+
+    /**
+     * The rectified linear unit, which passes positive values through and
+     * replaces negative values with 0. It is much cheaper to calculate than
+     * the sigmoid or hyperbolic tangent, which makes it a good choice for
+     * hidden layers.
+     */
+    public static class ReLU implements TransferFunction {
 
         @Override
         public double calculate(double x) {
@@ -43,12 +142,152 @@ public interface TransferFunction {
 
         @Override
         public double derivative(double x) {
+            return x < 0 ? 0.0 : 1.0;
+        }
+
+        @Override
+        public double derivative(double x, double y) {
+            return x < 0 ? 0.0 : 1.0;
+        }
+
+        @Override
+        public void calculate(double[] x, double[] y, int offset, int length) {
+            for (int i = offset; i < offset + length; i++) {
+                y[i] = x[i] < 0 ? 0 : x[i];
+            }
+        }
+
+        @Override
+        public void multiplyDerivative(double[] x, double[] y, double[] values, int offset, int length) {
+            for (int i = offset; i < offset + length; i++) {
+                if (x[i] < 0) {
+                    values[i] = 0.0;
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "relu";
+        }
+    }
+
+    /**
+     * A version of {@link ReLU} that multiplies negative values by a small
+     * slope instead of replacing them with 0, so neurons with negative inputs
+     * still learn.
+     */
+    public static class LeakyReLU implements TransferFunction {
+
+        /**
+         * The slope that is used if none is specified.
+         */
+        public static final double DEFAULT_SLOPE = 0.01;
+
+        private final double slope;
+
+        /**
+         * Creates a leaky ReLU with the default slope.
+         */
+        public LeakyReLU() {
+            this(DEFAULT_SLOPE);
+        }
+
+        /**
+         * Creates a leaky ReLU with the specified slope for negative inputs.
+         * 
+         * @param slope the slope
+         */
+        public LeakyReLU(double slope) {
+            this.slope = slope;
+        }
+
+        /**
+         * Gets the slope that is used for negative inputs.
+         * 
+         * @return the slope
+         */
+        public double getSlope() {
+            return slope;
+        }
+
+        @Override
+        public double calculate(double x) {
+            return x < 0 ? slope * x : x;
+        }
+
+        @Override
+        public double derivative(double x) {
+            return x < 0 ? slope : 1.0;
+        }
+
+        @Override
+        public double derivative(double x, double y) {
+            return x < 0 ? slope : 1.0;
+        }
+
+        @Override
+        public void calculate(double[] x, double[] y, int offset, int length) {
+            for (int i = offset; i < offset + length; i++) {
+                y[i] = x[i] < 0 ? slope * x[i] : x[i];
+            }
+        }
+
+        @Override
+        public void multiplyDerivative(double[] x, double[] y, double[] values, int offset, int length) {
+            for (int i = offset; i < offset + length; i++) {
+                if (x[i] < 0) {
+                    values[i] *= slope;
+                }
+            }
+        }
+
+        /**
+         * Gets the name of the function. If the slope is not the default, it
+         * is added to the name in parentheses.
+         */
+        @Override
+        public String toString() {
+            return slope == DEFAULT_SLOPE ? "leaky_relu" : "leaky_relu(" + slope + ")";
+        }
+    }
+
+    /**
+     * The identity function, which is useful for output layers that need to
+     * produce values outside of [-1, 1].
+     */
+    public static class Linear implements TransferFunction {
+
+        @Override
+        public double calculate(double x) {
+            return x;
+        }
+
+        @Override
+        public double derivative(double x) {
+            return 1.0;
+        }
+
+        @Override
+        public double derivative(double x, double y) {
             return 1.0;
         }
 
+        @Override
+        public void calculate(double[] x, double[] y, int offset, int length) {
+            if (x != y) {
+                System.arraycopy(x, offset, y, offset, length);
+            }
+        }
+
+        @Override
+        public void multiplyDerivative(double[] x, double[] y, double[] values, int offset, int length) {
+            // The derivative is always 1
+        }
+
         @Override
         public String toString() {
-            return "step";
+            return "linear";
         }
     }
 
@@ -65,9 +304,167 @@ public interface TransferFunction {
             return 1.0 - tanhx * tanhx;
         }
 
+        @Override
+        public double derivative(double x, double y) {
+            return 1.0 - y * y;
+        }
+
+        @Override
+        public void calculate(double[] x, double[] y, int offset, int length) {
+            for (int i = offset; i < offset + length; i++) {
+                y[i] = Math.tanh(x[i]);
+            }
+        }
+
+        @Override
+        public void multiplyDerivative(double[] x, double[] y, double[] values, int offset, int length) {
+            for (int i = offset; i < offset + length; i++) {
+                values[i] *= 1.0 - y[i] * y[i];
+            }
+        }
+
         @Override
         public String toString() {
             return "tanh";
         }
     }
+
+    /**
+     * An approximation of the hyperbolic tangent that uses linear
+     * interpolation in a lookup table instead of calling {@link Math#tanh}.
+     * The table covers inputs from -{@link #RANGE} to {@link #RANGE}, and
+     * larger inputs are clamped to -1 or 1. The result differs from
+     * {@link Math#tanh} by at most {@link #MAX_ERROR}.
+     * 
+     * The derivative is calculated from the approximate output, so it is
+     * consistent with the values used during training.
+     */
+    public static class FastHyperbolicTangent implements TransferFunction {
+
+        /**
+         * The largest input (in magnitude) that is looked up in the table.
+         */
+        public static final double RANGE = 8.0;
+        /**
+         * The maximum difference between the output of this function and
+         * {@link Math#tanh}.
+         */
+        public static final double MAX_ERROR = 6e-6;
+
+        /**
+         * The number of table entries per unit of input.
+         */
+        static final int RESOLUTION = 128;
+        private static final double[] TABLE = new double[(int) (2 * RANGE * RESOLUTION) + 1];
+
+        static {
+            for (int i = 0; i < TABLE.length; i++) {
+                TABLE[i] = Math.tanh((double) i / RESOLUTION - RANGE);
+            }
+        }
+
+        /**
+         * Looks up the approximate hyperbolic tangent of a value.
+         * 
+         * @param x the input value
+         * @return the approximate hyperbolic tangent
+         */
+        static double tanh(double x) {
+            if (x >= RANGE) {
+                return 1.0;
+            } else if (x <= -RANGE) {
+                return -1.0;
+            }
+            final double position = (x + RANGE) * RESOLUTION;
+            final int index = (int) position;
+            final double fraction = position - index;
+            final double low = TABLE[index];
+            return low + (TABLE[index + 1] - low) * fraction;
+        }
+
+        @Override
+        public double calculate(double x) {
+            return tanh(x);
+        }
+
+        @Override
+        public double derivative(double x) {
+            final double tanhx = tanh(x);
+            return 1.0 - tanhx * tanhx;
+        }
+
+        @Override
+        public double derivative(double x, double y) {
+            return 1.0 - y * y;
+        }
+
+        @Override
+        public void calculate(double[] x, double[] y, int offset, int length) {
+            for (int i = offset; i < offset + length; i++) {
+                y[i] = tanh(x[i]);
+            }
+        }
+
+        @Override
+        public void multiplyDerivative(double[] x, double[] y, double[] values, int offset, int length) {
+            for (int i = offset; i < offset + length; i++) {
+                values[i] *= 1.0 - y[i] * y[i];
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "fast_tanh";
+        }
+    }
+
+    /**
+     * An approximation of the sigmoid function that uses the lookup table of
+     * {@link FastHyperbolicTangent}, using the identity
+     * {@code sig(x) = (1 + tanh(x / 2)) / 2}. The result differs from the
+     * exact sigmoid by at most {@link #MAX_ERROR}.
+     */
+    public static class FastSigmoid implements TransferFunction {
+
+        /**
+         * The maximum difference between the output of this function and the
+         * exact sigmoid.
+         */
+        public static final double MAX_ERROR = FastHyperbolicTangent.MAX_ERROR / 2;
+
+        @Override
+        public double calculate(double x) {
+            return 0.5 + 0.5 * FastHyperbolicTangent.tanh(0.5 * x);
+        }
+
+        @Override
+        public double derivative(double x) {
+            final double y = calculate(x);
+            return y * (1.0 - y);
+        }
+
+        @Override
+        public double derivative(double x, double y) {
+            return y * (1.0 - y);
+        }
+
+        @Override
+        public void calculate(double[] x, double[] y, int offset, int length) {
+            for (int i = offset; i < offset + length; i++) {
+                y[i] = 0.5 + 0.5 * FastHyperbolicTangent.tanh(0.5 * x[i]);
+            }
+        }
+
+        @Override
+        public void multiplyDerivative(double[] x, double[] y, double[] values, int offset, int length) {
+            for (int i = offset; i < offset + length; i++) {
+                values[i] *= y[i] * (1.0 - y[i]);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "fast_sig";
+        }
+    }
 }
@@ -0,0 +1,202 @@
+/* 
+ * Copyright (c) 2015 RobotsByTheC. All rights reserved.
+ *
+ * Open Source Software - may be modified and shared by FRC teams. The code must
+ * be accompanied by the BSD license file in the root directory of the project.
+ */
+package org.usfirst.frc.team2084.neuralnetwork;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Implementation of {@link Kernels} that uses the Java Vector API. This class
+ * must only be loaded through {@link Kernels#INSTANCE}, which checks that the
+ * {@code jdk.incubator.vector} module is available first.
+ * 
+ * @author Ben Wolsieffer
+ */
+final class VectorKernels extends Kernels {
+
+    /**
+     * The widest vector shape supported by the processor.
+     */
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+    /**
+     * The widest vector shape supported by the processor, for single-precision
+     * values. This has twice as many lanes as {@link #SPECIES}.
+     */
+    private static final VectorSpecies<Float> FLOAT_SPECIES = FloatVector.SPECIES_PREFERRED;
+    /**
+     * The number of times each kernel is run when the class is loaded, so the
+     * JIT compiler has seen its vector loop run.
+     */
+    private static final int WARMUP_ITERATIONS = 200;
+
+    /**
+     * Creates the vectorized kernels and runs each of them
+     * {@link #WARMUP_ITERATIONS} times on enough values to fill several
+     * vectors.
+     * 
+     * The JIT compiler only inlines the Vector API into code that it has seen
+     * run. If a kernel is first used with inputs shorter than one vector (for
+     * example, by a network with one input), its vector loop never runs
+     * before it is compiled, so the compiled code calls the Vector API
+     * instead of using SIMD instructions, and every vector it creates is
+     * allocated on the heap. That code stays in use after longer inputs
+     * arrive, so the training loop would allocate for as long as the program
+     * runs.
+     */
+    VectorKernels() {
+        final int length = 2 * FLOAT_SPECIES.length() + 1;
+        final double[] a = new double[length];
+        final double[] b = new double[length];
+        final float[] fa = new float[length];
+        final float[] fb = new float[length];
+
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            dot(a, 0, b, 0, length);
+            axpy(1.0, a, 0, b, 0, length);
+            updateWeights(a, b, 0, a, 0, 1.0, 1.0, 1.0, length);
+            dot(fa, 0, fb, 0, length);
+            axpy(1.0f, fa, 0, fb, 0, length);
+            updateWeights(fa, fb, 0, fa, 0, 1.0f, 1.0f, 1.0f, length);
+        }
+    }
+
+    @Override
+    boolean isVectorized() {
+        return true;
+    }
+
+    @Override
+    double dot(final double[] a, final int aOffset, final double[] b, final int bOffset, final int length) {
+        final int upperBound = SPECIES.loopBound(length);
+        int i = 0;
+        double sum = 0.0;
+
+        if (upperBound > 0) {
+            DoubleVector acc = DoubleVector.zero(SPECIES);
+            for (; i < upperBound; i += SPECIES.length()) {
+                final DoubleVector va = DoubleVector.fromArray(SPECIES, a, aOffset + i);
+                final DoubleVector vb = DoubleVector.fromArray(SPECIES, b, bOffset + i);
+                acc = va.fma(vb, acc);
+            }
+            sum = acc.reduceLanes(VectorOperators.ADD);
+        }
+
+        // Handle the elements that do not fill a whole vector
+        for (; i < length; i++) {
+            sum += a[aOffset + i] * b[bOffset + i];
+        }
+        return sum;
+    }
+
+    @Override
+    void axpy(final double alpha, final double[] x, final int xOffset, final double[] y, final int yOffset,
+            final int length) {
+        final int upperBound = SPECIES.loopBound(length);
+        int i = 0;
+
+        for (; i < upperBound; i += SPECIES.length()) {
+            final DoubleVector vx = DoubleVector.fromArray(SPECIES, x, xOffset + i);
+            final DoubleVector vy = DoubleVector.fromArray(SPECIES, y, yOffset + i);
+            vx.lanewise(VectorOperators.FMA, alpha, vy).intoArray(y, yOffset + i);
+        }
+
+        for (; i < length; i++) {
+            y[yOffset + i] += alpha * x[xOffset + i];
+        }
+    }
+
+    @Override
+    void updateWeights(final double[] weights, final double[] deltaWeights, final int offset, final double[] x,
+            final int xOffset, final double eta, final double gradient, final double momentum, final int length) {
+        final int upperBound = SPECIES.loopBound(length);
+        int i = 0;
+
+        for (; i < upperBound; i += SPECIES.length()) {
+            final int w = offset + i;
+            final DoubleVector vx = DoubleVector.fromArray(SPECIES, x, xOffset + i);
+            final DoubleVector vd = DoubleVector.fromArray(SPECIES, deltaWeights, w);
+            final DoubleVector newDeltaWeights = vx.mul(eta).mul(gradient).add(vd.mul(momentum));
+
+            newDeltaWeights.intoArray(deltaWeights, w);
+            DoubleVector.fromArray(SPECIES, weights, w).add(newDeltaWeights).intoArray(weights, w);
+        }
+
+        for (; i < length; i++) {
+            final int w = offset + i;
+            final double newDeltaWeight = eta * x[xOffset + i] * gradient + momentum * deltaWeights[w];
+
+            deltaWeights[w] = newDeltaWeight;
+            weights[w] += newDeltaWeight;
+        }
+    }
+
+    @Override
+    float dot(final float[] a, final int aOffset, final float[] b, final int bOffset, final int length) {
+        final int upperBound = FLOAT_SPECIES.loopBound(length);
+        int i = 0;
+        float sum = 0.0f;
+
+        if (upperBound > 0) {
+            FloatVector acc = FloatVector.zero(FLOAT_SPECIES);
+            for (; i < upperBound; i += FLOAT_SPECIES.length()) {
+                final FloatVector va = FloatVector.fromArray(FLOAT_SPECIES, a, aOffset + i);
+                final FloatVector vb = FloatVector.fromArray(FLOAT_SPECIES, b, bOffset + i);
+                acc = va.fma(vb, acc);
+            }
+            sum = acc.reduceLanes(VectorOperators.ADD);
+        }
+
+        for (; i < length; i++) {
+            sum += a[aOffset + i] * b[bOffset + i];
+        }
+        return sum;
+    }
+
+    @Override
+    void axpy(final float alpha, final float[] x, final int xOffset, final float[] y, final int yOffset,
+            final int length) {
+        final int upperBound = FLOAT_SPECIES.loopBound(length);
+        int i = 0;
+
+        for (; i < upperBound; i += FLOAT_SPECIES.length()) {
+            final FloatVector vx = FloatVector.fromArray(FLOAT_SPECIES, x, xOffset + i);
+            final FloatVector vy = FloatVector.fromArray(FLOAT_SPECIES, y, yOffset + i);
+            vx.lanewise(VectorOperators.FMA, alpha, vy).intoArray(y, yOffset + i);
+        }
+
+        for (; i < length; i++) {
+            y[yOffset + i] += alpha * x[xOffset + i];
+        }
+    }
+
+    @Override
+    void updateWeights(final float[] weights, final float[] deltaWeights, final int offset, final float[] x,
+            final int xOffset, final float eta, final float gradient, final float momentum, final int length) {
+        final int upperBound = FLOAT_SPECIES.loopBound(length);
+        int i = 0;
+
+        for (; i < upperBound; i += FLOAT_SPECIES.length()) {
+            final int w = offset + i;
+            final FloatVector vx = FloatVector.fromArray(FLOAT_SPECIES, x, xOffset + i);
+            final FloatVector vd = FloatVector.fromArray(FLOAT_SPECIES, deltaWeights, w);
+            final FloatVector newDeltaWeights = vx.mul(eta).mul(gradient).add(vd.mul(momentum));
+
+            newDeltaWeights.intoArray(deltaWeights, w);
+            FloatVector.fromArray(FLOAT_SPECIES, weights, w).add(newDeltaWeights).intoArray(weights, w);
+        }
+
+        for (; i < length; i++) {
+            final int w = offset + i;
+            final float newDeltaWeight = eta * x[xOffset + i] * gradient + momentum * deltaWeights[w];
+
+            deltaWeights[w] = newDeltaWeight;
+            weights[w] += newDeltaWeight;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/* 
+ * Copyright (c) 2015 RobotsByTheC. All rights reserved.
+ *
+ * Open Source Software - may be modified and shared by FRC teams. The code must
+ * be accompanied by the BSD license file in the root directory of the project.
+ */
+package org.usfirst.frc.team2084.neuralnetwork;
+
+import java.util.SplittableRandom;
+
+/**
+ * Chooses the initial weights of a {@link Network}. The weights of each layer
+ * are scaled based on the number of neurons that feed into it (fan in) and
+ * that it feeds (fan out), so the outputs of each layer start out in the
+ * range where the transfer function is most sensitive.
+ * 
+ * The random numbers come from a {@link SplittableRandom} that belongs to the
+ * network, so networks can be created and reset on several threads at once
+ * without sharing a random number generator.
+ * 
+ * @author Ben Wolsieffer
+ */
+public interface WeightInitializer {
+
+    /**
+     * Chooses the initial weight of a connection from a normal neuron.
+     * 
+     * @param fanIn the number of neurons in the layer the connection comes
+     *            from, not including the bias neuron
+     * @param fanOut the number of neurons in the layer the connection goes to
+     * @param random the random number generator to use
+     * @return the weight
+     */
+    double weight(int fanIn, int fanOut, SplittableRandom random);
+
+    /**
+     * Chooses the initial weight of a connection from a bias neuron. By
+     * default, biases start at 0.
+     * 
+     * @param fanIn the number of neurons in the layer the connection comes
+     *            from, not including the bias neuron
+     * @param fanOut the number of neurons in the layer the connection goes to
+     * @param random the random number generator to use
+     * @return the bias weight
+     */
+    default double bias(int fanIn, int fanOut, SplittableRandom random) {
+        return 0.0;
+    }
+
+    /**
+     * Gets the initializer that works best with a transfer function:
+     * {@link He} for the ReLU family and {@link Xavier} for everything else.
+     * 
+     * @param transferFunction the transfer function of the layer the
+     *            connections go to
+     * @return the weight initializer
+     */
+    static WeightInitializer forTransferFunction(TransferFunction transferFunction) {
+        if (transferFunction instanceof TransferFunction.ReLU
+                || transferFunction instanceof TransferFunction.LeakyReLU) {
+            return new He();
+        }
+        return new Xavier();
+    }
+
+    /**
+     * Picks every weight, including the biases, from a uniform distribution.
+     * With the default range of [0, 1), this is how networks were initialized
+     * before initializers were added.
+     */
+    public static class Uniform implements WeightInitializer {
+
+        private final double min;
+        private final double max;
+
+        /**
+         * Creates an initializer that picks weights in the range [0, 1).
+         */
+        public Uniform() {
+            this(0.0, 1.0);
+        }
+
+        /**
+         * Creates an initializer that picks weights in the range [min, max).
+         * 
+         * @param min the smallest weight
+         * @param max the upper bound of the weights
+         */
+        public Uniform(double min, double max) {
+            if (!(min < max)) {
+                throw new IllegalArgumentException("min must be less than max.");
+            }
+            this.min = min;
+            this.max = max;
+        }
+
+        @Override
+        public double weight(int fanIn, int fanOut, SplittableRandom random) {
+            return random.nextDouble(min, max);
+        }
+
+        @Override
+        public double bias(int fanIn, int fanOut, SplittableRandom random) {
+            return random.nextDouble(min, max);
+        }
+    }
+
+    /**
+     * Xavier (Glorot) initialization, which picks weights uniformly from
+     * [-sqrt(6 / (fanIn + fanOut)), sqrt(6 / (fanIn + fanOut))). This keeps
+     * the variance of the outputs of each layer about the same, which suits
+     * the sigmoid and hyperbolic tangent.
+     */
+    public static class Xavier implements WeightInitializer {
+
+        @Override
+        public double weight(int fanIn, int fanOut, SplittableRandom random) {
+            final double limit = Math.sqrt(6.0 / (fanIn + fanOut));
+            return random.nextDouble(-limit, limit);
+        }
+    }
+
+    /**
+     * He initialization, which picks weights from a normal distribution with
+     * a standard deviation of sqrt(2 / fanIn). This makes up for the half of
+     * the inputs that a ReLU sets to zero.
+     */
+    public static class He implements WeightInitializer {
+
+        @Override
+        public double weight(int fanIn, int fanOut, SplittableRandom random) {
+            return random.nextGaussian() * Math.sqrt(2.0 / fanIn);
+        }
+    }
+}
@@ -0,0 +1,377 @@
+/* 
+ * Copyright (c) 2015 RobotsByTheC. All rights reserved.
+ *
+ * Open Source Software - may be modified and shared by FRC teams. The code must
+ * be accompanied by the BSD license file in the root directory of the project.
+ */
+package org.usfirst.frc.team2084.neuralnetwork;
+
+/**
+ * The activation and gradient buffers needed to run a batch of samples through
+ * the weights of a {@link Network}. The network's weights are only read, so
+ * several workspaces (one per thread) can work with the same network at the
+ * same time, as long as nothing updates the weights while they are running.
+ * 
+ * Each layer is stored as a matrix with one row per sample, and each row has
+ * an extra column for the bias neuron, like the layers of a {@link Network}.
+ * 
+ * @author Ben Wolsieffer
+ */
+final class Workspace {
+
+    private final int[] topology;
+    /**
+     * The number of samples that the buffers can hold.
+     */
+    private int capacity;
+    /**
+     * The output values of each layer for each sample.
+     */
+    double[][] outputs;
+    /**
+     * The sums of each layer for each sample.
+     */
+    double[][] sums;
+    /**
+     * The gradients of each layer for each sample.
+     */
+    double[][] gradients;
+
+    /**
+     * Creates a workspace for networks with the specified topology. The
+     * buffers are allocated when they are first needed.
+     * 
+     * @param topology the topology of the network
+     */
+    Workspace(final int[] topology) {
+        this.topology = topology;
+    }
+
+    /**
+     * Creates a workspace for networks with the specified topology, that can
+     * hold the specified number of samples without reallocating.
+     * 
+     * @param topology the topology of the network
+     * @param capacity the number of samples
+     */
+    Workspace(final int[] topology, final int capacity) {
+        this(topology);
+        ensureCapacity(capacity);
+    }
+
+    /**
+     * Makes sure the buffers can hold at least the specified number of
+     * samples, reallocating them if necessary.
+     * 
+     * @param length the number of samples
+     */
+    void ensureCapacity(final int length) {
+        if (length > capacity) {
+            outputs = new double[topology.length][];
+            sums = new double[topology.length][];
+            gradients = new double[topology.length][];
+            for (int l = 0; l < topology.length; l++) {
+                final int stride = topology[l] + 1;
+                final double[] layerOutputs = outputs[l] = new double[length * stride];
+                sums[l] = new double[length * stride];
+                gradients[l] = new double[length * stride];
+                // The bias column of every sample is always 1.0
+                for (int s = 0; s < length; s++) {
+                    layerOutputs[s * stride + topology[l]] = 1.0;
+                }
+            }
+            capacity = length;
+        }
+    }
+
+    /**
+     * Calculates the outputs of every layer for a range of samples.
+     * 
+     * @param network the network whose weights are used
+     * @param inputs the input values, with one row per sample
+     * @param offset the index of the first sample
+     * @param length the number of samples
+     */
+    void feedForward(final Network network, final double[][] inputs, final int offset, final int length) {
+        ensureCapacity(length);
+
+        final double[] inputBatch = outputs[0];
+        final int inputStride = topology[0] + 1;
+        for (int s = 0; s < length; s++) {
+            final double[] input = inputs[offset + s];
+            if (input.length != topology[0]) {
+                throw new IllegalArgumentException("Incorrect number of inputs in sample " + (offset + s));
+            }
+            System.arraycopy(input, 0, inputBatch, s * inputStride, input.length);
+        }
+
+        feedForwardLayers(network, length);
+    }
+
+    /**
+     * Calculates the outputs of every layer for a range of samples in a
+     * {@link Dataset}, in the order of the data set.
+     * 
+     * @param network the network whose weights are used
+     * @param dataset the samples
+     * @param offset the position of the first sample in the data set
+     * @param length the number of samples
+     */
+    void feedForward(final Network network, final Dataset dataset, final int offset, final int length) {
+        ensureCapacity(length);
+
+        final double[] inputBatch = outputs[0];
+        final int inputStride = topology[0] + 1;
+        final double[] inputs = dataset.getInputs();
+        for (int s = 0; s < length; s++) {
+            System.arraycopy(inputs, dataset.getInputOffset(offset + s), inputBatch, s * inputStride, topology[0]);
+        }
+
+        feedForwardLayers(network, length);
+    }
+
+    /**
+     * Calculates the outputs of every layer after the input layer, once the
+     * inputs have been copied into the first layer.
+     * 
+     * @param network the network whose weights are used
+     * @param length the number of samples
+     */
+    private void feedForwardLayers(final Network network, final int length) {
+        for (int layerNumber = 1; layerNumber < topology.length; layerNumber++) {
+            final TransferFunction transferFunction = network.getTransferFunction(layerNumber);
+            final int prevStride = topology[layerNumber - 1] + 1;
+            final int layerSize = topology[layerNumber];
+            final int stride = layerSize + 1;
+            final double[] layerSums = sums[layerNumber];
+            final double[] layerOutputs = outputs[layerNumber];
+
+            Matrix.multiplyTransposed(outputs[layerNumber - 1], length, prevStride, network.weights[layerNumber - 1],
+                    layerSize, prevStride, layerSums, stride);
+
+            // Skip the bias column of each row
+            for (int s = 0; s < length; s++) {
+                transferFunction.calculate(layerSums, layerOutputs, s * stride, layerSize);
+            }
+        }
+    }
+
+    /**
+     * Copies the outputs of the last {@link #feedForward} call into a matrix.
+     * 
+     * @param length the number of samples
+     * @param results the matrix to copy the outputs into, with one row per
+     *            sample
+     */
+    void copyResults(final int length, final double[][] results) {
+        final int outputSize = topology[topology.length - 1];
+        final double[] outputBatch = outputs[outputs.length - 1];
+        for (int s = 0; s < length; s++) {
+            System.arraycopy(outputBatch, s * (outputSize + 1), results[s], 0, outputSize);
+        }
+    }
+
+    /**
+     * Calculates the gradient of every neuron for the samples of the last
+     * {@link #feedForward} call.
+     * 
+     * @param network the network whose weights are used
+     * @param targetOutputs the target values for the outputs, with one row per
+     *            sample
+     * @param offset the index of the first sample
+     * @param length the number of samples
+     * @return the sum of the errors of the samples, each calculated the same
+     *         way as in {@link Network#backPropagation(double...)}
+     */
+    double calculateGradients(final Network network, final double[][] targetOutputs, final int offset,
+            final int length) {
+        final int outputSize = topology[topology.length - 1];
+
+        // Calculate the output gradients and the error of each sample
+        double error = 0.0;
+        for (int s = 0; s < length; s++) {
+            final double[] targetValues = targetOutputs[offset + s];
+            if (targetValues.length != outputSize) {
+                throw new IllegalArgumentException("Incorrect number of target outputs in sample " + (offset + s));
+            }
+            error += calculateOutputGradients(network, s, targetValues, 0);
+        }
+
+        calculateHiddenGradients(network, length);
+        return error;
+    }
+
+    /**
+     * Calculates the gradient of every neuron for the samples of the last
+     * {@link #feedForward(Network, Dataset, int, int)} call.
+     * 
+     * @param network the network whose weights are used
+     * @param dataset the samples
+     * @param offset the position of the first sample in the data set
+     * @param length the number of samples
+     * @return the sum of the errors of the samples
+     */
+    double calculateGradients(final Network network, final Dataset dataset, final int offset, final int length) {
+        final double[] targetOutputs = dataset.getTargetOutputs();
+
+        double error = 0.0;
+        for (int s = 0; s < length; s++) {
+            error += calculateOutputGradients(network, s, targetOutputs, dataset.getTargetOutputOffset(offset + s));
+        }
+
+        calculateHiddenGradients(network, length);
+        return error;
+    }
+
+    /**
+     * Calculates the error of the samples of the last
+     * {@link #feedForward(Network, Dataset, int, int)} call, without
+     * calculating any gradients.
+     * 
+     * @param dataset the samples
+     * @param offset the position of the first sample in the data set
+     * @param length the number of samples
+     * @return the sum of the errors of the samples, each calculated the same
+     *         way as in {@link Network#backPropagation(double...)}
+     */
+    double calculateError(final Dataset dataset, final int offset, final int length) {
+        final int outputSize = topology[topology.length - 1];
+        final int outputStride = outputSize + 1;
+        final double[] outputValues = outputs[topology.length - 1];
+        final double[] targetOutputs = dataset.getTargetOutputs();
+
+        double error = 0.0;
+        for (int s = 0; s < length; s++) {
+            final int row = s * outputStride;
+            final int targetOffset = dataset.getTargetOutputOffset(offset + s);
+            double sampleError = 0.0;
+            for (int n = 0; n < outputSize; n++) {
+                final double delta = targetOutputs[targetOffset + n] - outputValues[row + n];
+                sampleError += delta * delta;
+            }
+            error += Math.sqrt(sampleError / outputStride);
+        }
+        return error;
+    }
+
+    /**
+     * Calculates the output layer gradients of one sample.
+     * 
+     * @param network the network whose weights are used
+     * @param s the index of the sample in the workspace
+     * @param targetValues the array containing the target outputs
+     * @param targetOffset the index of the first target output of the sample
+     * @return the error of the sample, calculated the same way as in
+     *         {@link Network#backPropagation(double...)}
+     */
+    private double calculateOutputGradients(final Network network, final int s, final double[] targetValues,
+            final int targetOffset) {
+        final int outputLayerNumber = topology.length - 1;
+        final TransferFunction outputTransferFunction = network.getTransferFunction(outputLayerNumber);
+        final int outputSize = topology[outputLayerNumber];
+        final int outputStride = outputSize + 1;
+        final double[] outputValues = outputs[outputLayerNumber];
+        final double[] outputSums = sums[outputLayerNumber];
+        final double[] outputGradients = gradients[outputLayerNumber];
+
+        final int row = s * outputStride;
+        double sampleError = 0.0;
+        for (int n = 0; n < outputSize; n++) {
+            final double delta = targetValues[targetOffset + n] - outputValues[row + n];
+            sampleError += delta * delta;
+            outputGradients[row + n] = delta
+                    * outputTransferFunction.derivative(outputSums[row + n], outputValues[row + n]);
+        }
+        // Use the same error measurement as backPropagation()
+        return Math.sqrt(sampleError / outputStride);
+    }
+
+    /**
+     * Calculates the gradients of the hidden layers from the output layer
+     * gradients.
+     * 
+     * @param network the network whose weights are used
+     * @param length the number of samples
+     */
+    private void calculateHiddenGradients(final Network network, final int length) {
+        final int outputLayerNumber = topology.length - 1;
+        for (int layerNumber = outputLayerNumber - 1; layerNumber > 0; layerNumber--) {
+            final TransferFunction transferFunction = network.getTransferFunction(layerNumber);
+            final int layerSize = topology[layerNumber];
+            final int stride = layerSize + 1;
+            final double[] layerGradients = gradients[layerNumber];
+            final double[] layerSums = sums[layerNumber];
+            final double[] layerOutputs = outputs[layerNumber];
+
+            Matrix.multiply(gradients[layerNumber + 1], length, topology[layerNumber + 1] + 1,
+                    network.weights[layerNumber], topology[layerNumber + 1], stride, layerSize, layerGradients, stride);
+
+            for (int s = 0; s < length; s++) {
+                transferFunction.multiplyDerivative(layerSums, layerOutputs, layerGradients, s * stride, layerSize);
+            }
+        }
+    }
+
+    /**
+     * Sums the weight gradients of the samples of the last
+     * {@link #calculateGradients} call. Each weight gradient is the gradient
+     * of the neuron the connection feeds multiplied by the output of the
+     * neuron it comes from.
+     * 
+     * @param length the number of samples
+     * @param weightGradients the matrices to store the sums in, with the same
+     *            layout as the network's weights; their contents are
+     *            overwritten
+     */
+    void calculateWeightGradients(final int length, final double[][] weightGradients) {
+        for (int layerNumber = topology.length - 1; layerNumber > 0; layerNumber--) {
+            final int layerSize = topology[layerNumber];
+            final int prevStride = topology[layerNumber - 1] + 1;
+
+            Matrix.multiplyTransposedLeft(gradients[layerNumber], length, layerSize + 1, layerSize,
+                    outputs[layerNumber - 1], prevStride, prevStride, weightGradients[layerNumber - 1]);
+        }
+    }
+
+    /**
+     * Updates the weights of a network directly from the gradients of the
+     * first sample of the last {@link #calculateGradients} call, the same way
+     * as {@link Network#backPropagation(double...)} does. Nothing prevents
+     * other threads from updating the same weights at the same time.
+     * 
+     * @param network the network whose weights are updated
+     * @param eta the learning rate
+     * @param momentum the momentum
+     * @param step the number of the update, which is passed to the optimizer
+     */
+    void updateWeights(final Network network, final double eta, final double momentum, final long step) {
+        final Optimizer optimizer = network.getOptimizer();
+        for (int layerNumber = topology.length - 1; layerNumber > 0; layerNumber--) {
+            final double[] layerGradients = gradients[layerNumber];
+            final double[] prevOutputs = outputs[layerNumber - 1];
+            final double[] layerWeights = network.weights[layerNumber - 1];
+            final double[][] layerState = network.optimizerState[layerNumber - 1];
+            final int rowLength = topology[layerNumber - 1] + 1;
+
+            for (int n = 0; n < topology[layerNumber]; n++) {
+                optimizer.update(layerWeights, layerState, n * rowLength, prevOutputs, 0, layerGradients[n], 1, eta,
+                        momentum, step, rowLength);
+            }
+        }
+    }
+
+    /**
+     * Creates a set of matrices that can hold the weight gradients of a
+     * network with the specified topology.
+     * 
+     * @param topology the topology of the network
+     * @return the weight gradient matrices
+     */
+    static double[][] createWeightGradients(final int[] topology) {
+        final double[][] weightGradients = new double[topology.length - 1][];
+        for (int l = 0; l < weightGradients.length; l++) {
+            weightGradients[l] = new double[topology[l + 1] * (topology[l] + 1)];
+        }
+        return weightGradients;
+    }
+}
@@ -0,0 +1,179 @@
+/* 
+ * Copyright (c) 2015 RobotsByTheC. All rights reserved.
+ *
+ * Open Source Software - may be modified and shared by FRC teams. The code must
+ * be accompanied by the BSD license file in the root directory of the project.
+ */
+package org.usfirst.frc.team2084.neuralnetwork;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Checks that the prediction and training paths used in the robot's control
+ * loop do not allocate any memory, because every allocation eventually causes
+ * a garbage collection pause. The number of bytes allocated by the current
+ * thread is measured before and after running each path many times, and the
+ * test fails if any path allocated anything.
+ * 
+ * Only the kernels loaded by the current JVM are measured, so
+ * {@link #main(String[])} runs the test twice in new JVMs: once with the scalar
+ * kernels and once with {@code --add-modules jdk.incubator.vector}, which loads
+ * the vectorized kernels.
+ * 
+ * @author Ben Wolsieffer
+ */
+public class AllocationTest implements Test {
+
+    /**
+     * The number of times each path is run before measuring, so the JIT
+     * compiler has a chance to optimize it.
+     */
+    public static final int WARMUP_ITERATIONS = 20000;
+    /**
+     * The number of times each path is run while measuring.
+     */
+    public static final int ITERATIONS = 10000;
+    /**
+     * The number of times a path is warmed up and measured again if it
+     * allocated. The vectorized kernels allocate until the JIT compiler has
+     * compiled them, which can take longer than the warmup if the code was
+     * deoptimized, so only the last measurement decides whether the test
+     * fails.
+     */
+    public static final int ROUNDS = 5;
+
+    private final com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory
+            .getThreadMXBean();
+
+    /**
+     * Runs the test on its own, so it can be used in automated builds. The
+     * process exits with an error if anything allocated memory.
+     * 
+     * With no arguments, the test is run in two new JVMs, one for each
+     * implementation of the kernels. With an argument of {@code scalar} or
+     * {@code vector}, it is run in this JVM, which must have loaded that
+     * implementation.
+     * 
+     * @param args nothing, {@code scalar} or {@code vector}
+     * @throws IOException if a JVM could not be started
+     * @throws InterruptedException if the thread is interrupted while waiting
+     *             for a JVM to finish
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length == 0) {
+            final boolean scalarFailed = runJvm("scalar", "-Dneuralnetwork.vector=false") != 0;
+            final boolean vectorFailed = runJvm("vector", "--add-modules", "jdk.incubator.vector") != 0;
+            if (scalarFailed || vectorFailed) {
+                System.exit(1);
+            }
+            return;
+        }
+
+        final boolean vector = args[0].equals("vector");
+        if (!vector && !args[0].equals("scalar")) {
+            throw new IllegalArgumentException("Unknown kernels: " + args[0]);
+        }
+        if (Kernels.INSTANCE.isVectorized() != vector) {
+            throw new IllegalStateException("The " + args[0] + " kernels could not be loaded");
+        }
+        new AllocationTest().run();
+    }
+
+    /**
+     * Runs the test in a new JVM with the same class path as this one.
+     * 
+     * @param kernels the kernels the new JVM must use
+     * @param options the options that make the JVM load those kernels
+     * @return the exit code of the JVM
+     * @throws IOException if the JVM could not be started
+     * @throws InterruptedException if the thread is interrupted while waiting
+     *             for the JVM to finish
+     */
+    private static int runJvm(final String kernels, final String... options)
+            throws IOException, InterruptedException {
+        final List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(Arrays.asList(options));
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(AllocationTest.class.getName());
+        command.add(kernels);
+
+        System.out.println("Testing the " + kernels + " kernels:");
+        return new ProcessBuilder(command).inheritIO().start().waitFor();
+    }
+
+    @Override
+    public void run() {
+        if (!threadBean.isThreadAllocatedMemorySupported()) {
+            System.err.println("Warning: allocation measurement is not supported by this JVM");
+            return;
+        }
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+        System.out.println("Using the " + (Kernels.INSTANCE.isVectorized() ? "vector" : "scalar") + " kernels");
+
+        final Network single = new Network(new int[] { 1, 5, 1 }, 0.3, 0.1,
+                new TransferFunction.HyperbolicTangent());
+        final Network network = new Network(new int[] { 4, 16, 8, 2 }, 0.3, 0.1,
+                new TransferFunction.HyperbolicTangent());
+        final CompiledNetwork compiled = network.compileForInference();
+
+        final double[] input = { 0.1, -0.2, 0.3, -0.4 };
+        final double[] targetOutput = { 0.5, -0.5 };
+        final double[] output = new double[2];
+        final double[] hiddenOutputs = new double[16];
+
+        boolean failed = false;
+        failed |= check("feedForward(double)", () -> single.feedForward(0.25));
+        failed |= check("feedForward(double) + backPropagation(double)", () -> {
+            single.feedForward(0.25);
+            single.backPropagation(-0.5);
+        });
+        failed |= check("feedForward(double[]) + backPropagation(double[])", () -> {
+            network.feedForward(input);
+            network.backPropagation(targetOutput);
+        });
+        failed |= check("getResults()", () -> network.getResults());
+        failed |= check("getLayerOutputs(int, double[])", () -> network.getLayerOutputs(1, hiddenOutputs));
+        failed |= check("CompiledNetwork.predict()", () -> compiled.predict(input, output));
+
+        if (failed) {
+            throw new IllegalStateException("A hot path allocated memory");
+        }
+        System.out.println("No allocations detected.");
+    }
+
+    /**
+     * Measures the number of bytes allocated by a path and prints the result.
+     * 
+     * @param name the name of the path
+     * @param path the code to measure
+     * @return true if the path allocated memory
+     */
+    private boolean check(final String name, final Runnable path) {
+        final long threadId = Thread.currentThread().getId();
+        long allocated = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+                path.run();
+            }
+
+            final long before = threadBean.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < ITERATIONS; i++) {
+                path.run();
+            }
+            allocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+            if (allocated == 0) {
+                break;
+            }
+        }
+
+        System.out.printf("%s: %.2f bytes/call%n", name, (double) allocated / ITERATIONS);
+        return allocated > 0;
+    }
+}
@@ -16,6 +16,7 @@ public class FileTest implements Test {
 
     public static final int MAX_EPOCHS = 1000000;
     public static final double MAX_ERROR = 0.01;
+    public static final int PATIENCE = 1000;
 
     /**
      * Trains the network using a standard input file. This is not that useful
@@ -33,41 +34,28 @@ public class FileTest implements Test {
             System.out.println(Arrays.deepToString(inputs));
             System.out.println(Arrays.deepToString(targetOutputs));
 
-            int epochs = 0;
-            double averageError = 0;
-            while (true) {
-                double error = 0;
+            Trainer trainer = new Trainer(network);
+            trainer.setMaxEpochs(MAX_EPOCHS);
+            trainer.setTargetError(MAX_ERROR);
+            trainer.setPatience(PATIENCE, 0.0);
+            trainer.addListener((epoch, error, validationError) -> System.out.println("Error: " + error), 1000);
 
-                epochs++;
+            Trainer.StopReason reason = trainer.train(Dataset.fromArrays(inputs, targetOutputs));
+
+            System.out.println("==============");
+            if (reason == Trainer.StopReason.TARGET_ERROR) {
+                System.out.println("Took " + trainer.getEpoch() + " epochs to converge.");
                 for (int i = 0; i < inputs.length; i++) {
                     double[] input = inputs[i];
-                    double[] targetOutput = targetOutputs[i];
                     network.feedForward(input);
-                    network.backPropagation(targetOutput);
-                    error = network.getRecentAverageError();
-                }
-
-                averageError = error;
-                if (epochs % 1000 == 0) {
-                    System.out.println("Error: " + averageError);
-                }
-
-                if (averageError < MAX_ERROR) {
-                    System.out.println("==============");
-                    System.out.println("Took " + epochs + " epochs to converge.");
-                    for (int i = 0; i < inputs.length; i++) {
-                        double[] input = inputs[i];
-                        network.feedForward(input);
-                        System.out.println("Inputs: " + Arrays.toString(input));
-                        System.out.println("Outputs: " + Arrays.toString(network.getResults()));
-                    }
-
-                    break;
-                } else if (epochs >= MAX_EPOCHS) {
-                    System.out.println("==============");
-                    System.out.println("Did not converge after " + epochs + " epochs.");
-                    break;
+                    System.out.println("Inputs: " + Arrays.toString(input));
+                    System.out.println("Outputs: " + Arrays.toString(network.getResults()));
                 }
+            } else if (reason == Trainer.StopReason.PLATEAU) {
+                System.out.println("Stopped improving after " + trainer.getEpoch() + " epochs, with an error of "
+                        + trainer.getError() + ".");
+            } else {
+                System.out.println("Did not converge after " + trainer.getEpoch() + " epochs.");
             }
             // Save the network to an output file
             data.save(new File("data/networks/out.txt"));
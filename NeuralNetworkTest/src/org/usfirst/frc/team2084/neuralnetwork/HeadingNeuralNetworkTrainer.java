@@ -20,16 +20,20 @@ import java.lang.reflect.InvocationTargetException;
 import java.nio.file.Paths;
 import java.text.NumberFormat;
 import java.util.ArrayList;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
 
 import javax.swing.JButton;
 import javax.swing.JFileChooser;
 import javax.swing.JFormattedTextField;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
+import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.ProgressMonitor;
 import javax.swing.SwingUtilities;
 import javax.swing.SwingWorker;
+import javax.swing.filechooser.FileNameExtensionFilter;
 
 import org.jfree.chart.ChartFactory;
 import org.jfree.chart.ChartPanel;
@@ -47,9 +51,15 @@ import org.jfree.data.xy.XYSeriesCollection;
  */
 public class HeadingNeuralNetworkTrainer {
 
+    /**
+     * The number of epochs without improvement before training stops.
+     */
+    private static final int PATIENCE = 500;
+
     private final JFrame frame = new JFrame("Heading Neural Network Trainer");
     private final JFileChooser dataDirectoryChooser = new JFileChooser(getWorkingDirectory());
     private final JFileChooser saveFileChooser = new JFileChooser(getWorkingDirectory());
+    private final JFileChooser exportFileChooser = new JFileChooser(getWorkingDirectory());
 
     private final JPanel graphPanel = new JPanel();
     private final JPanel controlPanel = new JPanel();
@@ -69,6 +79,7 @@ public class HeadingNeuralNetworkTrainer {
     private final JButton chooseDataButton = new JButton("Choose Data");
     private final JButton trainButton = new JButton("Train");
     private final JButton saveButton = new JButton("Save");
+    private final JButton exportButton = new JButton("Export Java");
 
     private File dataDirectory;
     private final Network network;
@@ -158,6 +169,12 @@ public class HeadingNeuralNetworkTrainer {
                 });
                 controlPanel.add(saveButton);
 
+                exportButton.addActionListener((e) -> {
+                    exportNetwork();
+                });
+                controlPanel.add(exportButton);
+                exportFileChooser.setFileFilter(new FileNameExtensionFilter("Java source files", "java"));
+
                 content.add(controlPanel, BorderLayout.SOUTH);
 
                 dataDirectoryChooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
@@ -243,7 +260,18 @@ public class HeadingNeuralNetworkTrainer {
             @SuppressWarnings("unchecked")
             final ArrayList<XYDataItem> data = new ArrayList<>(outputGraphDataSeries.getItems());
 
-            final int maxProgress = iterations * data.size();
+            // Unbox the data once, so the training loop does not allocate
+            final int samples = data.size();
+            final double[] inputs = new double[samples];
+            final double[] targetOutputs = new double[samples];
+            for (int i = 0; i < samples; i++) {
+                XYDataItem d = data.get(i);
+                inputs[i] = convertAngleToInput(d.getXValue());
+                targetOutputs[i] = d.getYValue();
+            }
+
+            final Dataset dataset = new Dataset(1, 1, inputs, targetOutputs);
+            final int maxEpochs = iterations;
 
             final SwingWorker<Void, Void> trainingWorker = new SwingWorker<Void, Void>() {
 
@@ -256,25 +284,19 @@ public class HeadingNeuralNetworkTrainer {
                         network.setMomentum(momentum);
                     }
 
-                    outer: for (int j = 0; j < iterations; j++) {
-                        for (int i = 0; i < data.size(); i++) {
-                            if (!isCancelled()) {
-                                XYDataItem d = data.get(i);
-                                double error = convertAngleToInput(d.getXValue());
-                                double output = d.getYValue();
-                                synchronized (this) {
-                                    network.feedForward(error);
-                                    network.backPropagation(output);
-                                }
-                                int jl = j;
-                                int il = i;
-                                int progress = (int) (((float) (data.size() * jl + il + 1)
-                                        / maxProgress) * 100);
-                                setProgress(progress);
-                            } else {
-                                break outer;
-                            }
+                    final Trainer trainer = new Trainer(network);
+                    trainer.setMaxEpochs(maxEpochs);
+                    // Stop early once the network stops getting better
+                    trainer.setPatience(PATIENCE, 0.0);
+                    trainer.addListener((epoch, error, validationError) -> {
+                        if (isCancelled()) {
+                            trainer.stop();
+                        } else {
+                            setProgress((int) ((float) epoch / maxEpochs * 100));
                         }
+                    });
+                    if (samples > 0) {
+                        trainer.train(dataset);
                     }
 
                     displayNetwork();
@@ -326,6 +348,50 @@ public class HeadingNeuralNetworkTrainer {
         }
     }
 
+    /**
+     * Saves the network as a Java class that can be copied into the robot
+     * code, so it does not need the library or a data file.
+     */
+    private void exportNetwork() {
+        if (exportFileChooser.showSaveDialog(frame) == JFileChooser.APPROVE_OPTION) {
+            File selectedFile = exportFileChooser.getSelectedFile();
+            final File exportFile = selectedFile.getName().endsWith(".java") ? selectedFile
+                    : new File(selectedFile.getPath() + ".java");
+            final String className = exportFile.getName().substring(0, exportFile.getName().length() - 5);
+            final String packageName = JOptionPane.showInputDialog(frame, "Package name:", "org.usfirst.frc.team2084");
+            if (packageName == null) {
+                return;
+            }
+
+            new SwingWorker<Void, Void>() {
+
+                @Override
+                protected Void doInBackground() throws Exception {
+                    synchronized (network) {
+                        CodeGenerator.exportSource(network, packageName, className, exportFile);
+                    }
+
+                    return null;
+                }
+
+                @Override
+                protected void done() {
+                    try {
+                        get();
+                    } catch (ExecutionException e) {
+                        JOptionPane.showMessageDialog(frame, "Could not export network: " + e.getCause().getMessage(),
+                                "Export Failed", JOptionPane.ERROR_MESSAGE);
+                    } catch (InterruptedException | CancellationException e) {
+                        // These have no cause, and mean the export did not
+                        // finish
+                        JOptionPane.showMessageDialog(frame, "The network export did not finish.", "Export Failed",
+                                JOptionPane.ERROR_MESSAGE);
+                    }
+                }
+            }.execute();
+        }
+    }
+
     private static File getWorkingDirectory() {
         return new File(Paths.get("").toAbsolutePath().toString());
     }
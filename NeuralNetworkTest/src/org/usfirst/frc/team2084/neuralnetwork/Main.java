@@ -23,6 +23,8 @@ public class Main {
 		// Test test = new RobotHeadingTest();
 		// Test test = new FileTest();
 		// Test test = new PointFittingTest();
+		// Test test = new AllocationTest();
+		// Test test = new ParserBenchmark();
 		//
 		// test.run();
 
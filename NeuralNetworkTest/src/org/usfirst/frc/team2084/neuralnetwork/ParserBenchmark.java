@@ -0,0 +1,117 @@
+/* 
+ * Copyright (c) 2015 RobotsByTheC. All rights reserved.
+ *
+ * Open Source Software - may be modified and shared by FRC teams. The code must
+ * be accompanied by the BSD license file in the root directory of the project.
+ */
+package org.usfirst.frc.team2084.neuralnetwork;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.Scanner;
+import java.util.regex.Pattern;
+
+/**
+ * Compares the time it takes {@link Data} to load a large training file with
+ * the time it takes {@link Scanner} to read the same file the way
+ * {@link Data} used to, and checks that both read the same samples.
+ * 
+ * @author Ben Wolsieffer
+ */
+public class ParserBenchmark implements Test {
+
+    /**
+     * The number of input/output pairs in the generated file.
+     */
+    public static final int SAMPLES = 200000;
+    public static final int INPUTS = 10;
+    public static final int OUTPUTS = 3;
+    /**
+     * The number of times each parser reads the file.
+     */
+    public static final int RUNS = 3;
+
+    private static final Pattern labelPattern = Pattern.compile(".+:");
+
+    public static void main(String[] args) {
+        new ParserBenchmark().run();
+    }
+
+    @Override
+    public void run() {
+        try {
+            final File file = File.createTempFile("benchmark", ".txt");
+            file.deleteOnExit();
+
+            final Random random = new Random(2084);
+            final double[][] inputs = new double[SAMPLES][INPUTS];
+            final double[][] targetOutputs = new double[SAMPLES][OUTPUTS];
+            for (int s = 0; s < SAMPLES; s++) {
+                for (int i = 0; i < INPUTS; i++) {
+                    inputs[s][i] = random.nextGaussian();
+                }
+                for (int o = 0; o < OUTPUTS; o++) {
+                    // Short numbers, like most hand-made training data
+                    targetOutputs[s][o] = Math.round(random.nextDouble() * 1000) / 1000.0;
+                }
+            }
+            new Data(new Network(new int[] { INPUTS, 20, OUTPUTS }, 0.1, 0.1, new TransferFunction.Sigmoid()),
+                    inputs, targetOutputs).save(file);
+            System.out.printf("Generated %d samples (%.1f MB)%n", SAMPLES, file.length() / 1e6);
+
+            for (int r = 0; r < RUNS; r++) {
+                long start = System.nanoTime();
+                final double[][] scannerInputs = readWithScanner(file, "in");
+                final long scannerTime = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                final Data data = new Data(file);
+                final long dataTime = System.nanoTime() - start;
+
+                if (!Arrays.deepEquals(scannerInputs, data.getInputs())
+                        || !Arrays.deepEquals(inputs, data.getInputs())
+                        || !Arrays.deepEquals(targetOutputs, data.getTargetOutputs())) {
+                    throw new IllegalStateException("The parsers read different samples");
+                }
+
+                System.out.printf("Scanner: %.0f ms, Data: %.0f ms (%.1fx faster)%n", scannerTime / 1e6,
+                        dataTime / 1e6, (double) scannerTime / dataTime);
+            }
+        } catch (IOException | Data.FormatException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Reads the values of every line with the specified label, using
+     * {@link Scanner} like the original {@link Data} parser.
+     * 
+     * @param file the file to read
+     * @param label the label to find
+     * @return the values of each line
+     * @throws IOException if the file could not be read
+     */
+    private static double[][] readWithScanner(final File file, final String label) throws IOException {
+        final ArrayList<double[]> rows = new ArrayList<>();
+        try (Scanner data = new Scanner(new FileInputStream(file))) {
+            while (data.hasNextLine()) {
+                final String found = data.findInLine(labelPattern);
+                if (found != null) {
+                    final ArrayList<Double> values = new ArrayList<>();
+                    while (data.hasNextDouble()) {
+                        values.add(data.nextDouble());
+                    }
+                    if (found.substring(0, found.length() - 1).equals(label)) {
+                        rows.add(values.stream().mapToDouble(v -> v).toArray());
+                    }
+                }
+                data.nextLine();
+            }
+        }
+        return rows.toArray(new double[rows.size()][]);
+    }
+}
@@ -181,7 +181,7 @@ public class RobotHeadingTest implements Test {
                             network.setLayerOutputs(network.getTotalLayers() - 1, desired - robot.heading);
                             // Back-propagate to adjust weights to minimize
                             // error
-                            network.backPropagation(0);
+                            network.backPropagation(0.0);
                             error = network.getRecentAverageError();
                             // System.out.println("Speed: " + speed);
                             // System.out.println("Heading: " +